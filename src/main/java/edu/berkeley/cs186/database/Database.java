@@ -15,7 +15,9 @@ import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferStats;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
@@ -34,8 +36,10 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Phaser;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -56,6 +60,8 @@ import java.util.function.UnaryOperator;
  *
  * Each partition corresponds to a file in `fileDir`. The remaining partitions
  * are used for user created tables and are allocated as tables are created.
+ * If buffer warm-up is enabled, the set of pages in the buffer is also saved to
+ * a file in `fileDir` (see enableBufferWarmup).
  *
  * Metadata tables are manually synchronized and use a special locking hierarchy
  * to improve concurrency. The methods to lock and access metadata has already
@@ -80,7 +86,9 @@ public class Database implements AutoCloseable {
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
     // effective page size - table metadata size
-    private static final int MAX_SCHEMA_SIZE = 4006;
+    private static final int MAX_SCHEMA_SIZE = 4002;
+    // name of the file in fileDir that the buffer manager's resident page set is saved to
+    static final String WARMUP_FILE_NAME = "buffer.warmup";
 
     // _metadata.tables, manages all tables in the database
     private Table tableMetadata;
@@ -101,7 +109,11 @@ public class Database implements AutoCloseable {
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
     // number of pages of memory available total
-    private int numMemoryPages;
+    private volatile int numMemoryPages;
+    // number of frames in the rings of large scans and temp tables (0 to use the whole buffer)
+    private int scanRingSize = 0;
+    // directory the database's files are in
+    private final String fileDir;
     // active transactions
     private Phaser activeTransactions = new Phaser(0);
     // Statistics about the contents of the database.
@@ -155,7 +167,9 @@ public class Database implements AutoCloseable {
      * @param fileDir the directory to put the table files in
      * @param numMemoryPages the number of pages of memory in the buffer cache
      * @param lockManager the lock manager
-     * @param policy eviction policy for buffer cache
+     * @param policy eviction policy for buffer cache, e.g. TwoQEvictionPolicy or
+     *               LRUKEvictionPolicy for workloads where large scans would otherwise
+     *               flush out frequently used pages
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy) {
@@ -173,8 +187,30 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, DiskSpaceManagerImpl::new);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param diskSpaceManagerFactory creates the disk space manager, given the directory
+     *                                and the recovery manager, e.g.
+     *                                `(dir, rm) -> new DiskSpaceManagerImpl(dir, rm, true)`
+     *                                to defer syncing data page writes, or
+     *                                `MappedDiskSpaceManager::new` to access partitions
+     *                                through memory mapped files
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager,
+                    BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory) {
         boolean initialized = setupDirectory(fileDir);
 
+        this.fileDir = fileDir;
         numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
@@ -185,9 +221,10 @@ public class Database implements AutoCloseable {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
+        diskSpaceManager = diskSpaceManagerFactory.apply(fileDir, recoveryManager);
         bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
                                               policy);
+        setTempMemoryPages(numMemoryPages);
 
         // create log partition
         if (!initialized) diskSpaceManager.allocPart(0);
@@ -290,6 +327,8 @@ public class Database implements AutoCloseable {
 
         dropDemoTables();
 
+        // save what is in the buffer before it is emptied
+        this.bufferManager.saveResidentPages();
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
@@ -323,6 +362,78 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    public int getScanRingSize() {
+        // like Postgres, never give a single ring more than an eighth of the buffer
+        return Math.min(this.scanRingSize, this.numMemoryPages / 8);
+    }
+
+    /**
+     * Sets the number of frames that scans of tables larger than a quarter of the buffer, and
+     * reads and writes of temp tables (runs and partitions of sorts and joins), recycle through
+     * a private ring (see BufferAccessStrategy), instead of evicting pages used by everything
+     * else. Rings are disabled by default, since they change the number of I/Os queries do.
+     *
+     * @param scanRingSize number of frames per ring (capped at an eighth of the buffer),
+     *                     or 0 to disable rings
+     */
+    public void setScanRingSize(int scanRingSize) {
+        if (scanRingSize < 0) {
+            throw new IllegalArgumentException("ring size cannot be negative");
+        }
+        this.scanRingSize = scanRingSize;
+    }
+
+    /**
+     * Enables buffer warm-up: the set of pages in the buffer is saved to a file in the
+     * database directory when the database is closed (and every saveIntervalMillis
+     * milliseconds, if positive), and the set saved by the last run is loaded back into
+     * the buffer in the background, while the database is used (see
+     * BufferManager#preloadResidentPages). Warm-up is disabled by default, since it
+     * changes the number of I/Os queries do.
+     *
+     * @param saveIntervalMillis how often to save the set of pages in the buffer, or 0 to only save it on close
+     * @return future completing once the saved pages have been loaded
+     */
+    public CompletableFuture<Void> enableBufferWarmup(long saveIntervalMillis) {
+        bufferManager.setWarmupFile(new File(fileDir, WARMUP_FILE_NAME).toPath(), saveIntervalMillis);
+        return bufferManager.preloadResidentPages();
+    }
+
+    /**
+     * @return statistics of the buffer manager (see BufferManager#getStats)
+     */
+    public BufferStats getBufferStats() {
+        return this.bufferManager.getStats();
+    }
+
+    /**
+     * @return number of pages in the buffer
+     */
+    public int getNumMemoryPages() {
+        return this.numMemoryPages;
+    }
+
+    /**
+     * Resizes the buffer while the database is in use (see BufferManager#resize). Shrinking
+     * the buffer writes out and evicts the pages in the frames removed, waiting for queries
+     * using any of them to be done with them.
+     *
+     * @param numMemoryPages new number of pages in the buffer
+     */
+    public void resizeBuffer(int numMemoryPages) {
+        this.bufferManager.resize(numMemoryPages);
+        this.setTempMemoryPages(numMemoryPages);
+        this.numMemoryPages = numMemoryPages;
+    }
+
+    // Keeps as many pages of temporary partitions in memory as there are buffer frames, since
+    // temporary pages only reach the disk space manager once evicted from the buffer.
+    private void setTempMemoryPages(int numMemoryPages) {
+        if (this.diskSpaceManager instanceof DiskSpaceManagerImpl) {
+            ((DiskSpaceManagerImpl) this.diskSpaceManager).setTempMemoryPages(numMemoryPages);
+        }
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -331,13 +442,15 @@ public class Database implements AutoCloseable {
      * 1 | part_num     | int
      * 2 | page_num     | long
      * 3 | schema       | byte array(MAX_SCHEMA_SIZE)
+     * 4 | record_format | int (ordinal of Table.RecordFormat)
      */
     public Schema getTableInfoSchema() {
         return new Schema()
                 .add("table_name", Type.stringType(32))
                 .add("part_num", Type.intType())
                 .add("page_num", Type.longType())
-                .add("schema", Type.byteArrayType(MAX_SCHEMA_SIZE));
+                .add("schema", Type.byteArrayType(MAX_SCHEMA_SIZE))
+                .add("record_format", Type.intType());
     }
 
     /**
@@ -371,12 +484,14 @@ public class Database implements AutoCloseable {
         int partNum;
         long pageNum;
         Schema schema;
+        Table.RecordFormat format;
 
         TableMetadata(String tableName) {
             this.tableName = tableName;
             this.partNum = -1;
             this.pageNum = -1;
             this.schema = new Schema();
+            this.format = Table.RecordFormat.FIXED;
         }
 
         TableMetadata(Record record) {
@@ -384,13 +499,14 @@ public class Database implements AutoCloseable {
             partNum = record.getValue(1).getInt();
             pageNum = record.getValue(2).getLong();
             schema = Schema.fromBytes(ByteBuffer.wrap(record.getValue(3).toBytes()));
+            format = Table.RecordFormat.values()[record.getValue(4).getInt()];
         }
 
         Record toRecord() {
             byte[] schemaBytes = schema.toBytes();
             byte[] padded = new byte[MAX_SCHEMA_SIZE];
             System.arraycopy(schemaBytes, 0, padded, 0, schemaBytes.length);
-            return new Record(tableName, partNum, pageNum, padded);
+            return new Record(tableName, partNum, pageNum, padded, format.ordinal());
         }
     }
 
@@ -450,7 +566,7 @@ public class Database implements AutoCloseable {
         LockContext tableContext = getTableContext(tableName);
         long page0 = DiskSpaceManager.getVirtualPageNum(metadata.partNum, 0);
         PageDirectory pd = new PageDirectory(bufferManager, metadata.partNum, page0, (short) 0, tableContext);
-        return new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        return new Table(metadata.tableName, metadata.schema, pd, tableContext, stats, metadata.format);
     }
 
     /**
@@ -631,10 +747,15 @@ public class Database implements AutoCloseable {
             String tempTableName = "tempTable" + tempTableCounter++;
             String tableName = prefixTempTableName(tempTableName);
 
-            int partNum = diskSpaceManager.allocPart();
+            // Temp tables never outlive the database process, so they don't need to be logged
+            int partNum = diskSpaceManager.allocTempPart();
             long pageNum = diskSpaceManager.allocPage(partNum);
             // We can use dummy contexts since this table will only be visible from the current transaction
             PageDirectory pageDirectory = new PageDirectory(bufferManager, partNum, pageNum, (short) 0, new DummyLockContext("_dummyPageDir"));
+            int ringSize = getScanRingSize();
+            if (ringSize > 0) {
+                pageDirectory.setAccessStrategy(new BufferAccessStrategy(ringSize));
+            }
             tempTables.put(tempTableName, new Table(tableName, schema, pageDirectory, new DummyLockContext("_dummyTempTable" + tempTableName), stats));
             return tempTableName;
         }
@@ -731,7 +852,23 @@ public class Database implements AutoCloseable {
 
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
-            return getTable(tableName).iterator();
+            Table tab = getTable(tableName);
+            int ringSize = getScanRingSize();
+            // scans of small tables just use the buffer pool, since they don't evict much of it
+            if (ringSize > 0 && tab.getNumDataPages() > numMemoryPages / 4) {
+                return tab.iterator(new BufferAccessStrategy(ringSize));
+            }
+            return tab.iterator();
+        }
+
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns) {
+            Table tab = getTable(tableName);
+            int ringSize = getScanRingSize();
+            if (ringSize > 0 && tab.getNumDataPages() > numMemoryPages / 4) {
+                return tab.iterator(columns, new BufferAccessStrategy(ringSize));
+            }
+            return tab.iterator(columns, null);
         }
 
         @Override
@@ -761,6 +898,29 @@ public class Database implements AutoCloseable {
             return rid;
         }
 
+        @Override
+        public List<RecordId> addRecords(String tableName, List<Record> records) {
+            Table tab = getTable(tableName);
+            if (tab == null) {
+                throw new DatabaseException("table `" + tableName + "` does not exist!");
+            }
+            tableName = tab.getName();
+            List<RecordId> rids = tab.addRecords(records);
+            Schema s = tab.getSchema();
+            List<String> colNames = s.getFieldNames();
+
+            for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
+                BPlusTree tree = indexFromMetadata(p.getSecond());
+                int column = colNames.indexOf(tree.getMetadata().getColName());
+                List<Pair<DataBox, RecordId>> entries = new ArrayList<>(records.size());
+                for (int i = 0; i < records.size(); ++i) {
+                    entries.add(new Pair<>(records.get(i).getValue(column), rids.get(i)));
+                }
+                tree.putAll(entries);
+            }
+            return rids;
+        }
+
         @Override
         public RecordId deleteRecord(String tableName, RecordId rid) {
             Table tab = getTable(tableName);
@@ -1039,7 +1199,7 @@ public class Database implements AutoCloseable {
         }
 
         @Override
-        public void createTable(Schema s, String tableName) {
+        public void createTable(Schema s, String tableName, Table.RecordFormat format) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1056,6 +1216,7 @@ public class Database implements AutoCloseable {
             metadata.partNum = diskSpaceManager.allocPart();
             metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
             metadata.schema = s;
+            metadata.format = format;
             synchronized (tableMetadata) {
                 tableMetadata.addRecord(metadata.toRecord());
             }
@@ -1177,6 +1338,11 @@ public class Database implements AutoCloseable {
             transactionContext.addRecord(tableName, values);
         }
 
+        @Override
+        public void insertAll(String tableName, List<Record> records) {
+            transactionContext.addRecords(tableName, records);
+        }
+
         @Override
         public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue) {
             update(tableName, targetColumnName, targetValue, null, null, null);
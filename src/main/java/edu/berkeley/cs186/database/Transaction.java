@@ -6,7 +6,9 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -122,7 +124,20 @@ public abstract class Transaction implements AutoCloseable {
      * @param s schema of new table
      * @param tableName name of new table
      */
-    public abstract void createTable(Schema s, String tableName);
+    public void createTable(Schema s, String tableName) {
+        createTable(s, tableName, Table.RecordFormat.FIXED);
+    }
+
+    /**
+     * Creates a table whose records are stored in the given format (see Table.RecordFormat).
+     *
+     * Indices must be created afterwards with createIndex.
+     *
+     * @param s schema of new table
+     * @param tableName name of new table
+     * @param format layout of the table's records on its data pages
+     */
+    public abstract void createTable(Schema s, String tableName, Table.RecordFormat format);
 
     /**
      * Drops a table. Equivalent to
@@ -205,6 +220,18 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void insert(String tableName, Record record);
 
+    /**
+     * Inserts a batch of rows into a table. Equivalent to
+     *      INSERT INTO tableName VALUES (...), (...), ...
+     * Using the values in `records`. The rows are added a page at a time, and
+     * indices are updated once per batch (see TransactionContext#addRecords),
+     * so this is faster than inserting the rows one by one.
+     *
+     * @param tableName name of table to insert into
+     * @param records records containing the values to be inserted
+     */
+    public abstract void insertAll(String tableName, List<Record> records);
+
     /**
      * Updates rows in a table. Equivalent to
      *      UPDATE tableName SET targetColumnName = targetValue(targetColumnName)
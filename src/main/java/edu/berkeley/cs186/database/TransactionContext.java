@@ -11,6 +11,7 @@ import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
@@ -156,11 +157,27 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract BacktrackingIterator<Record> getRecordIterator(String tableName);
 
+    /**
+     * Returns a backtracking iterator over the columns at the given indices of
+     * all of the records in `tableName`: each record returned only has the
+     * values of these columns, in the given order (see Table#iterator(List,
+     * BufferAccessStrategy)).
+     */
+    public abstract BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns);
+
     public abstract boolean contains(String tableName, String columnName, DataBox key);
 
     // Record Operations ///////////////////////////////////////////////////////
     public abstract RecordId addRecord(String tableName, Record record);
 
+    /**
+     * Adds a batch of records to `tableName` (see Table#addRecords), and adds
+     * them to every index on the table, one index at a time in key order.
+     *
+     * @return the record ids of the records, in the same order
+     */
+    public abstract List<RecordId> addRecords(String tableName, List<Record> records);
+
     public abstract RecordId deleteRecord(String tableName, RecordId rid);
 
     public abstract void deleteRecordWhere(String tableName, String predColumnName, PredicateOperator predOperator,
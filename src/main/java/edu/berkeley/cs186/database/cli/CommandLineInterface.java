@@ -195,6 +195,18 @@ public class CommandLineInterface {
             } else {
                 this.out.println(db.getLockManager().getLocks(tc));
             }
+        } else if (cmd.equals("buffer")) {
+            if (tokens.length == 2) {
+                int numPages = Integer.parseInt(tokens[1]);
+                db.resizeBuffer(numPages);
+            }
+            this.out.printf("Buffer size: %d pages\n", db.getNumMemoryPages());
+        } else if (cmd.equals("stats")) {
+            List<Record> records = new ArrayList<>();
+            for (Map.Entry<String, String> stat : db.getBufferStats().toList()) {
+                records.add(new Record(stat.getKey(), stat.getValue()));
+            }
+            new PrettyPrinter(out).printRecords(Arrays.asList("stat", "value"), records.iterator());
         } else {
             throw new IllegalArgumentException(String.format(
                 "`%s` is not a valid metacommand",
@@ -17,6 +17,9 @@ import java.util.Iterator;
 import java.util.List;
 
 class CreateTableStatementVisitor extends StatementVisitor {
+    // number of rows of the query inserted into the new table at a time
+    private static final int INSERT_BATCH_SIZE = 1024;
+
     public String tableName;
     public List<String> errorMessages = new ArrayList<>();
     public Schema schema = new Schema();
@@ -98,9 +101,13 @@ class CreateTableStatementVisitor extends StatementVisitor {
                 }
                 transaction.createTable(s, this.tableName);
                 Iterator<Record> records = op.iterator();
+                List<Record> batch = new ArrayList<>();
                 while (records.hasNext()) {
-                    Record r = records.next();
-                    transaction.insert(this.tableName, r);
+                    batch.add(records.next());
+                    if (batch.size() == INSERT_BATCH_SIZE || !records.hasNext()) {
+                        transaction.insertAll(this.tableName, batch);
+                        batch.clear();
+                    }
                 }
             } else {
                 transaction.createTable(this.schema, this.tableName);
@@ -1,6 +1,5 @@
 package edu.berkeley.cs186.database.index;
 
-import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
@@ -255,20 +254,18 @@ abstract class BPlusNode {
      */
     public static BPlusNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager,
                                       LockContext treeContext, long pageNum) {
-        Page p = bufferManager.fetchPage(treeContext, pageNum);
-        try {
-            Buffer buf = p.getBuffer();
-            byte b = buf.get();
-            if (b == 1) {
-                return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else if (b == 0) {
-                return InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else {
-                String msg = String.format("Unexpected byte %b.", b);
-                throw new IllegalArgumentException(msg);
-            }
-        } finally {
+        // Nodes are loaded under a shared pin, so readers of the same node (e.g. the root)
+        // don't wait for each other.
+        Page p = bufferManager.fetchPageShared(treeContext, pageNum);
+        byte b = p.getBuffer().get();
+        if (b == 1) {
+            return LeafNode.fromPage(metadata, bufferManager, treeContext, p);
+        } else if (b == 0) {
+            return InnerNode.fromPage(metadata, bufferManager, treeContext, p);
+        } else {
             p.unpin();
+            String msg = String.format("Unexpected byte %b.", b);
+            throw new IllegalArgumentException(msg);
         }
     }
 }
@@ -111,6 +111,7 @@ public class BPlusTree {
         this.bufferManager = bufferManager;
         this.lockContext = lockContext;
         this.metadata = metadata;
+        bufferManager.registerIndexPartition(metadata.getPartNum());
 
         if (this.metadata.getRootPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
             this.root = BPlusNode.fromBytes(this.metadata, bufferManager, lockContext,
@@ -284,6 +285,24 @@ public class BPlusTree {
         }
     }
 
+    /**
+     * Inserts a batch of (key, rid) pairs into a B+ tree, in key order, so
+     * that consecutive inserts go down the same path of the tree and find its
+     * pages already in the buffer pool, instead of touching a random leaf for
+     * every pair. If a key already exists in the B+ tree (or appears twice in
+     * the batch), an exception is raised, and only the pairs with smaller keys
+     * are inserted.
+     *
+     * @param entries (key, rid) pairs, in any order
+     */
+    public void putAll(List<Pair<DataBox, RecordId>> entries) {
+        List<Pair<DataBox, RecordId>> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(Pair::getFirst));
+        for (Pair<DataBox, RecordId> entry : sorted) {
+            put(entry.getFirst(), entry.getSecond());
+        }
+    }
+
     /**
      * Bulk loads data into the B+ tree. Tree should be empty and the data
      * iterator should be in sorted order (by the DataBox key field) and
@@ -52,14 +52,17 @@ class InnerNode extends BPlusNode {
     InnerNode(BPlusTreeMetadata metadata, BufferManager bufferManager, List<DataBox> keys,
               List<Long> children, LockContext treeContext) {
         this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum()),
-             keys, children, treeContext);
+             keys, children, treeContext, true);
     }
 
     /**
-     * Construct an inner node that is persisted to page `page`.
+     * Construct an inner node that is persisted to page `page`. If `persist`
+     * is false, the node was just read from the page, which is left untouched
+     * (so it can be pinned in shared mode).
      */
     private InnerNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
-                      List<DataBox> keys, List<Long> children, LockContext treeContext) {
+                      List<DataBox> keys, List<Long> children, LockContext treeContext,
+                      boolean persist) {
         try {
             assert (keys.size() <= 2 * metadata.getOrder());
             assert (keys.size() + 1 == children.size());
@@ -70,7 +73,9 @@ class InnerNode extends BPlusNode {
             this.page = page;
             this.keys = new ArrayList<>(keys);
             this.children = new ArrayList<>(children);
-            sync();
+            if (persist) {
+                sync();
+            }
         } finally {
             page.unpin();
         }
@@ -407,7 +412,16 @@ class InnerNode extends BPlusNode {
      */
     public static InnerNode fromBytes(BPlusTreeMetadata metadata,
                                       BufferManager bufferManager, LockContext treeContext, long pageNum) {
-        Page page = bufferManager.fetchPage(treeContext, pageNum);
+        return fromPage(metadata, bufferManager, treeContext,
+                        bufferManager.fetchPageShared(treeContext, pageNum));
+    }
+
+    /**
+     * Loads an inner node from `page`, which must be pinned, and is unpinned
+     * once it is read (see LeafNode.fromPage).
+     */
+    static InnerNode fromPage(BPlusTreeMetadata metadata, BufferManager bufferManager,
+                              LockContext treeContext, Page page) {
         Buffer buf = page.getBuffer();
 
         byte nodeType = buf.get();
@@ -422,7 +436,7 @@ class InnerNode extends BPlusNode {
         for (int i = 0; i < n + 1; ++i) {
             children.add(buf.getLong());
         }
-        return new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
+        return new InnerNode(metadata, bufferManager, page, keys, children, treeContext, false);
     }
 
     // Builtins ////////////////////////////////////////////////////////////////
@@ -115,15 +115,18 @@ class LeafNode extends BPlusNode {
              List<RecordId> rids, Optional<Long> rightSibling, LockContext treeContext) {
         this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum()),
              keys, rids,
-             rightSibling, treeContext);
+             rightSibling, treeContext, true);
     }
 
     /**
-     * Construct a leaf node that is persisted to page `page`.
+     * Construct a leaf node that is persisted to page `page`. If `persist` is
+     * false, the node was just read from the page, which is left untouched
+     * (so it can be pinned in shared mode).
      */
     private LeafNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
                      List<DataBox> keys,
-                     List<RecordId> rids, Optional<Long> rightSibling, LockContext treeContext) {
+                     List<RecordId> rids, Optional<Long> rightSibling, LockContext treeContext,
+                     boolean persist) {
         try {
             assert (keys.size() == rids.size());
             assert (keys.size() <= 2 * metadata.getOrder());
@@ -136,7 +139,9 @@ class LeafNode extends BPlusNode {
             this.rids = new ArrayList<>(rids);
             this.rightSibling = rightSibling;
 
-            sync();
+            if (persist) {
+                sync();
+            }
         } finally {
             page.unpin();
         }
@@ -450,7 +455,17 @@ class LeafNode extends BPlusNode {
         // brand new one.
 
         // Jay: similar to InnerNode::fromBytes, account for the difference how the LeafNode is serialized.
-        Page page = bufferManager.fetchPage(treeContext, pageNum);
+        return fromPage(metadata, bufferManager, treeContext,
+                        bufferManager.fetchPageShared(treeContext, pageNum));
+    }
+
+    /**
+     * Loads a leaf node from `page`, which must be pinned, and is unpinned once
+     * it is read. The page is only read, so readers of the tree can pin it in
+     * shared mode; the node pins it in exclusive mode whenever it is changed.
+     */
+    static LeafNode fromPage(BPlusTreeMetadata metadata, BufferManager bufferManager,
+                             LockContext treeContext, Page page) {
         Buffer buf = page.getBuffer();
 
         byte nodeType = buf.get();
@@ -472,7 +487,7 @@ class LeafNode extends BPlusNode {
             keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
             rids.add(RecordId.fromBytes(buf));
         }
-        return new LeafNode(metadata, bufferManager, page, keys, rids, rightSibling, treeContext);
+        return new LeafNode(metadata, bufferManager, page, keys, rids, rightSibling, treeContext, false);
     }
 
     // Builtins ////////////////////////////////////////////////////////////////
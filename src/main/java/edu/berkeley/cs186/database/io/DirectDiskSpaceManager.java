@@ -0,0 +1,42 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+/**
+ * A disk space manager using the same on-disk format as DiskSpaceManagerImpl, but which
+ * reads and writes data pages with direct I/O where the JVM and filesystem support it (see
+ * DirectPartitionHandle), so that pages cached by the buffer manager are not cached a
+ * second time by the OS. The buffer manager can then be sized to most of the machine's
+ * memory. Where direct I/O is not supported, this behaves like DiskSpaceManagerImpl.
+ *
+ * Direct I/O bypasses the OS cache but not necessarily the disk's write cache, so writes
+ * are still forced to disk as with DiskSpaceManagerImpl.
+ */
+public class DirectDiskSpaceManager extends DiskSpaceManagerImpl {
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public DirectDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        super(dbDir, recoveryManager);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes (outside of the log partition) are not
+     *                  forced to disk until sync or syncAll is called
+     */
+    public DirectDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean deferSync) {
+        super(dbDir, recoveryManager, deferSync);
+    }
+
+    @Override
+    PartitionHandle createPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        return new DirectPartitionHandle(partNum, recoveryManager, syncOnWrite);
+    }
+}
@@ -0,0 +1,180 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Partition handle that reads and writes data pages with direct I/O (O_DIRECT), bypassing
+ * the OS page cache, so that data pages are only cached once, in the buffer manager. Master
+ * and header pages are still read and written through the regular file channel.
+ *
+ * Direct I/O requires buffers, offsets, and lengths aligned to the block size of the
+ * filesystem. Data pages are at offsets that are multiples of the page size, and are copied
+ * through direct buffers aligned to the page size, which is a multiple of the block size on
+ * common filesystems.
+ *
+ * Direct I/O is not available everywhere: the JVM may not support it (the DIRECT open option
+ * was added in Java 10, and is looked up at runtime), the filesystem may refuse to open files
+ * with it (e.g. tmpfs), or may reject an aligned read or write. In all of these cases, the
+ * handle falls back to the regular file channel, and behaves exactly like a PartitionHandle.
+ */
+class DirectPartitionHandle extends PartitionHandle {
+    // com.sun.nio.file.ExtendedOpenOption.DIRECT, or null if the JVM doesn't support it
+    private static final OpenOption DIRECT;
+
+    // ByteBuffer#alignedSlice(int), or null if the JVM doesn't support it
+    private static final Method ALIGNED_SLICE;
+
+    static {
+        OpenOption direct = null;
+        Method alignedSlice = null;
+        try {
+            direct = (OpenOption) Class.forName("com.sun.nio.file.ExtendedOpenOption")
+                     .getField("DIRECT").get(null);
+            alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+        } catch (ReflectiveOperationException e) {
+            direct = null;
+        }
+        DIRECT = direct;
+        ALIGNED_SLICE = alignedSlice;
+    }
+
+    // Aligned direct buffer of each thread, grown as needed. Positional reads and writes
+    // on the direct channel may be issued concurrently, so buffers aren't shared.
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    // File channel opened for direct I/O, or null if direct I/O is not in use.
+    private volatile FileChannel directChannel;
+
+    DirectPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        super(partNum, recoveryManager, syncOnWrite);
+    }
+
+    /**
+     * @return whether the JVM supports opening files for direct I/O
+     */
+    static boolean directIOSupported() {
+        return DIRECT != null && ALIGNED_SLICE != null;
+    }
+
+    @Override
+    void open(String fileName) {
+        super.open(fileName);
+        if (directIOSupported()) {
+            try {
+                this.directChannel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE, DIRECT);
+            } catch (IOException | UnsupportedOperationException e) {
+                // filesystem doesn't support direct I/O
+                this.directChannel = null;
+            }
+        }
+    }
+
+    @Override
+    void release() throws IOException {
+        super.release();
+        if (this.directChannel != null) {
+            this.directChannel.close();
+            this.directChannel = null;
+        }
+    }
+
+    /**
+     * @return whether data pages are currently read and written with direct I/O
+     */
+    boolean isDirect() {
+        return this.directChannel != null;
+    }
+
+    @Override
+    void readDataPage(long offset, ByteBuffer buf) throws IOException {
+        if (this.directChannel == null) {
+            super.readDataPage(offset, buf);
+        } else {
+            this.readDataPages(offset, new ByteBuffer[] {buf}, 0, 1);
+        }
+    }
+
+    @Override
+    void readDataPages(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        FileChannel channel = this.directChannel;
+        if (channel == null) {
+            super.readDataPages(offset, bufs, start, count);
+            return;
+        }
+        ByteBuffer b = getBuffer(count * PAGE_SIZE);
+        try {
+            while (b.hasRemaining()) {
+                if (channel.read(b, offset + b.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            this.disableDirect(channel);
+            super.readDataPages(offset, bufs, start, count);
+            return;
+        }
+        b.flip();
+        PartitionHandle.copyPages(b, bufs, start, count);
+    }
+
+    @Override
+    void writeDataPage(long offset, ByteBuffer buf) throws IOException {
+        FileChannel channel = this.directChannel;
+        if (channel == null) {
+            super.writeDataPage(offset, buf);
+            return;
+        }
+        ByteBuffer b = getBuffer(PAGE_SIZE);
+        b.put(PartitionHandle.wholePage(buf));
+        b.flip();
+        try {
+            while (b.hasRemaining()) {
+                channel.write(b, offset + b.position());
+            }
+        } catch (IOException e) {
+            this.disableDirect(channel);
+            super.writeDataPage(offset, buf);
+        }
+    }
+
+    // Falls back to the regular file channel after direct I/O failed (most likely because
+    // the filesystem requires a larger alignment than the page size). A genuine I/O error
+    // will fail again on the regular file channel.
+    private synchronized void disableDirect(FileChannel channel) {
+        if (this.directChannel == channel) {
+            this.directChannel = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing more we can do with it
+            }
+        }
+    }
+
+    // Gets this thread's aligned direct buffer, cleared and limited to size bytes.
+    private static ByteBuffer getBuffer(int size) throws IOException {
+        ByteBuffer b = buffers.get();
+        if (b == null || b.capacity() < size) {
+            try {
+                b = (ByteBuffer) ALIGNED_SLICE.invoke(ByteBuffer.allocateDirect(size + PAGE_SIZE), PAGE_SIZE);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("could not allocate aligned buffer: " + e.getMessage());
+            }
+            buffers.set(b);
+        }
+        b.clear();
+        b.limit(size);
+        return b;
+    }
+}
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
 public interface DiskSpaceManager extends AutoCloseable {
     short PAGE_SIZE = 4096; // size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
@@ -22,6 +25,26 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     int allocPart(int partNum);
 
+    /**
+     * Allocates a new temporary partition, for data that does not need to survive a crash
+     * (such as temporary tables). Changes to temporary partitions are not logged, and need
+     * not be written to durable storage. By default, allocates a regular partition.
+     *
+     * @return partition number of new partition
+     */
+    default int allocTempPart() {
+        return allocPart();
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether partNum is a temporary partition allocated with allocTempPart,
+     * whose changes should not be logged
+     */
+    default boolean isTempPart(int partNum) {
+        return false;
+    }
+
     /**
      * Releases a partition from use.
 
@@ -43,6 +66,25 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     long allocPage(long pageNum);
 
+    /**
+     * Allocates several new pages in a partition. Implementations try to allocate the
+     * pages contiguously on disk, so that they can later be read with sequential I/O.
+     * By default, allocates each page separately.
+     * @param partNum partition to allocate new pages under
+     * @param count number of pages to allocate
+     * @return virtual page numbers of new pages
+     */
+    default long[] allocPages(int partNum, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("cannot allocate nonpositive number of pages");
+        }
+        long[] pages = new long[count];
+        for (int i = 0; i < count; ++i) {
+            pages[i] = allocPage(partNum);
+        }
+        return pages;
+    }
+
     /**
      * Frees a page. The page cannot be used after this call.
      * @param page virtual page number of page to be released
@@ -57,6 +99,23 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void readPage(long page, byte[] buf);
 
+    /**
+     * Reads several pages. Implementations may coalesce reads of pages that are
+     * adjacent on disk into a single I/O. By default, reads each page separately.
+     *
+     * @param pages numbers of pages to be read
+     * @param bufs byte buffers whose contents will be filled with page data;
+     *             bufs[i] is filled with the contents of pages[i]
+     */
+    default void readPages(long[] pages, byte[][] bufs) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("readPages expects one buffer per page");
+        }
+        for (int i = 0; i < pages.length; ++i) {
+            readPage(pages[i], bufs[i]);
+        }
+    }
+
     /**
      * Writes to a page.
      *
@@ -65,6 +124,125 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads a page into a page-sized ByteBuffer, which is filled from start to end regardless
+     * of its position and limit (both are left unchanged). Implementations may read straight
+     * into direct buffers, without going through an array. By default, reads the page into an
+     * array and copies it into the buffer.
+     *
+     * @param page number of page to be read
+     * @param buf buffer to be filled with page data
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        byte[] contents = new byte[PAGE_SIZE];
+        readPage(page, contents);
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        b.put(contents);
+    }
+
+    /**
+     * Reads several pages into page-sized ByteBuffers, as readPages and readPage(long, ByteBuffer).
+     * By default, reads the pages into arrays and copies them into the buffers.
+     *
+     * @param pages numbers of pages to be read
+     * @param bufs buffers to be filled with page data; bufs[i] is filled with the contents of pages[i]
+     */
+    default void readPages(long[] pages, ByteBuffer[] bufs) {
+        byte[][] contents = new byte[bufs.length][PAGE_SIZE];
+        readPages(pages, contents);
+        for (int i = 0; i < bufs.length; ++i) {
+            ByteBuffer b = bufs[i].duplicate();
+            b.clear();
+            b.put(contents[i]);
+        }
+    }
+
+    /**
+     * Writes the contents of a page-sized ByteBuffer (from start to end, regardless of its
+     * position and limit) to a page. By default, copies the buffer into an array and writes that.
+     *
+     * @param page number of page to be written
+     * @param buf buffer that contains the new page data
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        byte[] contents = new byte[PAGE_SIZE];
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        b.get(contents);
+        writePage(page, contents);
+    }
+
+    /**
+     * Reads a page asynchronously. The buffer must not be used until the returned future
+     * completes; if the read fails, the future completes exceptionally with the exception
+     * readPage would have thrown. By default, reads the page before returning.
+     *
+     * @param page number of page to be read
+     * @param buf byte buffer whose contents will be filled with page data
+     * @return future completed once buf has been filled
+     */
+    default CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        return CompletableFuture.runAsync(() -> readPage(page, buf), Runnable::run);
+    }
+
+    /**
+     * Reads several pages asynchronously, as readPages. By default, reads the pages
+     * before returning.
+     *
+     * @param pages numbers of pages to be read
+     * @param bufs byte buffers whose contents will be filled with page data
+     * @return future completed once every buffer has been filled
+     */
+    default CompletableFuture<Void> readPagesAsync(long[] pages, byte[][] bufs) {
+        return CompletableFuture.runAsync(() -> readPages(pages, bufs), Runnable::run);
+    }
+
+    /**
+     * Reads several pages into page-sized ByteBuffers asynchronously, as readPagesAsync and
+     * readPages(long[], ByteBuffer[]). By default, reads the pages into arrays with
+     * readPagesAsync, and copies them into the buffers once the read completes.
+     *
+     * @param pages numbers of pages to be read
+     * @param bufs buffers to be filled with page data
+     * @return future completed once every buffer has been filled
+     */
+    default CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+        byte[][] contents = new byte[bufs.length][PAGE_SIZE];
+        return readPagesAsync(pages, contents).thenRun(() -> {
+            for (int i = 0; i < bufs.length; ++i) {
+                ByteBuffer b = bufs[i].duplicate();
+                b.clear();
+                b.put(contents[i]);
+            }
+        });
+    }
+
+    /**
+     * Writes to a page asynchronously. The buffer must not be modified until the returned
+     * future completes. By default, writes the page before returning.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer that contains the new page data
+     * @return future completed once the page has been written
+     */
+    default CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        return CompletableFuture.runAsync(() -> writePage(page, buf), Runnable::run);
+    }
+
+    /**
+     * Forces all writes made to a partition so far to stable storage. Writes
+     * are not guaranteed to survive a crash until the partition has been synced.
+     *
+     * @param partNum partition to sync
+     */
+    void sync(int partNum);
+
+    /**
+     * Forces all writes made to every partition so far to stable storage.
+     */
+    void syncAll();
+
     /**
      * Checks if a page is allocated
      *
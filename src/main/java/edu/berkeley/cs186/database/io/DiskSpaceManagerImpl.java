@@ -1,13 +1,24 @@
 package edu.berkeley.cs186.database.io;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -44,10 +55,39 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * By default, every data page write is forced to disk before writePage returns. A disk space manager
+ * may instead be created with deferred syncing, in which case data page writes to partitions other than
+ * the log partition only reach the OS cache, and are made durable in batches by calling sync or syncAll.
+ * This is safe with respect to write-ahead logging, since the log is forced before any data page is written
+ * (see RecoveryManager#pageFlushHook), and log partition writes are always forced immediately.
+ *
+ * Operations on pages do not lock the entire manager. Each partition has a read-write lock, held in shared
+ * mode by operations on its pages and in exclusive mode while the partition is opened, closed, or freed.
+ * Within a partition, allocating and freeing pages locks only the header page managing the page, and
+ * reads and writes of data pages use positional I/O, so threads reading different pages of a partition
+ * do not wait on each other.
+ *
+ * Partitions are opened lazily: creating the disk space manager only lists the partition files in the
+ * directory, and a partition's OS file is opened (and its master and header pages loaded) the first time the
+ * partition is used. At most maxOpenPartitions partitions are kept open at a time; when more are opened, the OS
+ * files of the least recently used partitions not currently in use are closed, to be reopened on next use.
+ *
+ * The asynchronous read and write methods run on a pool of IO_THREADS threads owned by the disk space
+ * manager. Closing the disk space manager waits for outstanding asynchronous operations to finish.
+ *
+ * Temporary partitions (see allocTempPart) are not backed by files in the database directory. Their pages
+ * are kept off-heap, up to tempMemoryPages pages (DEFAULT_TEMP_MEMORY_PAGES unless given when creating the disk
+ * space manager, or changed with setTempMemoryPages), and spilled to scratch files past that (see TempSpace).
+ * Changes to temporary partitions are never logged or synced, and temporary partitions do not survive
+ * closing the disk space manager.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
     static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
     static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
+    static final int IO_THREADS = 4; // threads used for asynchronous reads and writes
+    static final int DEFAULT_MAX_OPEN_PARTITIONS = 512; // default limit on open OS files
+    static final int DEFAULT_TEMP_MEMORY_PAGES = 256; // default limit on temporary pages kept in memory
 
     // Name of base directory.
     private String dbDir;
@@ -55,15 +95,32 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     // Info about each partition.
     private Map<Integer, PartitionHandle> partInfo;
 
+    // Partitions whose OS files are currently open.
+    private Set<PartitionHandle> openPartitions;
+
+    // Number of partitions to keep open before closing the least recently used ones.
+    private volatile int maxOpenPartitions;
+
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
-    // Lock on the entire manager.
+    // Lock on the entire manager, held while allocating and freeing partitions. Operations
+    // on pages only lock the partition they are in (see lockPartition).
     private ReentrantLock managerLock;
 
     // recovery manager
     private RecoveryManager recoveryManager;
 
+    // whether data page writes are left unsynced until sync/syncAll is called
+    private boolean deferSync;
+
+    // Executor for asynchronous reads and writes. Threads are started on demand, and
+    // exit when idle.
+    private ThreadPoolExecutor ioExecutor;
+
+    // Pages of temporary partitions.
+    private TempSpace tempSpace;
+
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
      * if not present.
@@ -71,11 +128,52 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, false);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes (outside of the log partition) are not
+     *                  forced to disk until sync or syncAll is called
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean deferSync) {
+        this(dbDir, recoveryManager, deferSync, DEFAULT_TEMP_MEMORY_PAGES);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes (outside of the log partition) are not
+     *                  forced to disk until sync or syncAll is called
+     * @param tempMemoryPages number of pages of temporary partitions kept in memory before
+     *                        spilling to disk
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean deferSync,
+                                int tempMemoryPages) {
+        if (tempMemoryPages < 0) {
+            throw new IllegalArgumentException("negative number of temporary pages");
+        }
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
-        this.partInfo = new HashMap<>();
+        this.deferSync = deferSync;
+        this.partInfo = new ConcurrentHashMap<>();
+        this.openPartitions = ConcurrentHashMap.newKeySet();
+        this.maxOpenPartitions = DEFAULT_MAX_OPEN_PARTITIONS;
         this.partNumCounter = new AtomicInteger(0);
         this.managerLock = new ReentrantLock();
+        this.ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), (Runnable r) -> {
+                    Thread t = new Thread(r, "disk-io");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.ioExecutor.allowCoreThreadTimeOut(true);
+        this.tempSpace = new TempSpace(tempMemoryPages);
 
         File dir = new File(dbDir);
         if (!dir.exists()) {
@@ -89,6 +187,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
             for (File f : files) {
+                // other files in the directory (e.g. the buffer manager's warm-up file) aren't partitions
+                if (!f.getName().matches("\\d+")) {
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
@@ -98,9 +200,8 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 int fileNum = Integer.parseInt(f.getName());
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager);
-                pi.open(dbDir + "/" + f.getName());
-                this.partInfo.put(fileNum, pi);
+                // opened on first use
+                this.partInfo.put(fileNum, this.newPartitionHandle(fileNum));
             }
             this.partNumCounter.set(maxFileNum + 1);
         }
@@ -108,6 +209,15 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public void close() {
+        this.ioExecutor.shutdown();
+        try {
+            while (!this.ioExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for outstanding asynchronous operations
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PageException("interrupted while waiting for asynchronous I/O to finish");
+        }
         for (Map.Entry<Integer, PartitionHandle> part : this.partInfo.entrySet()) {
             try {
                 part.getValue().close();
@@ -115,6 +225,42 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not close partition " + part.getKey() + ": " + e.getMessage());
             }
         }
+        this.openPartitions.clear();
+        this.tempSpace.close();
+    }
+
+    /**
+     * Sets the number of partitions whose OS files are kept open. When more partitions than
+     * this are in use, the least recently used ones are closed until they are next used.
+     *
+     * @param maxOpenPartitions maximum number of open partitions
+     */
+    public void setMaxOpenPartitions(int maxOpenPartitions) {
+        if (maxOpenPartitions <= 0) {
+            throw new IllegalArgumentException("must allow at least one open partition");
+        }
+        this.maxOpenPartitions = maxOpenPartitions;
+        this.releaseIdlePartitions();
+    }
+
+    /**
+     * Sets the number of pages of temporary partitions kept in memory. Past this, pages of
+     * temporary partitions are spilled to scratch files.
+     *
+     * @param tempMemoryPages number of temporary pages kept in memory
+     */
+    public void setTempMemoryPages(int tempMemoryPages) {
+        if (tempMemoryPages < 0) {
+            throw new IllegalArgumentException("negative number of temporary pages");
+        }
+        this.tempSpace.setMemoryPages(tempMemoryPages);
+    }
+
+    /**
+     * @return number of partitions whose OS files are currently open
+     */
+    int getNumOpenPartitions() {
+        return this.openPartitions.size();
     }
 
     @Override
@@ -128,19 +274,36 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         return this.allocPartHelper(partNum);
     }
 
+    @Override
+    public int allocTempPart() {
+        int partNum = this.partNumCounter.getAndIncrement();
+        this.managerLock.lock();
+        try {
+            this.tempSpace.allocPart(partNum);
+        } finally {
+            this.managerLock.unlock();
+        }
+        return partNum;
+    }
+
+    @Override
+    public boolean isTempPart(int partNum) {
+        return this.tempSpace.hasPart(partNum);
+    }
+
     private int allocPartHelper(int partNum) {
         PartitionHandle pi;
 
         this.managerLock.lock();
         try {
-            if (this.partInfo.containsKey(partNum)) {
+            if (this.partInfo.containsKey(partNum) || this.tempSpace.hasPart(partNum)) {
                 throw new IllegalStateException("partition number " + partNum + " already exists");
             }
 
-            pi = new PartitionHandle(partNum, recoveryManager);
-            this.partInfo.put(partNum, pi);
+            pi = this.newPartitionHandle(partNum);
+            pi.partitionLock.writeLock().lock();
 
-            pi.partitionLock.lock();
+            this.partInfo.put(partNum, pi);
         } finally {
             this.managerLock.unlock();
         }
@@ -153,11 +316,12 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
             }
 
-            pi.open(dbDir + "/" + partNum);
-            return partNum;
+            this.openPartition(pi, partNum);
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
+        this.releaseIdlePartitions();
+        return partNum;
     }
 
     @Override
@@ -166,18 +330,26 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
         this.managerLock.lock();
         try {
+            if (this.tempSpace.hasPart(partNum)) {
+                this.tempSpace.freePart(partNum);
+                return;
+            }
             pi = this.partInfo.remove(partNum);
             if (pi == null) {
                 throw new NoSuchElementException("no partition " + partNum);
             }
-            pi.partitionLock.lock();
+            pi.partitionLock.writeLock().lock();
         } finally {
             this.managerLock.unlock();
         }
         try {
             try {
+                if (!pi.isOpen()) {
+                    this.openPartition(pi, partNum);
+                }
                 pi.freeDataPages();
                 pi.close();
+                this.openPartitions.remove(pi);
             } catch (IOException e) {
                 throw new PageException("could not close partition " + partNum + ": " + e.getMessage());
             }
@@ -192,28 +364,24 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not delete files for partition " + partNum);
             }
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        if (this.tempSpace.hasPart(partNum)) {
+            return this.tempSpace.allocPage(partNum);
         }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             int pageNum = pi.allocPage();
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.writePage(pageNum, ByteBuffer.allocate(PAGE_SIZE));
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
@@ -223,23 +391,47 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         int pageNum = DiskSpaceManager.getPageNum(page);
         int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
         int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        if (this.tempSpace.hasPart(partNum)) {
+            return this.tempSpace.allocPage(page);
+        }
 
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            pi.allocPage(headerIndex, pageIndex);
+            pi.writePage(pageNum, ByteBuffer.allocate(PAGE_SIZE));
+            return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        } catch (IOException e) {
+            throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] allocPages(int partNum, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("cannot allocate nonpositive number of pages");
+        }
+        if (this.tempSpace.hasPart(partNum)) {
+            long[] pages = new long[count];
+            for (int i = 0; i < count; ++i) {
+                pages[i] = this.tempSpace.allocPage(partNum);
+            }
+            return pages;
         }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
-            pi.allocPage(headerIndex, pageIndex);
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
-            return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+            int[] pageNums = pi.allocPages(count);
+            pi.zeroPages(pageNums);
+            long[] pages = new long[count];
+            for (int i = 0; i < count; ++i) {
+                pages[i] = DiskSpaceManager.getVirtualPageNum(partNum, pageNums[i]);
+            }
+            return pages;
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
@@ -247,20 +439,17 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public void freePage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        if (this.tempSpace.hasPart(partNum)) {
+            this.tempSpace.freePage(page);
+            return;
         }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             pi.freePage(pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
@@ -269,22 +458,89 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("readPage expects a page-sized buffer");
         }
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.capacity() != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        if (this.tempSpace.hasPart(partNum)) {
+            this.tempSpace.readPage(page, buf);
+            return;
         }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             pi.readPage(pageNum, buf);
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long[] pages, byte[][] bufs) {
+        ByteBuffer[] buffers = new ByteBuffer[bufs.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            if (bufs[i].length != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+            buffers[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        this.readPages(pages, buffers);
+    }
+
+    @Override
+    public void readPages(long[] pages, ByteBuffer[] bufs) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("readPages expects one buffer per page");
+        }
+        for (ByteBuffer buf : bufs) {
+            if (buf.capacity() != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        // sorting by virtual page number groups pages by partition, in page order
+        Integer[] order = new Integer[pages.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> pages[i]));
+
+        int start = 0;
+        while (start < order.length) {
+            int partNum = DiskSpaceManager.getPartNum(pages[order[start]]);
+            int end = start;
+            while (end < order.length && DiskSpaceManager.getPartNum(pages[order[end]]) == partNum) {
+                ++end;
+            }
+            if (this.tempSpace.hasPart(partNum)) {
+                for (int i = start; i < end; ++i) {
+                    this.tempSpace.readPage(pages[order[i]], bufs[order[i]]);
+                }
+                start = end;
+                continue;
+            }
+            int[] pageNums = new int[end - start];
+            ByteBuffer[] partBufs = new ByteBuffer[end - start];
+            for (int i = start; i < end; ++i) {
+                pageNums[i - start] = DiskSpaceManager.getPageNum(pages[order[i]]);
+                partBufs[i - start] = bufs[order[i]];
+            }
+
+            PartitionHandle pi = this.lockPartition(partNum);
+            try {
+                pi.readPages(pageNums, partBufs);
+            } catch (IOException e) {
+                throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
+            } finally {
+                pi.partitionLock.readLock().unlock();
+            }
+            start = end;
         }
     }
 
@@ -293,22 +549,82 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("writePage expects a page-sized buffer");
         }
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.capacity() != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        if (this.tempSpace.hasPart(partNum)) {
+            this.tempSpace.writePage(page, buf);
+            return;
         }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             pi.writePage(pageNum, buf);
         } catch (IOException e) {
             throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        return CompletableFuture.runAsync(() -> this.readPage(page, buf), this.ioExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long[] pages, byte[][] bufs) {
+        return CompletableFuture.runAsync(() -> this.readPages(pages, bufs), this.ioExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+        return CompletableFuture.runAsync(() -> this.readPages(pages, bufs), this.ioExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        return CompletableFuture.runAsync(() -> this.writePage(page, buf), this.ioExecutor);
+    }
+
+    @Override
+    public void sync(int partNum) {
+        if (this.tempSpace.hasPart(partNum)) {
+            // temporary partitions are never synced
+            return;
+        }
+        PartitionHandle pi = getPartInfo(partNum);
+        pi.partitionLock.readLock().lock();
+        try {
+            if (pi.isClosed()) {
+                throw new NoSuchElementException("no partition " + partNum);
+            }
+            // partitions that aren't open have nothing to sync
+            if (pi.isOpen()) {
+                pi.sync();
+            }
+        } catch (IOException e) {
+            throw new PageException("could not sync partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void syncAll() {
+        List<Integer> partNums = new ArrayList<>(this.partInfo.keySet());
+        for (int partNum : partNums) {
+            try {
+                this.sync(partNum);
+            } catch (NoSuchElementException e) {
+                // partition was freed since we listed it, nothing to sync
+            }
         }
     }
 
@@ -316,18 +632,105 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public boolean pageAllocated(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        if (this.tempSpace.hasPart(partNum)) {
+            return this.tempSpace.pageAllocated(page);
         }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             return !pi.isNotAllocatedPage(pageNum);
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    // Creates a handle for a partition, syncing on every write unless syncs are deferred.
+    // Log partition writes are always synced immediately.
+    private PartitionHandle newPartitionHandle(int partNum) {
+        boolean syncOnWrite = !this.deferSync || partNum == LogManager.LOG_PARTITION;
+        return this.createPartitionHandle(partNum, recoveryManager, syncOnWrite);
+    }
+
+    /**
+     * Creates the handle used to access a partition's OS file. Subclasses may override
+     * this to change how data pages are read and written. Note that this is called from
+     * the constructor, so overrides must not depend on the subclass's own fields.
+     *
+     * @param partNum partition number
+     * @param recoveryManager recovery manager
+     * @param syncOnWrite whether data page writes should be forced to disk immediately
+     * @return new (unopened) partition handle
+     */
+    PartitionHandle createPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        return new PartitionHandle(partNum, recoveryManager, syncOnWrite);
+    }
+
+    // Gets PartInfo with its partition lock held in shared mode, opening the partition if
+    // necessary; throws exception if not found. The caller must release the lock with
+    // partitionLock.readLock().unlock().
+    private PartitionHandle lockPartition(int partNum) {
+        PartitionHandle pi = getPartInfo(partNum);
+        pi.partitionLock.readLock().lock();
+        boolean opened = false;
+        if (!pi.isOpen() && !pi.isClosed()) {
+            // reacquire the lock in exclusive mode to open the partition, then downgrade
+            pi.partitionLock.readLock().unlock();
+            pi.partitionLock.writeLock().lock();
+            try {
+                if (!pi.isOpen() && !pi.isClosed()) {
+                    this.openPartition(pi, partNum);
+                    opened = true;
+                }
+                pi.partitionLock.readLock().lock();
+            } finally {
+                pi.partitionLock.writeLock().unlock();
+            }
+        }
+        if (pi.isClosed()) {
+            // partition was freed after we looked it up
+            pi.partitionLock.readLock().unlock();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        pi.lastUsed = System.nanoTime();
+        if (opened) {
+            this.releaseIdlePartitions();
+        }
+        return pi;
+    }
+
+    // Opens a partition's OS file. Assumes that the partition lock is held in exclusive mode.
+    private void openPartition(PartitionHandle pi, int partNum) {
+        pi.open(dbDir + "/" + partNum);
+        pi.lastUsed = System.nanoTime();
+        this.openPartitions.add(pi);
+    }
+
+    // Closes the OS files of the least recently used open partitions, until no more than
+    // maxOpenPartitions are open. Partitions currently locked are skipped (we never wait on
+    // a partition lock here), so more partitions may remain open if all are in use.
+    private void releaseIdlePartitions() {
+        while (this.openPartitions.size() > this.maxOpenPartitions) {
+            PartitionHandle lru = null;
+            for (PartitionHandle pi : this.openPartitions) {
+                if (pi.partitionLock.isWriteLocked() || pi.partitionLock.getReadLockCount() > 0) {
+                    continue;
+                }
+                if (lru == null || pi.lastUsed < lru.lastUsed) {
+                    lru = pi;
+                }
+            }
+            if (lru == null || !lru.partitionLock.writeLock().tryLock()) {
+                return;
+            }
+            try {
+                if (lru.isOpen()) {
+                    lru.release();
+                }
+                this.openPartitions.remove(lru);
+            } catch (IOException e) {
+                throw new PageException("could not close partition: " + e.getMessage());
+            } finally {
+                lru.partitionLock.writeLock().unlock();
+            }
         }
     }
 
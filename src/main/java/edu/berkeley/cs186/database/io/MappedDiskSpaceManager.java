@@ -0,0 +1,41 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+/**
+ * A disk space manager using the same on-disk format as DiskSpaceManagerImpl, but which
+ * reads and writes data pages through memory mapped segments of each partition's OS file
+ * (see MappedPartitionHandle), rather than with a read/write system call per page. Reads
+ * of pages already in the OS page cache are then just a copy out of the mapping.
+ *
+ * Since the on-disk format is unchanged, a database directory may be opened with either
+ * disk space manager.
+ */
+public class MappedDiskSpaceManager extends DiskSpaceManagerImpl {
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        super(dbDir, recoveryManager);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes (outside of the log partition) are not
+     *                  forced to disk until sync or syncAll is called
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean deferSync) {
+        super(dbDir, recoveryManager, deferSync);
+    }
+
+    @Override
+    PartitionHandle createPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        return new MappedPartitionHandle(partNum, recoveryManager, syncOnWrite);
+    }
+}
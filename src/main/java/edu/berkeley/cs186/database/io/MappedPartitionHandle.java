@@ -0,0 +1,130 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Partition handle that accesses data pages through memory mapped segments of the
+ * OS file, instead of reading and writing through the file channel. Master and header
+ * pages are still read and written through the file channel, which is coherent with
+ * the mappings.
+ *
+ * The file is mapped lazily in segments of SEGMENT_SIZE bytes. Since pages never straddle
+ * a segment boundary, each data page access is a copy to or from a single segment. A
+ * segment at the end of the file is mapped only up to the end of the file; when allocating
+ * a page extends the file, the file is grown by GROWTH_SIZE bytes at a time and the
+ * segment is remapped.
+ *
+ * Mapping and forcing segments is synchronized on the handle, but copies to and from a
+ * mapped segment are not, so concurrent reads of different pages proceed in parallel.
+ */
+class MappedPartitionHandle extends PartitionHandle {
+    // size in bytes of each mapped segment of the file - must be a multiple of the page size
+    static final long SEGMENT_SIZE = 1L << 26;
+
+    // number of bytes to grow the file by when a page past the end of the file is accessed
+    static final long GROWTH_SIZE = 256L * PAGE_SIZE;
+
+    // mapped segments of the file, indexed by offset / SEGMENT_SIZE (null if not mapped yet)
+    // - only accessed while synchronized on this handle
+    private List<MappedByteBuffer> segments;
+
+    // indices of segments written to since they were last forced to disk
+    private Set<Integer> dirtySegments;
+
+    MappedPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        super(partNum, recoveryManager, syncOnWrite);
+        this.segments = new ArrayList<>();
+        this.dirtySegments = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    void release() throws IOException {
+        super.release();
+        // mappings stay valid until garbage collected, but we no longer use them
+        synchronized (this) {
+            this.segments.clear();
+            this.dirtySegments.clear();
+        }
+    }
+
+    @Override
+    void readDataPage(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = this.getSegment(offset).duplicate();
+        b.position((int) (offset % SEGMENT_SIZE));
+        b.limit(b.position() + PAGE_SIZE);
+        PartitionHandle.wholePage(buf).put(b);
+    }
+
+    @Override
+    void readDataPages(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            this.readDataPage(offset + (long) i * PAGE_SIZE, bufs[start + i]);
+        }
+    }
+
+    @Override
+    void writeDataPage(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = this.getSegment(offset).duplicate();
+        b.position((int) (offset % SEGMENT_SIZE));
+        b.put(PartitionHandle.wholePage(buf));
+        this.dirtySegments.add((int) (offset / SEGMENT_SIZE));
+    }
+
+    @Override
+    synchronized void forceDataPages() {
+        for (int index : this.dirtySegments) {
+            // removed before forcing, so that a concurrent write marks the segment dirty again
+            this.dirtySegments.remove(index);
+            this.segments.get(index).force();
+        }
+    }
+
+    /**
+     * Gets the mapped segment containing the page at offset, mapping the segment (and
+     * growing the file) if necessary.
+     * @param offset offset in OS file of a data page
+     * @return mapped segment containing the entire page
+     */
+    private synchronized MappedByteBuffer getSegment(long offset) throws IOException {
+        int index = (int) (offset / SEGMENT_SIZE);
+        long segmentStart = index * SEGMENT_SIZE;
+        int requiredSize = (int) (offset - segmentStart) + PAGE_SIZE;
+        while (this.segments.size() <= index) {
+            this.segments.add(null);
+        }
+
+        MappedByteBuffer segment = this.segments.get(index);
+        if (segment != null && segment.capacity() >= requiredSize) {
+            return segment;
+        }
+
+        long fileSize = this.fileChannel.size();
+        if (fileSize < segmentStart + requiredSize) {
+            // grow the file by writing its new last byte
+            long newSize = (segmentStart + requiredSize + GROWTH_SIZE - 1) / GROWTH_SIZE * GROWTH_SIZE;
+            this.fileChannel.write(ByteBuffer.wrap(new byte[1]), newSize - 1);
+            fileSize = newSize;
+        }
+        long mapSize = Math.min(SEGMENT_SIZE, fileSize - segmentStart);
+        if (segment != null && this.dirtySegments.contains(index)) {
+            // the new mapping covers the same file pages, but force through the mapping
+            // that wrote them to be safe
+            segment.force();
+            this.dirtySegments.remove(index);
+        }
+        segment = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, segmentStart, mapSize);
+        this.segments.set(index, segment);
+        return segment;
+    }
+}
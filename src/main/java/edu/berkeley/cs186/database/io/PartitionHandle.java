@@ -11,19 +11,45 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
 
 class PartitionHandle implements AutoCloseable {
-    // Lock on the partition.
-    ReentrantLock partitionLock;
+    // Number of locks that header pages are striped over.
+    static final int HEADER_LOCK_STRIPES = 16;
+
+    // Number of groups of 64 data pages under a header page, in the free space summary.
+    private static final int GROUPS_PER_HEADER = DATA_PAGES_PER_HEADER / Long.SIZE;
+
+    // Lock on the partition. Operations on pages hold this in shared mode, and synchronize
+    // among themselves with the header page locks; opening, closing, and freeing the
+    // partition hold this in exclusive mode.
+    ReentrantReadWriteLock partitionLock;
+
+    // Locks on header pages (header page i is protected by headerLocks[i % HEADER_LOCK_STRIPES]).
+    // Allocating or freeing a page holds the lock of its header page in exclusive mode, and
+    // reading or writing a page holds it in shared mode, so that the page can't be freed
+    // while it is being read or written.
+    private ReentrantReadWriteLock[] headerLocks;
+
+    // Lock on the master page, held while modifying and writing it.
+    private ReentrantLock masterLock;
+
+    // Whether the partition has been closed.
+    private boolean closed;
+
+    // Time (System.nanoTime) the partition was last locked for use, for closing the
+    // least recently used OS files.
+    volatile long lastUsed;
 
     // Underlying OS file/file channel.
     private RandomAccessFile file;
-    private FileChannel fileChannel;
+    FileChannel fileChannel;
 
     // Contents of the master page of this partition
     // Ideally would be an unsigned short array but Java doesn't have unsigned types
@@ -32,26 +58,56 @@ class PartitionHandle implements AutoCloseable {
     // Contents of the various header pages of this partition
     private byte[][] headerPages;
 
+    // In-memory summary of free space, used to find an unallocated page without scanning the
+    // master page and header page bitmaps (neither is written to disk; both are rebuilt on open):
+    // - bit i of headersWithSpace is set if header page i has an unallocated data page
+    //   (protected by the master page lock)
+    // - bit j of groupsWithSpace[i] is set if the j-th group of 64 data pages under header page i
+    //   (bytes 8j through 8j+7 of the bitmap) has an unallocated data page, or null if header page
+    //   i has no allocated pages (protected by the header page lock)
+    private long[] headersWithSpace;
+    private long[][] groupsWithSpace;
+
     // Recovery manager
     private RecoveryManager recoveryManager;
 
     // Partition number
     private int partNum;
 
-    PartitionHandle(int partNum, RecoveryManager recoveryManager) {
-        this.masterPage = new int[MAX_HEADER_PAGES];
-        this.headerPages = new byte[MAX_HEADER_PAGES][];
-        this.partitionLock = new ReentrantLock();
+    // Whether data page writes are forced to disk immediately, or left in the
+    // OS cache until the next call to sync
+    private boolean syncOnWrite;
+
+    // Whether there are writes that have not been forced to disk yet
+    private volatile boolean unsynced;
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        this.partitionLock = new ReentrantReadWriteLock();
+        this.headerLocks = new ReentrantReadWriteLock[HEADER_LOCK_STRIPES];
+        for (int i = 0; i < HEADER_LOCK_STRIPES; ++i) {
+            this.headerLocks[i] = new ReentrantReadWriteLock();
+        }
+        this.masterLock = new ReentrantLock();
+        this.closed = false;
         this.recoveryManager = recoveryManager;
         this.partNum = partNum;
+        this.syncOnWrite = syncOnWrite;
+        this.unsynced = false;
     }
 
     /**
-     * Opens the OS file and loads master and header pages.
+     * Opens the OS file and loads master and header pages. A partition released with
+     * release() may be opened again.
      * @param fileName name of OS file partition is stored in
      */
     void open(String fileName) {
         assert (this.fileChannel == null);
+        // cached pages are only allocated while the partition is open
+        this.masterPage = new int[MAX_HEADER_PAGES];
+        this.headerPages = new byte[MAX_HEADER_PAGES][];
+        this.headersWithSpace = new long[MAX_HEADER_PAGES / Long.SIZE];
+        Arrays.fill(this.headersWithSpace, -1L);
+        this.groupsWithSpace = new long[MAX_HEADER_PAGES][];
         try {
             this.file = new RandomAccessFile(fileName, "rw");
             this.fileChannel = this.file.getChannel();
@@ -71,7 +127,12 @@ class PartitionHandle implements AutoCloseable {
                         byte[] headerPage = new byte[PAGE_SIZE];
                         this.headerPages[i] = headerPage;
                         this.fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
+                        this.groupsWithSpace[i] = new long[GROUPS_PER_HEADER / Long.SIZE];
+                        for (int group = 0; group < GROUPS_PER_HEADER; ++group) {
+                            this.updateGroupWithSpace(i, group);
+                        }
                     }
+                    this.updateHeaderWithSpace(i);
                 }
             }
         } catch (IOException e) {
@@ -81,16 +142,48 @@ class PartitionHandle implements AutoCloseable {
 
     @Override
     public void close() throws IOException {
-        this.partitionLock.lock();
+        this.partitionLock.writeLock().lock();
         try {
-            Arrays.fill(this.headerPages, null);
-            this.file.close();
-            this.fileChannel.close();
+            if (this.isOpen()) {
+                this.release();
+            }
+            this.closed = true;
         } finally {
-            this.partitionLock.unlock();
+            this.partitionLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Syncs and closes the OS file, and drops the cached master and header pages, without
+     * closing the partition; open must be called before the partition is used again.
+     * Assumes that the partition lock is held in exclusive mode.
+     */
+    void release() throws IOException {
+        this.sync();
+        this.masterPage = null;
+        this.headerPages = null;
+        this.headersWithSpace = null;
+        this.groupsWithSpace = null;
+        this.file.close();
+        this.fileChannel.close();
+        this.file = null;
+        this.fileChannel = null;
+    }
+
+    /**
+     * @return whether the OS file is open. Assumes that the partition lock is held.
+     */
+    boolean isOpen() {
+        return this.fileChannel != null;
+    }
+
+    /**
+     * @return whether the partition has been closed. Assumes that the partition lock is held.
+     */
+    boolean isClosed() {
+        return this.closed;
+    }
+
     /**
      * Writes the master page to disk.
      */
@@ -103,6 +196,104 @@ class PartitionHandle implements AutoCloseable {
         this.fileChannel.write(b, PartitionHandle.masterPageOffset());
     }
 
+    /**
+     * Updates the number of allocated pages under a header page, and writes the master page to disk.
+     * Assumes that the header page's lock is held.
+     * @param headerIndex which header page
+     * @param delta change in number of allocated pages under the header page
+     */
+    private void updateMasterPage(int headerIndex, int delta) throws IOException {
+        this.masterLock.lock();
+        try {
+            this.masterPage[headerIndex] += delta;
+            this.updateHeaderWithSpace(headerIndex);
+            this.writeMasterPage();
+        } finally {
+            this.masterLock.unlock();
+        }
+    }
+
+    /**
+     * Updates whether a header page has space in the free space summary, from the master page.
+     * Assumes that the master page lock is held (or that the partition is being opened).
+     * @param headerIndex which header page
+     */
+    private void updateHeaderWithSpace(int headerIndex) {
+        long mask = 1L << (headerIndex % Long.SIZE);
+        if (this.masterPage[headerIndex] < DATA_PAGES_PER_HEADER) {
+            this.headersWithSpace[headerIndex / Long.SIZE] |= mask;
+        } else {
+            this.headersWithSpace[headerIndex / Long.SIZE] &= ~mask;
+        }
+    }
+
+    /**
+     * Updates whether a group of 64 data pages has space in the free space summary, from the
+     * header page bitmap. Assumes that the header page's lock is held (or that the partition
+     * is being opened).
+     * @param headerIndex which header page
+     * @param group which group of data pages under the header page
+     */
+    private void updateGroupWithSpace(int headerIndex, int group) {
+        long mask = 1L << (group % Long.SIZE);
+        if (this.groupBits(headerIndex, group) != -1L) {
+            this.groupsWithSpace[headerIndex][group / Long.SIZE] |= mask;
+        } else {
+            this.groupsWithSpace[headerIndex][group / Long.SIZE] &= ~mask;
+        }
+    }
+
+    /**
+     * @param headerIndex which header page
+     * @param group which group of data pages under the header page
+     * @return the bitmap entries of the group's 64 data pages, with the entry of the group's
+     * first page as the most significant bit
+     */
+    private long groupBits(int headerIndex, int group) {
+        return ByteBuffer.wrap(this.headerPages[headerIndex]).getLong(group * Long.BYTES);
+    }
+
+    /**
+     * Finds the first header page at or after startIndex with at least minFree unallocated data pages.
+     * @param startIndex header page to start searching from
+     * @param minFree number of unallocated data pages required
+     * @return index of header page, or -1 if there is none
+     */
+    private int nextHeaderWithSpace(int startIndex, int minFree) {
+        this.masterLock.lock();
+        try {
+            if (minFree == 1) {
+                // use the summary, rather than scanning the master page
+                for (int word = startIndex / Long.SIZE; word < this.headersWithSpace.length; ++word) {
+                    long bits = this.headersWithSpace[word];
+                    if (word == startIndex / Long.SIZE) {
+                        bits &= -1L << (startIndex % Long.SIZE);
+                    }
+                    if (bits != 0) {
+                        return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                    }
+                }
+                return -1;
+            }
+            for (int i = startIndex; i < MAX_HEADER_PAGES; ++i) {
+                if (this.masterPage[i] <= DATA_PAGES_PER_HEADER - minFree) {
+                    return i;
+                }
+            }
+            return -1;
+        } finally {
+            this.masterLock.unlock();
+        }
+    }
+
+    /**
+     * @param headerIndex which header page
+     * @return lock protecting the header page
+     */
+    private ReentrantReadWriteLock headerLock(int headerIndex) {
+        return this.headerLocks[Math.floorMod(headerIndex, HEADER_LOCK_STRIPES)];
+    }
+
     /**
      * Writes a header page to disk.
      * @param headerIndex which header page
@@ -118,34 +309,85 @@ class PartitionHandle implements AutoCloseable {
      */
     int allocPage() throws IOException {
         int headerIndex = -1;
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-            if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
-                headerIndex = i;
-                break;
+        while ((headerIndex = this.nextHeaderWithSpace(headerIndex + 1, 1)) != -1) {
+            Lock lock = this.headerLock(headerIndex).writeLock();
+            lock.lock();
+            try {
+                int pageIndex = this.findUnallocatedRun(headerIndex, 1);
+                // the header page may have been filled by a concurrent allocation
+                if (pageIndex != -1) {
+                    return this.allocPage(headerIndex, pageIndex);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        throw new PageException("no free pages - partition has reached max size");
+    }
+
+    /**
+     * Allocates count new pages in the partition. The pages are allocated as a single run
+     * of pages that are contiguous in the OS file (under a single header page) if there is
+     * room for one, and one at a time otherwise.
+     * @param count number of pages to allocate
+     * @return data page numbers, in ascending order if contiguous
+     */
+    int[] allocPages(int count) throws IOException {
+        if (count <= DATA_PAGES_PER_HEADER) {
+            int headerIndex = -1;
+            while ((headerIndex = this.nextHeaderWithSpace(headerIndex + 1, count)) != -1) {
+                Lock lock = this.headerLock(headerIndex).writeLock();
+                lock.lock();
+                try {
+                    int pageIndex = this.findUnallocatedRun(headerIndex, count);
+                    if (pageIndex != -1) {
+                        return this.allocRun(headerIndex, pageIndex, count);
+                    }
+                } finally {
+                    lock.unlock();
+                }
             }
         }
-        if (headerIndex == -1) {
-            throw new PageException("no free pages - partition has reached max size");
+        // no header page has a long enough run of unallocated pages
+        int[] pageNums = new int[count];
+        for (int i = 0; i < count; ++i) {
+            pageNums[i] = this.allocPage();
         }
+        return pageNums;
+    }
 
+    /**
+     * Finds the first run of count unallocated data pages under a header page. Assumes that
+     * the header page's lock is held.
+     * @param headerIndex which header page
+     * @param count length of run
+     * @return index within header page of the first page of the run, or -1 if there is none
+     */
+    private int findUnallocatedRun(int headerIndex, int count) {
         byte[] headerBytes = this.headerPages[headerIndex];
-
-        int pageIndex = -1;
         if (headerBytes == null) {
-            pageIndex = 0;
-        } else {
-            for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
-                if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
-                    pageIndex = i;
-                    break;
+            return 0;
+        }
+        if (count == 1) {
+            // use the summary to find a group with space, rather than scanning the bitmap
+            long[] groups = this.groupsWithSpace[headerIndex];
+            for (int word = 0; word < groups.length; ++word) {
+                if (groups[word] != 0) {
+                    int group = word * Long.SIZE + Long.numberOfTrailingZeros(groups[word]);
+                    return group * Long.SIZE + Long.numberOfLeadingZeros(~this.groupBits(headerIndex, group));
                 }
             }
-            if (pageIndex == -1) {
-                throw new PageException("header page should have free space, but doesn't");
+            return -1;
+        }
+        int runStart = 0;
+        for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
+            if (Bits.getBit(headerBytes, i) == Bits.Bit.ONE) {
+                runStart = i + 1;
+            } else if (i - runStart + 1 == count) {
+                return runStart;
             }
         }
-
-        return this.allocPage(headerIndex, pageIndex);
+        return -1;
     }
 
     /**
@@ -155,33 +397,60 @@ class PartitionHandle implements AutoCloseable {
      * @return data page number
      */
     int allocPage(int headerIndex, int pageIndex) throws IOException {
-        byte[] headerBytes = this.headerPages[headerIndex];
-        if (headerBytes == null) {
-            headerBytes = new byte[PAGE_SIZE];
-            this.headerPages[headerIndex] = headerBytes;
-        }
+        return this.allocRun(headerIndex, pageIndex, 1)[0];
+    }
 
-        if (Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ONE) {
-            throw new IllegalStateException("page at (part=" + partNum + ", header=" + headerIndex + ", index="
-                                            +
-                                            pageIndex + ") already allocated");
-        }
+    /**
+     * Allocates a run of contiguous pages under a header page, writing the master and
+     * header pages once for the entire run.
+     * @param headerIndex index of header page managing the pages
+     * @param pageIndex index within header page of the first page of the run
+     * @param count number of pages in the run
+     * @return data page numbers
+     */
+    private int[] allocRun(int headerIndex, int pageIndex, int count) throws IOException {
+        Lock lock = this.headerLock(headerIndex).writeLock();
+        lock.lock();
+        try {
+            byte[] headerBytes = this.headerPages[headerIndex];
+            if (headerBytes == null) {
+                headerBytes = new byte[PAGE_SIZE];
+                this.headerPages[headerIndex] = headerBytes;
+                this.groupsWithSpace[headerIndex] = new long[GROUPS_PER_HEADER / Long.SIZE];
+                Arrays.fill(this.groupsWithSpace[headerIndex], -1L);
+            }
 
-        Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+            for (int i = pageIndex; i < pageIndex + count; ++i) {
+                if (Bits.getBit(headerBytes, i) == Bits.Bit.ONE) {
+                    throw new IllegalStateException("page at (part=" + partNum + ", header=" + headerIndex + ", index="
+                                                    +
+                                                    i + ") already allocated");
+                }
+            }
 
-        int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
+            TransactionContext transaction = TransactionContext.getTransaction();
+            int[] pageNums = new int[count];
+            for (int i = 0; i < count; ++i) {
+                Bits.setBit(headerBytes, pageIndex + i, Bits.Bit.ONE);
 
-        TransactionContext transaction = TransactionContext.getTransaction();
-        long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
-        if (transaction != null) {
-            recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
-        }
-        recoveryManager.diskIOHook(vpn);
-        this.writeMasterPage();
-        this.writeHeaderPage(headerIndex);
+                pageNums[i] = pageIndex + i + headerIndex * DATA_PAGES_PER_HEADER;
+
+                long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNums[i]);
+                if (transaction != null) {
+                    recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
+                }
+                recoveryManager.diskIOHook(vpn);
+            }
+            for (int group = pageIndex / Long.SIZE; group <= (pageIndex + count - 1) / Long.SIZE; ++group) {
+                this.updateGroupWithSpace(headerIndex, group);
+            }
+            this.updateMasterPage(headerIndex, count);
+            this.writeHeaderPage(headerIndex);
 
-        return pageNum;
+            return pageNums;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -192,6 +461,16 @@ class PartitionHandle implements AutoCloseable {
         int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
         int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
 
+        Lock lock = this.headerLock(headerIndex).writeLock();
+        lock.lock();
+        try {
+            this.freePageHelper(pageNum, headerIndex, pageIndex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void freePageHelper(int pageNum, int headerIndex, int pageIndex) throws IOException {
         byte[] headerBytes = headerPages[headerIndex];
         if (headerBytes == null) {
             throw new NoSuchElementException("cannot free unallocated page");
@@ -205,7 +484,7 @@ class PartitionHandle implements AutoCloseable {
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         if (transaction != null) {
             byte[] contents = new byte[PAGE_SIZE];
-            readPage(pageNum, contents);
+            readPage(pageNum, ByteBuffer.wrap(contents));
             int halfway = BufferManager.RESERVED_SPACE + BufferManager.EFFECTIVE_PAGE_SIZE / 2;
             recoveryManager.logPageWrite(
                     transaction.getTransNum(),
@@ -225,8 +504,8 @@ class PartitionHandle implements AutoCloseable {
         }
         recoveryManager.diskIOHook(vpn);
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
-        this.writeMasterPage();
+        this.updateGroupWithSpace(headerIndex, pageIndex / Long.SIZE);
+        this.updateMasterPage(headerIndex, -1);
         this.writeHeaderPage(headerIndex);
     }
 
@@ -235,12 +514,49 @@ class PartitionHandle implements AutoCloseable {
      * @param pageNum data page number to read in
      * @param buf output buffer to be filled with page - assumed to be page size
      */
-    void readPage(int pageNum, byte[] buf) throws IOException {
-        if (this.isNotAllocatedPage(pageNum)) {
-            throw new PageException("page " + pageNum + " is not allocated");
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
+        Lock lock = this.headerLock(pageNum / DATA_PAGES_PER_HEADER).readLock();
+        lock.lock();
+        try {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+            this.readDataPage(PartitionHandle.dataPageOffset(pageNum), buf);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads in several data pages, reading each run of pages that are contiguous in
+     * the OS file with a single scattering read. Assumes that the partition lock is held.
+     * @param pageNums data page numbers to read in, in ascending order
+     * @param bufs output buffers to be filled with pages - assumed to be page size
+     */
+    void readPages(int[] pageNums, ByteBuffer[] bufs) throws IOException {
+        int start = 0;
+        while (start < pageNums.length) {
+            // data pages are contiguous unless a header page sits between them, so
+            // every page of a run is managed by the same header page
+            int end = start + 1;
+            while (end < pageNums.length && pageNums[end] == pageNums[end - 1] + 1
+                    && pageNums[end] % DATA_PAGES_PER_HEADER != 0) {
+                ++end;
+            }
+            Lock lock = this.headerLock(pageNums[start] / DATA_PAGES_PER_HEADER).readLock();
+            lock.lock();
+            try {
+                for (int i = start; i < end; ++i) {
+                    if (this.isNotAllocatedPage(pageNums[i])) {
+                        throw new PageException("page " + pageNums[i] + " is not allocated");
+                    }
+                }
+                this.readDataPages(PartitionHandle.dataPageOffset(pageNums[start]), bufs, start, end - start);
+            } finally {
+                lock.unlock();
+            }
+            start = end;
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
     }
 
     /**
@@ -248,18 +564,154 @@ class PartitionHandle implements AutoCloseable {
      * @param pageNum data page number to write to
      * @param buf input buffer with new contents of page - assumed to be page size
      */
-    void writePage(int pageNum, byte[] buf) throws IOException {
-        if (this.isNotAllocatedPage(pageNum)) {
-            throw new PageException("page " + pageNum + " is not allocated");
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
+        Lock lock = this.headerLock(pageNum / DATA_PAGES_PER_HEADER).readLock();
+        lock.lock();
+        try {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+            this.writeDataPage(PartitionHandle.dataPageOffset(pageNum), buf);
+        } finally {
+            lock.unlock();
+        }
+        if (this.syncOnWrite) {
+            this.forceDataPages();
+        } else {
+            this.unsynced = true;
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.write(b, PartitionHandle.dataPageOffset(pageNum));
-        this.fileChannel.force(false);
 
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Writes zeroes to newly allocated data pages, forcing the writes to disk (if writes are
+     * synced) once at the end rather than after every page. Assumes that the partition lock is held.
+     * @param pageNums data page numbers to zero out
+     */
+    void zeroPages(int[] pageNums) throws IOException {
+        ByteBuffer zeroes = ByteBuffer.allocate(PAGE_SIZE);
+        for (int pageNum : pageNums) {
+            Lock lock = this.headerLock(pageNum / DATA_PAGES_PER_HEADER).readLock();
+            lock.lock();
+            try {
+                if (this.isNotAllocatedPage(pageNum)) {
+                    throw new PageException("page " + pageNum + " is not allocated");
+                }
+                this.writeDataPage(PartitionHandle.dataPageOffset(pageNum), zeroes);
+            } finally {
+                lock.unlock();
+            }
+            recoveryManager.diskIOHook(DiskSpaceManager.getVirtualPageNum(partNum, pageNum));
+        }
+        if (this.syncOnWrite) {
+            this.forceDataPages();
+        } else {
+            this.unsynced = true;
+        }
+    }
+
+    /**
+     * Forces any data page writes not yet on disk to disk. Does nothing if
+     * there have been no writes since the last sync. Assumes that the partition
+     * lock is held.
+     */
+    void sync() throws IOException {
+        if (this.unsynced) {
+            // cleared first, so that a concurrent write marks the partition unsynced again
+            this.unsynced = false;
+            this.forceDataPages();
+        }
+    }
+
+    /**
+     * Reads a page worth of bytes at the given offset of the OS file. This and the other
+     * data page accessors may be called concurrently by several threads.
+     *
+     * Buffers passed to the data page accessors are page-sized, and are always filled or
+     * written from start to end, regardless of their position and limit (which are left
+     * unchanged). Reads into a direct buffer (such as a buffer manager frame) go straight
+     * from the OS into the buffer, without the intermediate copy that reads into heap
+     * buffers need.
+     * @param offset offset in OS file of the data page
+     * @param buf output buffer to be filled with page - assumed to be page size
+     */
+    void readDataPage(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = PartitionHandle.wholePage(buf);
+        while (b.hasRemaining()) {
+            if (this.fileChannel.read(b, offset + b.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads count contiguous pages starting at the given offset of the OS file.
+     * @param offset offset in OS file of the first data page
+     * @param bufs output buffers - bufs[start] through bufs[start + count - 1] are filled
+     * @param start index of the buffer for the first page
+     * @param count number of pages to read
+     */
+    void readDataPages(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        if (count == 1) {
+            this.readDataPage(offset, bufs[start]);
+            return;
+        }
+        // scattering reads are relative to the channel position, which is shared between
+        // threads, so we do a single positional read and copy the pages out instead
+        ByteBuffer b = ByteBuffer.allocate(count * PAGE_SIZE);
+        while (b.hasRemaining()) {
+            if (this.fileChannel.read(b, offset + b.position()) < 0) {
+                break;
+            }
+        }
+        b.flip();
+        PartitionHandle.copyPages(b, bufs, start, count);
+    }
+
+    /**
+     * Writes a page worth of bytes at the given offset of the OS file.
+     * @param offset offset in OS file of the data page
+     * @param buf input buffer with new contents of page - assumed to be page size
+     */
+    void writeDataPage(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = PartitionHandle.wholePage(buf);
+        while (b.hasRemaining()) {
+            this.fileChannel.write(b, offset + b.position());
+        }
+    }
+
+    /**
+     * @param buf page buffer
+     * @return view of the whole of buf, sharing its contents but not its position and limit
+     */
+    static ByteBuffer wholePage(ByteBuffer buf) {
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        return b;
+    }
+
+    /**
+     * Copies consecutive pages from a buffer (from its position up to its limit) into the
+     * page buffers bufs[start] through bufs[start + count - 1].
+     */
+    static void copyPages(ByteBuffer pages, ByteBuffer[] bufs, int start, int count) {
+        for (int i = 0; i < count && pages.hasRemaining(); ++i) {
+            ByteBuffer page = pages.duplicate();
+            page.limit(page.position() + Math.min(PAGE_SIZE, pages.remaining()));
+            PartitionHandle.wholePage(bufs[start + i]).put(page);
+            pages.position(page.position());
+        }
+    }
+
+    /**
+     * Forces data page writes made through writeDataPage to disk.
+     */
+    void forceDataPages() throws IOException {
+        this.fileChannel.force(false);
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
@@ -271,10 +723,14 @@ class PartitionHandle implements AutoCloseable {
         if (headerIndex < 0 || headerIndex >= MAX_HEADER_PAGES) {
             return true;
         }
-        if (masterPage[headerIndex] == 0) {
-            return true;
+        Lock lock = this.headerLock(headerIndex).readLock();
+        lock.lock();
+        try {
+            byte[] headerBytes = this.headerPages[headerIndex];
+            return headerBytes == null || Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ZERO;
+        } finally {
+            lock.unlock();
         }
-        return Bits.getBit(headerPages[headerIndex], pageIndex) == Bits.Bit.ZERO;
     }
 
     /**
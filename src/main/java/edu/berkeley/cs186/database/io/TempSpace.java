@@ -0,0 +1,412 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Storage for temporary partitions (see DiskSpaceManager#allocTempPart). Pages of temporary
+ * partitions are kept off-heap, in page slots shared by all temporary partitions, up to
+ * memoryPages slots. A partition that writes a page while no slot is free spills its own least
+ * recently written page to its scratch file and reuses that page's slot (or, if it has no pages
+ * in memory, writes the page straight to its scratch file). Scratch files are created on the
+ * first spill, and deleted when the partition is freed. Pages that have been allocated but never
+ * written are not stored at all, and read as zeroes.
+ *
+ * Each temporary partition has its own read-write lock, held in shared mode while reading its
+ * pages and in exclusive mode while writing, allocating, or freeing them, so operators using
+ * different temporary partitions never wait on each other's spills. Only handing out and
+ * returning slots is shared between partitions, and involves no I/O.
+ *
+ * Nothing here is logged or forced to disk, since temporary partitions do not need to survive
+ * a crash (or even a restart).
+ */
+class TempSpace implements AutoCloseable {
+    static final int ARENA_PAGES = 64; // page slots allocated off-heap at a time
+
+    // Temporary partitions, by partition number.
+    private Map<Integer, TempPartition> partitions;
+
+    // Maximum number of page slots, across all temporary partitions.
+    private int memoryPages;
+
+    // Number of page slots allocated so far, and the slots not in use by any page. Only
+    // accessed while synchronized on freeSlots.
+    private int numSlots;
+    private Deque<ByteBuffer> freeSlots;
+
+    /**
+     * @param memoryPages number of pages to keep in memory before spilling to disk
+     */
+    TempSpace(int memoryPages) {
+        this.partitions = new ConcurrentHashMap<>();
+        this.memoryPages = memoryPages;
+        this.numSlots = 0;
+        this.freeSlots = new ArrayDeque<>();
+    }
+
+    @Override
+    public void close() {
+        for (Integer partNum : new ArrayList<>(this.partitions.keySet())) {
+            TempPartition part = this.partitions.remove(partNum);
+            if (part != null) {
+                part.free();
+            }
+        }
+        synchronized (this.freeSlots) {
+            this.freeSlots.clear();
+            this.numSlots = 0;
+        }
+    }
+
+    /**
+     * Sets the number of pages kept in memory. When lowered, slots above the new limit are
+     * released as the pages in them are spilled or freed.
+     *
+     * @param memoryPages number of pages to keep in memory before spilling to disk
+     */
+    void setMemoryPages(int memoryPages) {
+        synchronized (this.freeSlots) {
+            this.memoryPages = memoryPages;
+            while (this.numSlots > this.memoryPages && !this.freeSlots.isEmpty()) {
+                this.freeSlots.pop();
+                --this.numSlots;
+            }
+        }
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether partNum is a temporary partition
+     */
+    boolean hasPart(int partNum) {
+        return this.partitions.containsKey(partNum);
+    }
+
+    void allocPart(int partNum) {
+        if (this.partitions.putIfAbsent(partNum, new TempPartition()) != null) {
+            throw new IllegalStateException("partition number " + partNum + " already exists");
+        }
+    }
+
+    void freePart(int partNum) {
+        TempPartition part = this.partitions.remove(partNum);
+        if (part == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        part.free();
+    }
+
+    long allocPage(int partNum) {
+        TempPartition part = this.getPart(partNum);
+        part.lock.writeLock().lock();
+        try {
+            part.checkNotFreed(partNum);
+            int pageNum = part.allocated.nextClearBit(0);
+            part.allocated.set(pageNum);
+            return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        } finally {
+            part.lock.writeLock().unlock();
+        }
+    }
+
+    long allocPage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        TempPartition part = this.getPart(partNum);
+        part.lock.writeLock().lock();
+        try {
+            part.checkNotFreed(partNum);
+            int pageNum = DiskSpaceManager.getPageNum(page);
+            if (part.allocated.get(pageNum)) {
+                throw new IllegalStateException("page " + page + " already allocated");
+            }
+            part.allocated.set(pageNum);
+            return page;
+        } finally {
+            part.lock.writeLock().unlock();
+        }
+    }
+
+    void freePage(long page) {
+        TempPartition part = this.partitions.get(DiskSpaceManager.getPartNum(page));
+        if (part == null) {
+            throw new NoSuchElementException("cannot free unallocated page");
+        }
+        part.lock.writeLock().lock();
+        try {
+            if (!part.isAllocated(page)) {
+                throw new NoSuchElementException("cannot free unallocated page");
+            }
+            part.allocated.clear(DiskSpaceManager.getPageNum(page));
+            part.dropPage(page);
+        } finally {
+            part.lock.writeLock().unlock();
+        }
+    }
+
+    void readPage(long page, byte[] buf) {
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    void readPage(long page, ByteBuffer buf) {
+        TempPartition part = this.partitions.get(DiskSpaceManager.getPartNum(page));
+        if (part == null) {
+            throw new PageException("page " + page + " is not allocated");
+        }
+        part.lock.readLock().lock();
+        try {
+            if (!part.isAllocated(page)) {
+                throw new PageException("page " + page + " is not allocated");
+            }
+            ByteBuffer b = PartitionHandle.wholePage(buf);
+            ByteBuffer slot = part.residentPages.get(page);
+            Long offset = part.spilledPages.get(page);
+            if (slot != null) {
+                b.put(PartitionHandle.wholePage(slot));
+            } else if (offset != null) {
+                try {
+                    while (b.hasRemaining()) {
+                        if (part.scratchChannel.read(b, offset + b.position()) < 0) {
+                            throw new PageException("scratch file truncated");
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new PageException("could not read spilled page " + page + ": " + e.getMessage());
+                }
+            } else {
+                b.put(new byte[PAGE_SIZE]);
+            }
+        } finally {
+            part.lock.readLock().unlock();
+        }
+    }
+
+    void writePage(long page, byte[] buf) {
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    void writePage(long page, ByteBuffer buf) {
+        TempPartition part = this.partitions.get(DiskSpaceManager.getPartNum(page));
+        if (part == null) {
+            throw new PageException("page " + page + " is not allocated");
+        }
+        part.lock.writeLock().lock();
+        try {
+            if (!part.isAllocated(page)) {
+                throw new PageException("page " + page + " is not allocated");
+            }
+            // reinserted, so that the page becomes the most recently written
+            ByteBuffer slot = part.residentPages.remove(page);
+            if (slot == null) {
+                slot = this.takeSlot();
+                if (slot == null && !part.residentPages.isEmpty()) {
+                    slot = part.spillEldestPage();
+                }
+                if (slot == null) {
+                    part.spillPage(page, PartitionHandle.wholePage(buf));
+                    return;
+                }
+                Long offset = part.spilledPages.remove(page);
+                if (offset != null) {
+                    part.freeOffsets.push(offset);
+                }
+            }
+            PartitionHandle.wholePage(slot).put(PartitionHandle.wholePage(buf));
+            part.residentPages.put(page, slot);
+        } finally {
+            part.lock.writeLock().unlock();
+        }
+    }
+
+    boolean pageAllocated(long page) {
+        TempPartition part = this.partitions.get(DiskSpaceManager.getPartNum(page));
+        if (part == null) {
+            return false;
+        }
+        part.lock.readLock().lock();
+        try {
+            return part.isAllocated(page);
+        } finally {
+            part.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of pages currently spilled to scratch files
+     */
+    int getNumSpilledPages() {
+        int numSpilled = 0;
+        for (TempPartition part : this.partitions.values()) {
+            part.lock.readLock().lock();
+            try {
+                numSpilled += part.spilledPages.size();
+            } finally {
+                part.lock.readLock().unlock();
+            }
+        }
+        return numSpilled;
+    }
+
+    // Takes a free page slot, allocating more off-heap if below the limit. Returns null
+    // if no slot is available.
+    private ByteBuffer takeSlot() {
+        synchronized (this.freeSlots) {
+            if (this.freeSlots.isEmpty() && this.numSlots < this.memoryPages) {
+                int arenaPages = Math.min(ARENA_PAGES, this.memoryPages - this.numSlots);
+                ByteBuffer arena = ByteBuffer.allocateDirect(arenaPages * PAGE_SIZE);
+                for (int i = 0; i < arenaPages; ++i) {
+                    arena.position(i * PAGE_SIZE);
+                    arena.limit(arena.position() + PAGE_SIZE);
+                    this.freeSlots.push(arena.slice());
+                    arena.clear();
+                }
+                this.numSlots += arenaPages;
+            }
+            return this.freeSlots.poll();
+        }
+    }
+
+    // Returns a page slot no longer used by any page.
+    private void returnSlot(ByteBuffer slot) {
+        synchronized (this.freeSlots) {
+            if (this.numSlots > this.memoryPages) {
+                --this.numSlots;
+            } else {
+                this.freeSlots.push(slot);
+            }
+        }
+    }
+
+    // Gets a temporary partition, throws exception if not found.
+    private TempPartition getPart(int partNum) {
+        TempPartition part = this.partitions.get(partNum);
+        if (part == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return part;
+    }
+
+    /**
+     * Pages of a single temporary partition. Everything but the lock is only accessed while
+     * holding the lock.
+     */
+    private class TempPartition {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // Allocated pages of the partition.
+        private BitSet allocated = new BitSet();
+
+        // Slots of pages held in memory, keyed by virtual page number, eldest write first.
+        private LinkedHashMap<Long, ByteBuffer> residentPages = new LinkedHashMap<>();
+
+        // Offset in the scratch file of each spilled page.
+        private Map<Long, Long> spilledPages = new HashMap<>();
+
+        // Offsets in the scratch file no longer used by any page.
+        private Deque<Long> freeOffsets = new ArrayDeque<>();
+
+        // Scratch file for spilled pages (null until the first page is spilled), and its size.
+        private RandomAccessFile scratchFile;
+        private FileChannel scratchChannel;
+        private File scratchPath;
+        private long scratchSize;
+
+        // Whether the partition has been freed.
+        private boolean freed;
+
+        private boolean isAllocated(long page) {
+            int pageNum = DiskSpaceManager.getPageNum(page);
+            return !this.freed && pageNum >= 0 && this.allocated.get(pageNum);
+        }
+
+        private void checkNotFreed(int partNum) {
+            if (this.freed) {
+                throw new NoSuchElementException("no partition " + partNum);
+            }
+        }
+
+        // Writes the least recently written page in memory to the scratch file, and returns
+        // its slot.
+        private ByteBuffer spillEldestPage() {
+            Iterator<Map.Entry<Long, ByteBuffer>> iter = this.residentPages.entrySet().iterator();
+            Map.Entry<Long, ByteBuffer> eldest = iter.next();
+            this.spillPage(eldest.getKey(), PartitionHandle.wholePage(eldest.getValue()));
+            iter.remove();
+            return eldest.getValue();
+        }
+
+        // Writes a page to the scratch file.
+        private void spillPage(long page, ByteBuffer b) {
+            try {
+                if (this.scratchFile == null) {
+                    this.scratchPath = File.createTempFile("tempspace", null);
+                    this.scratchPath.deleteOnExit();
+                    this.scratchFile = new RandomAccessFile(this.scratchPath, "rw");
+                    this.scratchChannel = this.scratchFile.getChannel();
+                }
+                Long offset = this.spilledPages.get(page);
+                if (offset == null) {
+                    if (this.freeOffsets.isEmpty()) {
+                        offset = this.scratchSize;
+                        this.scratchSize += PAGE_SIZE;
+                    } else {
+                        offset = this.freeOffsets.pop();
+                    }
+                }
+                while (b.hasRemaining()) {
+                    this.scratchChannel.write(b, offset + b.position());
+                }
+                this.spilledPages.put(page, offset);
+            } catch (IOException e) {
+                throw new PageException("could not spill temporary page: " + e.getMessage());
+            }
+        }
+
+        // Discards the contents of a page, wherever they are.
+        private void dropPage(long page) {
+            ByteBuffer slot = this.residentPages.remove(page);
+            if (slot != null) {
+                returnSlot(slot);
+            }
+            Long offset = this.spilledPages.remove(page);
+            if (offset != null) {
+                this.freeOffsets.push(offset);
+            }
+        }
+
+        // Discards all pages of the partition, and deletes its scratch file.
+        private void free() {
+            this.lock.writeLock().lock();
+            try {
+                this.freed = true;
+                for (ByteBuffer slot : this.residentPages.values()) {
+                    returnSlot(slot);
+                }
+                this.residentPages.clear();
+                this.spilledPages.clear();
+                this.freeOffsets.clear();
+                this.allocated.clear();
+                if (this.scratchFile != null) {
+                    try {
+                        this.scratchFile.close();
+                    } catch (IOException e) {
+                        throw new PageException("could not close scratch file: " + e.getMessage());
+                    } finally {
+                        this.scratchFile = null;
+                        this.scratchChannel = null;
+                        this.scratchPath.delete();
+                    }
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+}
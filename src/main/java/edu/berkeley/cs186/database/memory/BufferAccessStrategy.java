@@ -0,0 +1,63 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * A hint to the buffer manager about how a sequence of page fetches accesses pages, for
+ * accesses (such as a scan of a large table, or writes to a temporary table) that touch
+ * many pages once each.
+ *
+ * A strategy holds a small ring of frames. Every page loaded through the strategy (see
+ * BufferManager#fetchPage(LockContext, long, BufferAccessStrategy)) goes into the next
+ * frame of the ring: once the ring has filled up, the page in that frame is evicted and
+ * the frame reused, instead of asking the eviction policy for a victim. The access then
+ * only ever evicts pages it loaded itself, and leaves the rest of the buffer pool (with
+ * whatever hot pages other queries are using) alone. If the frame at the current position
+ * of the ring is pinned, or has been reused for something else in the meantime, the page
+ * is loaded with normal eviction instead, and that frame takes its place in the ring.
+ *
+ * Pages that are already loaded are used as they are, and do not join the ring.
+ *
+ * A strategy may be shared by several accesses, but belongs to a single buffer manager.
+ */
+public class BufferAccessStrategy {
+    // Frames of the ring, null where the ring has not been filled yet.
+    private BufferFrame[] ring;
+
+    // Position in the ring of the frame to be used next.
+    private int current;
+
+    /**
+     * @param ringSize number of frames in the ring
+     */
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize <= 0) {
+            throw new IllegalArgumentException("ring size must be positive");
+        }
+        this.ring = new BufferFrame[ringSize];
+        this.current = 0;
+    }
+
+    /**
+     * @return number of frames in the ring
+     */
+    public int getRingSize() {
+        return this.ring.length;
+    }
+
+    /**
+     * @return frame at the current position of the ring, or null if the ring has not
+     * filled up yet. Must be called with the buffer manager's lock held.
+     */
+    BufferFrame currentFrame() {
+        return this.ring[this.current];
+    }
+
+    /**
+     * Puts a frame that a page was just loaded into at the current position of the ring,
+     * and moves on to the next position. Must be called with the buffer manager's lock held.
+     * @param frame frame the page was loaded into
+     */
+    void advance(BufferFrame frame) {
+        this.ring[this.current] = frame;
+        this.current = (this.current + 1) % this.ring.length;
+    }
+}
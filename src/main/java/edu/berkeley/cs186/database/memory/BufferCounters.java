@@ -0,0 +1,93 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters behind BufferStats. Every counter is a LongAdder, so that threads hitting
+ * pages at the same time don't contend on a shared cache line, and counting can stay on.
+ */
+class BufferCounters {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // partition number -> {hits, misses}
+    private final Map<Integer, LongAdder[]> partitionHits = new ConcurrentHashMap<>();
+    private final LongAdder cleanEvictions = new LongAdder();
+    private final LongAdder dirtyEvictions = new LongAdder();
+    private final LongAdder numPins = new LongAdder();
+    private final LongAdder pinNanos = new LongAdder();
+    private final LongAdder[] reads = newAdders(BufferStats.PageType.values().length);
+    private final LongAdder[] writes = newAdders(BufferStats.PageType.values().length);
+
+    void hit(int partNum) {
+        this.hits.increment();
+        this.partition(partNum)[0].increment();
+    }
+
+    void miss(int partNum) {
+        this.misses.increment();
+        this.partition(partNum)[1].increment();
+    }
+
+    void evicted(boolean dirty) {
+        (dirty ? this.dirtyEvictions : this.cleanEvictions).increment();
+    }
+
+    void unpinned(long pinNanos) {
+        this.numPins.increment();
+        this.pinNanos.add(pinNanos);
+    }
+
+    void read(BufferStats.PageType type, int numPages) {
+        this.reads[type.ordinal()].add(numPages);
+    }
+
+    void written(BufferStats.PageType type) {
+        this.writes[type.ordinal()].increment();
+    }
+
+    /**
+     * Drops the per-partition counters of a partition that was freed.
+     * @param partNum partition number
+     */
+    void partitionFreed(int partNum) {
+        this.partitionHits.remove(partNum);
+    }
+
+    BufferStats snapshot(int framesPinned, int bufferSize) {
+        Map<Integer, long[]> partitions = new HashMap<>();
+        for (Map.Entry<Integer, LongAdder[]> e : this.partitionHits.entrySet()) {
+            partitions.put(e.getKey(), new long[] {e.getValue()[0].sum(), e.getValue()[1].sum()});
+        }
+        return new BufferStats(this.hits.sum(), this.misses.sum(), partitions,
+                               this.cleanEvictions.sum(), this.dirtyEvictions.sum(),
+                               this.numPins.sum(), this.pinNanos.sum(), framesPinned,
+                               bufferSize, sums(this.reads), sums(this.writes));
+    }
+
+    private LongAdder[] partition(int partNum) {
+        LongAdder[] counters = this.partitionHits.get(partNum);
+        if (counters == null) {
+            counters = this.partitionHits.computeIfAbsent(partNum, p -> newAdders(2));
+        }
+        return counters;
+    }
+
+    private static LongAdder[] newAdders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; ++i) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; ++i) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+}
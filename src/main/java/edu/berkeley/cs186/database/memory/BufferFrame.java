@@ -1,35 +1,72 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Buffer frame.
  */
 abstract class BufferFrame {
     Object tag = null;
-    private int pinCount = 0;
+    // several threads may pin a frame in shared mode at once
+    private final AtomicInteger pinCount = new AtomicInteger();
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        pinCount.incrementAndGet();
+    }
+
+    /**
+     * Pin buffer frame in shared mode, so that other threads may also pin it in shared
+     * mode while it is pinned. The frame may only be read while pinned in shared mode.
+     */
+    void pinShared() {
+        pinCount.incrementAndGet();
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
+        if (pinCount.getAndUpdate(count -> count > 0 ? count - 1 : count) <= 0) {
+            throw new IllegalStateException("cannot unpin unpinned frame");
+        }
+    }
+
+    /**
+     * Unpin buffer frame pinned with pinShared.
+     */
+    void unpinShared() {
+        if (pinCount.getAndUpdate(count -> count > 0 ? count - 1 : count) <= 0) {
             throw new IllegalStateException("cannot unpin unpinned frame");
         }
-        --pinCount;
     }
 
+    /**
+     * Called when a page handle releases a pin on this frame, before unpinning it.
+     * @param pinNanos how long the page was pinned for (in nanoseconds)
+     */
+    void unpinned(long pinNanos) {}
+
+    /**
+     * Opens a write session on this frame (see Page#beginWrite). Must be called with the
+     * frame pinned in exclusive mode.
+     */
+    void beginWrite() {}
+
+    /**
+     * Closes a write session on this frame, logging its writes if it is the outermost one
+     * (see Page#commitWrite).
+     */
+    void commitWrite() {}
+
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
     }
 
     /**
@@ -65,10 +102,22 @@ abstract class BufferFrame {
 
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
-     * Frame is pinned on return.
+     * Frame is pinned (in exclusive mode) on return.
      */
     abstract BufferFrame requestValidFrame();
 
+    /**
+     * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
+     * Frame is pinned on return.
+     * @param shared whether to pin the frame in shared mode
+     */
+    BufferFrame requestValidFrame(boolean shared) {
+        if (shared) {
+            throw new UnsupportedOperationException("frame cannot be pinned in shared mode");
+        }
+        return requestValidFrame();
+    }
+
     /**
      * @return amount of space available to user of the frame
      */
@@ -8,17 +8,43 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
+import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
+ * Data is stored in page-sized slices of off-heap arenas (direct ByteBuffers allocated
+ * once, when the buffer manager is created), and returned in a Frame object specific
  * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * a new Frame object, with the same underlying slice), with old Frame objects
+ * backed by the same slice marked as invalid. Keeping page contents off the heap means
+ * the garbage collector never has to scan or move them, however large the buffer is.
+ *
+ * Page hits do not take the manager lock: the page table is a concurrent map from page
+ * number to Frame object, and a hit only locks the frame it finds (retrying if the frame was
+ * evicted before it could be pinned). The manager lock is only held by misses while they
+ * pick a frame to load the page into (see claimFrame), and by frees and evictions; reading
+ * the page in and writing out the evicted page happen with just the two frames locked, so
+ * misses on different pages only wait on each other to pick frames.
+ *
+ * Optionally, a background cleaner thread (see setCleanTarget) writes out dirty pages that
+ * are not pinned, in page number order, so that a target fraction of frames is clean. Evicting
+ * a clean page doesn't need a write, so misses then rarely wait for a write before their read.
+ *
+ * Optionally (see setWarmupFile), the set of loaded pages is saved to a file, and loaded back
+ * in with large sequential reads after a restart (see preloadResidentPages).
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
@@ -29,16 +55,29 @@ public class BufferManager implements AutoCloseable {
     // Effective page size available to users of buffer manager.
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
-    // Buffer frames
-    private Frame[] frames;
+    // Maximum number of pages in each off-heap arena (a direct ByteBuffer can't hold more than 2GB).
+    static final int ARENA_PAGES = (1 << 30) / DiskSpaceManager.PAGE_SIZE;
+
+    // Buffer frames. Replaced by a longer or shorter array when the buffer is resized (with
+    // the manager lock held).
+    private volatile Frame[] frames;
+
+    // Frames taken out of the buffer by a shrink whose pages have not been evicted yet (because
+    // they were pinned). No page is loaded into them anymore. Modified with the manager lock held.
+    private List<Frame> retiring = new ArrayList<>();
+
+    // Held while resizing, so that only one resize happens at a time.
+    private final Object resizeLock = new Object();
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Map of page number to the frame the page is loaded in. Modified only with the manager
+    // lock held, but read without it.
+    private Map<Long, Frame> pageToFrame;
 
-    // Lock on buffer manager
+    // Lock on buffer manager, held while choosing frames to load pages into, and while
+    // freeing and evicting pages
     private ReentrantLock managerLock;
 
     // Eviction policy
@@ -51,24 +90,100 @@ public class BufferManager implements AutoCloseable {
     private RecoveryManager recoveryManager;
 
     // Count of number of I/Os
-    private long numIOs = 0;
+    private AtomicLong numIOs = new AtomicLong();
+
+    // Counters behind getStats
+    private final BufferCounters counters = new BufferCounters();
+
+    // Partitions holding indices (see registerIndexPartition), to tell index pages apart from
+    // table pages in the statistics.
+    private final Set<Integer> indexPartitions = ConcurrentHashMap.newKeySet();
+
+    // How often the background cleaner checks for dirty pages when not woken up by evictions.
+    static final long CLEANER_INTERVAL_MILLIS = 50;
+
+    // Fraction of frames the background cleaner keeps clean (0 when the cleaner is stopped).
+    private volatile double cleanTarget = 0;
+
+    // Background cleaner thread, or null if not running. Started and stopped, and woken up,
+    // while synchronized on cleanerSignal.
+    private Thread cleaner;
+    private final Object cleanerSignal = new Object();
+
+    // Number of pages written by the background cleaner, and number of evictions of pages that
+    // the cleaner wrote (which would otherwise have needed a write before the eviction).
+    private AtomicLong numPagesCleaned = new AtomicLong();
+    private AtomicLong numWritesAvoided = new AtomicLong();
+
+    // Number of pages to read ahead when misses in a partition are sequential (0 to disable)
+    private int readAheadPages = 0;
+
+    // Map of partition number to the page number that the next miss in the partition
+    // must be for the access pattern to be considered sequential
+    private Map<Integer, Long> nextSequentialPage;
+
+    // Maximum number of pages preloaded with a single (asynchronous) read.
+    static final int WARMUP_BATCH_PAGES = 64;
+
+    // File the resident page set is saved to and preloaded from, or null if not set. Set, and
+    // the file written, while synchronized on warmupSignal.
+    private volatile Path warmupFile;
+
+    // Thread periodically saving the resident page set, or null if not running. Started and
+    // stopped while synchronized on warmupSignal.
+    private Thread warmupSaver;
+    private long warmupSaveIntervalMillis;
+    private final Object warmupSignal = new Object();
+
+    // Preloading of the saved resident page set in progress, or null if none.
+    private volatile CompletableFuture<Void> warmupLoad;
+
+    // Set when the buffer manager is closed, to stop preloading.
+    private volatile boolean closed = false;
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
+     * underlying page buffer. Free frames use the index field to create a (singly) linked
      * list between free frames.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
+        // Page-sized slice of an arena - only ever accessed with absolute positions (or through
+        // duplicates), since threads holding the frame latch in shared mode read it concurrently.
+        ByteBuffer contents;
         private int index;
         private long pageNum;
         private boolean dirty;
-        private ReentrantLock frameLock;
+        // Latch on the frame: held in exclusive mode while the frame is pinned with pin (or
+        // its state changed by the buffer manager), and in shared mode while it is pinned
+        // with pinShared.
+        private final ReentrantReadWriteLock frameLock;
         private boolean logPage;
+        // Whether the page is in a temporary partition, whose changes are not logged.
+        private boolean tempPage;
+        // Read of the page into contents that may still be in progress (null if none). Set
+        // with the frame latch held in exclusive mode; cleared by whoever first sees the read
+        // finish.
+        private volatile CompletableFuture<Void> loading;
+        // Whether the page was last written out by the background cleaner, and not modified since.
+        private boolean cleaned;
+        // Number of times the page has been fetched since it was loaded (or its hotness when it
+        // was last saved, if it was preloaded). Approximate: fetches pinning the frame in shared
+        // mode at the same time may lose increments.
+        private int hits;
+        // Number of write sessions open on the frame (see Page#beginWrite), and, once a write
+        // that must be logged happens in a session: the bytes the session's writes overwrote
+        // as they were before them, keyed by position (captured only the first time each byte
+        // is written), the range of the data they touched, and the transaction making them.
+        // Only accessed with the frame latch held in exclusive mode.
+        private int writeSessions;
+        private TreeMap<Integer, byte[]> unloggedBefore;
+        private int unloggedStart;
+        private int unloggedEnd;
+        private long unloggedTransNum;
 
-        Frame(byte[] contents, int nextFree) {
+        Frame(ByteBuffer contents, int nextFree) {
             this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
         }
 
@@ -76,25 +191,29 @@ public class BufferManager implements AutoCloseable {
             this(frame.contents, frame.index, frame.pageNum);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(ByteBuffer contents, int index, long pageNum) {
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
             this.dirty = false;
-            this.frameLock = new ReentrantLock();
+            this.frameLock = new ReentrantReadWriteLock();
             int partNum = DiskSpaceManager.getPartNum(pageNum);
             this.logPage = partNum == LogManager.LOG_PARTITION;
+            this.tempPage = pageNum != DiskSpaceManager.INVALID_PAGE_NUM
+                            && BufferManager.this.diskSpaceManager.isTempPart(partNum);
         }
 
         /**
          * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
-         * buffer frame gets pinned.
+         * buffer frame gets pinned. The frame is pinned in exclusive mode: other threads
+         * wait to pin it until it is unpinned.
          */
         @Override
         public void pin() {
-            this.frameLock.lock();
+            this.lockExclusive();
 
             if (!this.isValid()) {
+                this.frameLock.writeLock().unlock();
                 throw new IllegalStateException("pinning invalidated frame");
             }
 
@@ -102,12 +221,82 @@ public class BufferManager implements AutoCloseable {
         }
 
         /**
-         * Unpin buffer frame.
+         * Pin buffer frame in shared mode: other threads may pin the frame in shared mode
+         * at the same time, but the frame cannot be written to until unpinned.
+         */
+        @Override
+        void pinShared() {
+            this.frameLock.readLock().lock();
+
+            if (!this.isValid()) {
+                this.frameLock.readLock().unlock();
+                throw new IllegalStateException("pinning invalidated frame");
+            }
+
+            super.pinShared();
+        }
+
+        /**
+         * Pin buffer frame if it is still valid.
+         * @param shared whether to pin the frame in shared mode
+         * @return whether the frame was pinned
+         */
+        private boolean pinIfValid(boolean shared) {
+            Lock lock = shared ? this.frameLock.readLock() : this.frameLock.writeLock();
+            if (shared) {
+                lock.lock();
+            } else {
+                this.lockExclusive();
+            }
+            if (!this.isValid()) {
+                lock.unlock();
+                return false;
+            }
+            if (shared) {
+                super.pinShared();
+            } else {
+                super.pin();
+            }
+            return true;
+        }
+
+        /**
+         * Unpin buffer frame pinned with pin.
          */
         @Override
         public void unpin() {
+            if (this.frameLock.getWriteHoldCount() == 1 && this.writeSessions > 0) {
+                // nobody else may see the page with writes that aren't logged yet
+                this.writeSessions = 0;
+                this.logUnloggedWrites();
+            }
             super.unpin();
-            this.frameLock.unlock();
+            this.frameLock.writeLock().unlock();
+        }
+
+        @Override
+        void unpinned(long pinNanos) {
+            BufferManager.this.counters.unpinned(pinNanos);
+        }
+
+        /**
+         * Unpin buffer frame pinned with pinShared.
+         */
+        @Override
+        void unpinShared() {
+            super.unpinShared();
+            this.frameLock.readLock().unlock();
+        }
+
+        /**
+         * Takes the frame latch in exclusive mode. A thread holding the latch in shared mode
+         * cannot also take it in exclusive mode (it would wait for itself forever).
+         */
+        private void lockExclusive() {
+            if (this.frameLock.getReadHoldCount() > 0 && !this.frameLock.isWriteLockedByCurrentThread()) {
+                throw new IllegalStateException("frame is pinned in shared mode by this thread");
+            }
+            this.frameLock.writeLock().lock();
         }
 
         /**
@@ -125,11 +314,38 @@ public class BufferManager implements AutoCloseable {
             return this.index < 0 && this.index != INVALID_INDEX;
         }
 
+        /**
+         * Waits for a read of the page into this frame to finish, if one is in progress.
+         * Must be called with the frame latch held (in either mode).
+         *
+         * @return false if the read failed, in which case the frame's contents are garbage
+         */
+        private boolean awaitLoad() {
+            if (this.loading == null) {
+                return true;
+            }
+            try {
+                this.loading.join();
+                this.loading = null;
+                return true;
+            } catch (CompletionException e) {
+                return false;
+            }
+        }
+
         /**
          * Invalidates the frame, flushing it if necessary.
          */
         private void invalidate() {
+            // the contents buffer is about to be reused, so nothing may still be reading into it
+            this.awaitLoad();
             if (this.isValid()) {
+                if (this.dirty) {
+                    // we're about to wait for a write the cleaner could have done
+                    BufferManager.this.signalCleaner();
+                } else if (this.cleaned) {
+                    BufferManager.this.numWritesAvoided.incrementAndGet();
+                }
                 this.flush();
             }
             this.index = INVALID_INDEX;
@@ -157,6 +373,18 @@ public class BufferManager implements AutoCloseable {
             this.index = index;
         }
 
+        /**
+         * Marks a frame taken out of the buffer by a shrink as free, without putting it
+         * on the free list.
+         */
+        private void setFreeRetired() {
+            if (isFreed()) {
+                throw new IllegalStateException("cannot free free frame");
+            }
+            this.index = ~0;
+            BufferManager.this.retiring.remove(this);
+        }
+
         /**
          * @return page number of this frame
          */
@@ -170,25 +398,81 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void flush() {
-            this.frameLock.lock();
-            super.pin();
+            // writes need the latch in exclusive mode, so the contents can't change under us,
+            // but other threads holding the latch in shared mode may also be flushing
+            this.frameLock.readLock().lock();
+            super.pinShared();
             try {
-                if (!this.isValid()) {
-                    return;
+                synchronized (this) {
+                    this.writeOut();
                 }
-                if (!this.dirty) {
-                    return;
+            } finally {
+                super.unpinShared();
+                this.frameLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Flushes this buffer frame if it is dirty and nobody has it pinned, without waiting
+         * for its latch. Used by the background cleaner.
+         * @return whether the frame was written out
+         */
+        private boolean clean() {
+            if (!this.frameLock.readLock().tryLock()) {
+                return false;
+            }
+            try {
+                if (this.isPinned() || this.logPage) {
+                    return false;
                 }
-                if (!this.logPage) {
-                    recoveryManager.pageFlushHook(this.getPageLSN());
+                synchronized (this) {
+                    if (this.writeOut()) {
+                        this.cleaned = true;
+                        return true;
+                    }
+                    return false;
                 }
-                BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
-                BufferManager.this.incrementIOs();
-                this.dirty = false;
             } finally {
-                super.unpin();
-                this.frameLock.unlock();
+                this.frameLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Writes the frame to disk if it is valid and dirty, after the log records of
+         * changes to it (see RecoveryManager#pageFlushHook). Must be called with the frame
+         * latch held and synchronized on the frame.
+         * @return whether the frame was written out
+         */
+        private boolean writeOut() {
+            if (!this.isValid() || !this.dirty) {
+                return false;
+            }
+            if (!this.logPage && !this.tempPage) {
+                // only the thread with a write session open can get here while it is open
+                this.logUnloggedWrites();
+                recoveryManager.pageFlushHook(this.getPageLSN());
+            }
+            BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
+            BufferManager.this.incrementIOs();
+            BufferManager.this.counters.written(this.pageType());
+            this.dirty = false;
+            return true;
+        }
+
+        /**
+         * @return what the page loaded in the frame belongs to, for the statistics
+         */
+        private BufferStats.PageType pageType() {
+            if (this.logPage) {
+                return BufferStats.PageType.LOG;
+            }
+            if (this.tempPage) {
+                return BufferStats.PageType.TEMP;
+            }
+            if (BufferManager.this.indexPartitions.contains(DiskSpaceManager.getPartNum(this.pageNum))) {
+                return BufferStats.PageType.INDEX;
             }
+            return BufferStats.PageType.TABLE;
         }
 
         /**
@@ -199,15 +483,17 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void readBytes(short position, short num, byte[] buf) {
-            this.pin();
+            this.pinShared();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                ByteBuffer b = this.contents.duplicate();
+                b.position(position + dataOffset());
+                b.get(buf, 0, num);
                 BufferManager.this.evictionPolicy.hit(this);
             } finally {
-                this.unpin();
+                this.unpinShared();
             }
         }
 
@@ -226,45 +512,158 @@ public class BufferManager implements AutoCloseable {
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
-                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
+                if (transaction != null && !logPage && !tempPage && this.writeSessions > 0) {
+                    this.deferLogging(position, num, transaction.getTransNum());
+                } else if (transaction != null && !logPage && !tempPage) {
+                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(this.contents, offset, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
+                        byte[] before = new byte[len];
+                        ByteBuffer b = this.contents.duplicate();
+                        b.position(start + offset);
+                        b.get(before);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
                         long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
                                        after);
                         this.setPageLSN(pageLSN);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                ByteBuffer b = this.contents.duplicate();
+                b.position(offset);
+                b.put(buf, 0, num);
                 this.dirty = true;
+                this.cleaned = false;
                 BufferManager.this.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
             }
         }
 
+        @Override
+        void beginWrite() {
+            if (!this.frameLock.isWriteLockedByCurrentThread() || !this.isValid()) {
+                throw new IllegalStateException("write session on frame not pinned in exclusive mode");
+            }
+            ++this.writeSessions;
+        }
+
+        @Override
+        void commitWrite() {
+            if (!this.frameLock.isWriteLockedByCurrentThread() || this.writeSessions == 0) {
+                throw new IllegalStateException("no write session open on frame");
+            }
+            if (--this.writeSessions == 0) {
+                this.logUnloggedWrites();
+            }
+        }
+
+        /**
+         * Records a write made in a write session, to be logged when the session is
+         * committed. Must be called before the write is made.
+         * @param position position in buffer frame the write starts at
+         * @param num number of bytes written
+         * @param transNum transaction making the write
+         */
+        private void deferLogging(short position, short num, long transNum) {
+            if (this.unloggedBefore != null && this.unloggedTransNum != transNum) {
+                this.logUnloggedWrites();
+            }
+            if (this.unloggedBefore == null) {
+                this.unloggedBefore = new TreeMap<>();
+                this.unloggedStart = position;
+                this.unloggedEnd = position + num;
+                this.unloggedTransNum = transNum;
+            } else {
+                this.unloggedStart = Math.min(this.unloggedStart, position);
+                this.unloggedEnd = Math.max(this.unloggedEnd, position + num);
+            }
+            // capture the bytes not already written in the session, which still hold their
+            // contents from before it
+            int start = position;
+            int end = start + num;
+            int next = start;
+            List<Integer> gaps = new ArrayList<>();
+            Integer from = this.unloggedBefore.floorKey(start);
+            for (Map.Entry<Integer, byte[]> captured : this.unloggedBefore.tailMap(from == null ? start : from).entrySet()) {
+                int capturedStart = captured.getKey();
+                if (capturedStart >= end) {
+                    break;
+                }
+                if (capturedStart > next) {
+                    gaps.add(next);
+                    gaps.add(capturedStart);
+                }
+                next = Math.max(next, capturedStart + captured.getValue().length);
+            }
+            if (next < end) {
+                gaps.add(next);
+                gaps.add(end);
+            }
+            for (int i = 0; i < gaps.size(); i += 2) {
+                byte[] before = new byte[gaps.get(i + 1) - gaps.get(i)];
+                ByteBuffer b = this.contents.duplicate();
+                b.position(dataOffset() + gaps.get(i));
+                b.get(before);
+                this.unloggedBefore.put(gaps.get(i), before);
+            }
+        }
+
+        /**
+         * Logs the writes made in write sessions so far, diffing the range they touched
+         * against the page as it was before them: one update record per changed region
+         * (see getChangedBytes), instead of one or more per write.
+         */
+        private void logUnloggedWrites() {
+            if (this.unloggedBefore == null) {
+                return;
+            }
+            int start = this.unloggedStart;
+            int num = this.unloggedEnd - start;
+            byte[] after = new byte[num];
+            ByteBuffer b = this.contents.duplicate();
+            b.position(dataOffset() + start);
+            b.get(after);
+            // bytes of the range that were never written are unchanged
+            byte[] before = after.clone();
+            for (Map.Entry<Integer, byte[]> captured : this.unloggedBefore.entrySet()) {
+                byte[] bytes = captured.getValue();
+                System.arraycopy(bytes, 0, before, captured.getKey() - start, bytes.length);
+            }
+            this.unloggedBefore = null;
+            for (Pair<Integer, Integer> range : getChangedBytes(ByteBuffer.wrap(before), 0, num, after)) {
+                int rangeStart = range.getFirst();
+                int len = range.getSecond();
+                long pageLSN = recoveryManager.logPageWrite(this.unloggedTransNum, pageNum, (short) (start + rangeStart),
+                               Arrays.copyOfRange(before, rangeStart, rangeStart + len),
+                               Arrays.copyOfRange(after, rangeStart, rangeStart + len));
+                this.setPageLSN(pageLSN);
+            }
+        }
+
         /**
          * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
          * Page is pinned on return.
          */
         @Override
         Frame requestValidFrame() {
-            this.frameLock.lock();
-            try {
-                if (this.isFreed()) {
-                    throw new PageException("page already freed");
-                }
-                if (this.isValid()) {
-                    this.pin();
-                    return this;
-                }
-                return BufferManager.this.fetchPageFrame(this.pageNum);
-            } finally {
-                this.frameLock.unlock();
+            return this.requestValidFrame(false);
+        }
+
+        /**
+         * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
+         * Page is pinned on return.
+         * @param shared whether to pin the frame in shared mode
+         */
+        @Override
+        Frame requestValidFrame(boolean shared) {
+            if (this.pinIfValid(shared)) {
+                return this;
+            }
+            if (this.isFreed()) {
+                throw new PageException("page already freed");
             }
+            return BufferManager.this.fetchPageFrame(this.pageNum, true, shared, null);
         }
 
         @Override
@@ -278,7 +677,7 @@ public class BufferManager implements AutoCloseable {
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            return this.contents.getLong(8);
         }
 
         @Override
@@ -293,11 +692,11 @@ public class BufferManager implements AutoCloseable {
         }
 
         /**
-         * Generates (offset, length) pairs for where buf differs from contents. Merges nearby
-         * pairs (where nearby is defined as pairs that have fewer than BufferManager.RESERVED_SPACE
-         * bytes of unmodified data between them).
+         * Generates (offset, length) pairs for where buf differs from current, starting at offset.
+         * Merges nearby pairs (where nearby is defined as pairs that have fewer than
+         * BufferManager.RESERVED_SPACE bytes of unmodified data between them).
          */
-        private List<Pair<Integer, Integer>> getChangedBytes(int offset, int num, byte[] buf) {
+        private List<Pair<Integer, Integer>> getChangedBytes(ByteBuffer current, int offset, int num, byte[] buf) {
             List<Pair<Integer, Integer>> ranges = new ArrayList<>();
             int maxRange = EFFECTIVE_PAGE_SIZE / 2;
             int startIndex = -1;
@@ -307,7 +706,7 @@ public class BufferManager implements AutoCloseable {
                     ranges.add(new Pair<>(startIndex, maxRange));
                     startIndex = -1;
                     skip = -1;
-                } else if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                } else if (buf[i] == current.get(offset + i) && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -315,7 +714,7 @@ public class BufferManager implements AutoCloseable {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != current.get(offset + i)) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -329,7 +728,7 @@ public class BufferManager implements AutoCloseable {
         }
 
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            this.contents.putLong(8, pageLSN);
         }
 
         private short dataOffset() {
@@ -351,23 +750,64 @@ public class BufferManager implements AutoCloseable {
     public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                          int bufferSize, EvictionPolicy evictionPolicy) {
         this.frames = new Frame[bufferSize];
+        ByteBuffer[] slices = allocateSlices(bufferSize);
         for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+            this.frames[i] = new Frame(slices[i], i + 1);
         }
         this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
+        this.pageToFrame = new ConcurrentHashMap<>();
+        this.nextSequentialPage = new HashMap<>();
         this.managerLock = new ReentrantLock();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
     }
 
+    /**
+     * Allocates off-heap arenas for a number of pages, and slices them into pages.
+     *
+     * @param numPages number of pages
+     * @return page-sized slices of the arenas
+     */
+    private static ByteBuffer[] allocateSlices(int numPages) {
+        ByteBuffer[] slices = new ByteBuffer[numPages];
+        ByteBuffer arena = null;
+        for (int i = 0; i < numPages; ++i) {
+            if (i % ARENA_PAGES == 0) {
+                int arenaPages = Math.min(ARENA_PAGES, numPages - i);
+                arena = ByteBuffer.allocateDirect(arenaPages * DiskSpaceManager.PAGE_SIZE);
+            }
+            arena.position((i % ARENA_PAGES) * DiskSpaceManager.PAGE_SIZE);
+            arena.limit(arena.position() + DiskSpaceManager.PAGE_SIZE);
+            slices[i] = arena.slice();
+            arena.clear();
+        }
+        return slices;
+    }
+
     @Override
     public void close() {
+        this.setCleanTarget(0);
+        CompletableFuture<Void> warmupLoad;
+        synchronized (this.warmupSignal) {
+            this.closed = true;
+            warmupLoad = this.warmupLoad;
+        }
+        if (warmupLoad != null) {
+            try {
+                warmupLoad.join();
+            } catch (CompletionException e) {
+                // preloading is best effort
+            }
+        }
+        this.saveResidentPages();
+        this.setWarmupFile(null, 0);
         this.managerLock.lock();
         try {
-            for (Frame frame : this.frames) {
-                frame.frameLock.lock();
+            List<Frame> allFrames = new ArrayList<>(Arrays.asList(this.frames));
+            allFrames.addAll(this.retiring);
+            for (Frame frame : allFrames) {
+                frame.frameLock.writeLock().lock();
                 try {
                     if (frame.isPinned()) {
                         throw new IllegalStateException("closing buffer manager but frame still pinned");
@@ -378,7 +818,7 @@ public class BufferManager implements AutoCloseable {
                     evictionPolicy.cleanup(frame);
                     frame.invalidate();
                 } finally {
-                    frame.frameLock.unlock();
+                    frame.frameLock.writeLock().unlock();
                 }
             }
         } finally {
@@ -395,60 +835,303 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame with specified page loaded
      */
     Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
+        return this.fetchPageFrame(pageNum, true, false, null);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page, as above.
+     *
+     * @param pageNum page number
+     * @param allowReadAhead whether a miss may trigger sequential read-ahead
+     * @param shared whether to pin the frame in shared mode
+     * @param strategy access strategy to load the page with on a miss, or null for normal eviction
+     * @return buffer frame with specified page loaded
+     */
+    private Frame fetchPageFrame(long pageNum, boolean allowReadAhead, boolean shared,
+                                 BufferAccessStrategy strategy) {
         Frame newFrame;
         Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
-        try {
+        boolean readAhead;
+        while (true) {
+            Frame frame = this.pageToFrame.get(pageNum);
+            if (frame != null) {
+                if (frame.pinIfValid(shared)) {
+                    if (frame.awaitLoad()) {
+                        ++frame.hits;
+                        this.counters.hit(DiskSpaceManager.getPartNum(pageNum));
+                        return frame;
+                    }
+                    // reading into the frame failed, so drop it and read the page again
+                    if (shared) {
+                        frame.unpinShared();
+                    } else {
+                        frame.unpin();
+                    }
+                    this.evictFailedLoad(frame);
+                }
+                // evicted before we could pin it, look again
+                continue;
+            }
             if (!this.diskSpaceManager.pageAllocated(pageNum)) {
                 throw new PageException("page " + pageNum + " not allocated");
             }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
+            // figure out what frame to load data to, and update manager state
+            this.managerLock.lock();
+            try {
+                if (this.pageToFrame.containsKey(pageNum)) {
+                    // loaded by another thread in the meantime
+                    continue;
+                }
+                Pair<Frame, Frame> claimed = this.claimFrame(pageNum, strategy);
+                this.counters.miss(DiskSpaceManager.getPartNum(pageNum));
+                newFrame = claimed.getFirst();
+                evictedFrame = claimed.getSecond();
+                readAhead = allowReadAhead && this.detectSequentialMiss(pageNum);
+            } finally {
+                this.managerLock.unlock();
             }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
-
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
-
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
-            this.managerLock.unlock();
+            break;
         }
         // flush evicted frame
         try {
             evictedFrame.invalidate();
         } finally {
-            evictedFrame.frameLock.unlock();
+            evictedFrame.frameLock.writeLock().unlock();
         }
         // read new page into frame
         try {
             newFrame.pageNum = pageNum;
-            newFrame.pin();
             BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
             this.incrementIOs();
-            return newFrame;
+            this.counters.read(newFrame.pageType(), 1);
+            newFrame.hits = 1;
+            if (shared) {
+                newFrame.pinShared();
+            } else {
+                newFrame.pin();
+            }
         } catch (PageException e) {
-            newFrame.unpin();
+            // anything that pins the frame before it is evicted drops it and reads the page again
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            newFrame.loading = failed;
             throw e;
         } finally {
-            newFrame.frameLock.unlock();
+            newFrame.frameLock.writeLock().unlock();
+        }
+        if (readAhead) {
+            this.readAhead(pageNum, strategy);
+        }
+        return newFrame;
+    }
+
+    /**
+     * Evicts a frame that a page could not be read into, if it has not been evicted yet.
+     *
+     * @param frame frame to evict
+     */
+    private void evictFailedLoad(Frame frame) {
+        this.managerLock.lock();
+        try {
+            int frameIndex = frame.index;
+            if (frameIndex >= this.frames.length) {
+                this.retire(frame);
+            } else if (frameIndex >= 0 && this.frames[frameIndex] == frame) {
+                this.evict(frameIndex);
+            }
+        } finally {
+            this.managerLock.unlock();
         }
     }
 
+    /**
+     * Picks a frame to load a page into, preferring free frames over evicting a page, and
+     * maps the page to it. Must be called with the manager lock held. On return, both the
+     * new frame and the frame it replaces are locked; the caller must invalidate the replaced
+     * frame and read the page into the new frame (or start reading it, and mark the frame as
+     * loading) before unlocking them.
+     *
+     * @param pageNum page number of page to be loaded
+     * @param strategy access strategy whose ring to evict from, or null for normal eviction
+     * @return pair of (new frame, replaced frame)
+     * @throws IllegalStateException if every frame is pinned
+     */
+    private Pair<Frame, Frame> claimFrame(long pageNum, BufferAccessStrategy strategy) {
+        Frame evictedFrame = null;
+        // prioritize free frames over eviction
+        if (this.firstFreeIndex < this.frames.length) {
+            evictedFrame = this.frames[this.firstFreeIndex];
+            evictedFrame.setUsed();
+            evictedFrame.frameLock.writeLock().lock();
+        } else {
+            if (strategy != null) {
+                evictedFrame = this.claimRingFrame(strategy);
+            }
+            while (evictedFrame == null) {
+                evictedFrame = (Frame) evictionPolicy.evict(frames);
+                // page hits don't take the manager lock, so the frame may have been pinned
+                // since the policy picked it
+                if (evictedFrame.frameLock.writeLock().tryLock()) {
+                    if (!evictedFrame.isPinned()) {
+                        if (evictedFrame.index < this.frames.length) {
+                            break;
+                        }
+                        // taken out of the buffer by a shrink (but still known to the policy),
+                        // so evict its page for good and pick another frame
+                        this.evictRetiring(evictedFrame);
+                    }
+                    evictedFrame.frameLock.writeLock().unlock();
+                }
+                evictedFrame = null;
+            }
+            this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame);
+            evictionPolicy.cleanup(evictedFrame);
+            this.counters.evicted(evictedFrame.dirty);
+        }
+        int frameIndex = evictedFrame.index;
+        Frame newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
+        evictionPolicy.init(newFrame);
+        if (strategy != null) {
+            strategy.advance(newFrame);
+        }
+
+        newFrame.frameLock.writeLock().lock();
+
+        this.pageToFrame.put(pageNum, newFrame);
+        return new Pair<>(newFrame, evictedFrame);
+    }
+
+    /**
+     * Gets the frame at the current position of a strategy's ring, locked, if it can be
+     * reused: it must still hold the page loaded into it through the ring, and not be pinned.
+     * Must be called with the manager lock held.
+     *
+     * @param strategy access strategy
+     * @return frame to reuse, or null if the page must be loaded with normal eviction
+     */
+    private Frame claimRingFrame(BufferAccessStrategy strategy) {
+        BufferFrame ringFrame = strategy.currentFrame();
+        if (!(ringFrame instanceof Frame)) {
+            return null;
+        }
+        Frame frame = (Frame) ringFrame;
+        // frames are replaced by a new Frame object whenever they are evicted or freed
+        if (frame.index < 0 || frame.index >= this.frames.length || this.frames[frame.index] != frame
+                || !frame.frameLock.writeLock().tryLock()) {
+            return null;
+        }
+        if (!frame.isValid() || frame.isPinned()) {
+            frame.frameLock.writeLock().unlock();
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * Records a miss on a page, and checks whether misses in its partition look
+     * sequential. Must be called with the manager lock held.
+     *
+     * @param pageNum page number of the page that missed
+     * @return whether the pages following pageNum should be read ahead
+     */
+    private boolean detectSequentialMiss(long pageNum) {
+        if (this.readAheadPages <= 0) {
+            return false;
+        }
+        int partNum = DiskSpaceManager.getPartNum(pageNum);
+        Long expected = this.nextSequentialPage.put(partNum, pageNum + 1);
+        return expected != null && expected == pageNum;
+    }
+
+    /**
+     * Loads up to readAheadPages pages following pageNum into the buffer pool (unpinned),
+     * with as few reads as possible. Stops at the first page that is not allocated, or if
+     * every frame is pinned. Pages already loaded are skipped.
+     *
+     * The read is asynchronous: this returns once it has been started, and the frames are
+     * marked as loading until it completes. Anything that pins or reuses one of the frames
+     * first waits for the read (see Frame#awaitLoad).
+     *
+     * With an access strategy, the pages are read into its ring, and at most as many pages are
+     * read ahead as leave room in the ring for the page just loaded and the one being read
+     * from, so that pages read ahead are not evicted again before they are used.
+     *
+     * @param pageNum page number of the page just loaded by a sequential miss
+     * @param strategy access strategy the page was loaded with, or null
+     */
+    private void readAhead(long pageNum, BufferAccessStrategy strategy) {
+        List<Pair<Frame, Frame>> claimed = new ArrayList<>();
+        this.managerLock.lock();
+        try {
+            int numPages = this.readAheadPages;
+            if (strategy != null) {
+                numPages = Math.min(numPages, strategy.getRingSize() - 2);
+            }
+            long lastPageNum = pageNum;
+            for (long p = pageNum + 1; p <= pageNum + numPages; ++p) {
+                if (DiskSpaceManager.getPartNum(p) != DiskSpaceManager.getPartNum(pageNum)) {
+                    break;
+                }
+                if (this.pageToFrame.containsKey(p)) {
+                    lastPageNum = p;
+                    continue;
+                }
+                if (!this.diskSpaceManager.pageAllocated(p)) {
+                    break;
+                }
+                try {
+                    claimed.add(this.claimFrame(p, strategy));
+                } catch (IllegalStateException e) {
+                    // everything pinned, read ahead as much as we could
+                    break;
+                }
+                lastPageNum = p;
+            }
+            // the next miss in this partition is sequential if it follows what we read ahead
+            this.nextSequentialPage.put(DiskSpaceManager.getPartNum(pageNum), lastPageNum + 1);
+        } finally {
+            this.managerLock.unlock();
+        }
+        this.loadClaimed(claimed);
+    }
+
+    /**
+     * Invalidates the frames replaced by a list of frames claimed with claimFrame, and starts
+     * reading the pages into the new frames, which are marked as loading and unlocked.
+     *
+     * @param claimed pairs of (new frame, replaced frame) returned by claimFrame
+     * @return future completing when every page has been read, or null if claimed is empty
+     */
+    private CompletableFuture<Void> loadClaimed(List<Pair<Frame, Frame>> claimed) {
+        if (claimed.isEmpty()) {
+            return null;
+        }
+
+        long[] pageNums = new long[claimed.size()];
+        ByteBuffer[] bufs = new ByteBuffer[claimed.size()];
+        for (int i = 0; i < claimed.size(); ++i) {
+            Frame newFrame = claimed.get(i).getFirst();
+            Frame evictedFrame = claimed.get(i).getSecond();
+            try {
+                evictedFrame.invalidate();
+            } finally {
+                evictedFrame.frameLock.writeLock().unlock();
+            }
+            pageNums[i] = newFrame.pageNum;
+            bufs[i] = newFrame.contents;
+        }
+        // frames whose read fails are dropped the next time their page is fetched
+        CompletableFuture<Void> loading = this.diskSpaceManager.readPagesAsync(pageNums, bufs);
+        for (Pair<Frame, Frame> pair : claimed) {
+            Frame newFrame = pair.getFirst();
+            newFrame.loading = loading;
+            this.incrementIOs();
+            this.counters.read(newFrame.pageType(), 1);
+            newFrame.frameLock.writeLock().unlock();
+        }
+        return loading;
+    }
+
     /**
      * Fetches the specified page, with a loaded and pinned buffer frame.
      *
@@ -460,6 +1143,33 @@ public class BufferManager implements AutoCloseable {
         return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
     }
 
+    /**
+     * Fetches the specified page, with a loaded and pinned buffer frame. If the page is not
+     * loaded, it is loaded into the ring of the access strategy (see BufferAccessStrategy).
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @param strategy      access strategy, or null to load the page with normal eviction
+     * @return specified page
+     */
+    public Page fetchPage(LockContext parentContext, long pageNum, BufferAccessStrategy strategy) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, true, false, strategy));
+    }
+
+    /**
+     * Fetches the specified page for reading, with a loaded buffer frame pinned in shared
+     * mode (see Page#pinShared): other threads may read the page at the same time, but the
+     * page cannot be written to until it is unpinned.
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @return specified page
+     */
+    public Page fetchPageShared(LockContext parentContext, long pageNum) {
+        Frame frame = this.fetchPageFrame(pageNum, true, true, null);
+        return new Page(parentContext.childContext(pageNum), frame, true);
+    }
+
     /**
      * Fetches a buffer frame for a new page. Pins the buffer frame. Cannot be used outside the package.
      *
@@ -467,13 +1177,20 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame for the new page
      */
     Frame fetchNewPageFrame(int partNum) {
+        return this.fetchNewPageFrame(partNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame for a new page, as above, loading it into the ring of an access
+     * strategy.
+     *
+     * @param partNum partition number for new page
+     * @param strategy access strategy, or null to load the page with normal eviction
+     * @return buffer frame for the new page
+     */
+    private Frame fetchNewPageFrame(int partNum, BufferAccessStrategy strategy) {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum);
-        } finally {
-            this.managerLock.unlock();
-        }
+        return fetchPageFrame(pageNum, false, false, strategy);
     }
 
     /**
@@ -484,10 +1201,35 @@ public class BufferManager implements AutoCloseable {
      * @return the new page
      */
     public Page fetchNewPage(LockContext parentContext, int partNum) {
-        Frame newFrame = this.fetchNewPageFrame(partNum);
+        return this.fetchNewPage(parentContext, partNum, null);
+    }
+
+    /**
+     * Fetches a new page, with a loaded and pinned buffer frame in the ring of an access
+     * strategy (see BufferAccessStrategy).
+     *
+     * @param parentContext parent lock context of the new page
+     * @param partNum       partition number for new page
+     * @param strategy      access strategy, or null to load the page with normal eviction
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, int partNum, BufferAccessStrategy strategy) {
+        Frame newFrame = this.fetchNewPageFrame(partNum, strategy);
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
+    /**
+     * Allocates several new pages in a partition, contiguous on disk if possible (see
+     * DiskSpaceManager#allocPages). The pages are not loaded; use fetchPage to load them.
+     *
+     * @param partNum partition number for new pages
+     * @param count number of pages to allocate
+     * @return page numbers of the new pages
+     */
+    public long[] allocPages(int partNum, int count) {
+        return this.diskSpaceManager.allocPages(partNum, count);
+    }
+
     /**
      * Frees a page - evicts the page from cache, and tells the disk space manager
      * that the page is no longer needed. Page must be pinned before this call,
@@ -499,15 +1241,18 @@ public class BufferManager implements AutoCloseable {
         this.managerLock.lock();
         try {
             TransactionContext transaction = TransactionContext.getTransaction();
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
+            Frame frame = this.pageToFrame.get(page.getPageNum());
+            int frameIndex = frame.index;
 
-            Frame frame = this.frames[frameIndex];
             if (transaction != null) page.flush();
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
+            this.pageToFrame.remove(page.getPageNum(), frame);
             evictionPolicy.cleanup(frame);
-            frame.setFree();
-
-            this.frames[frameIndex] = new Frame(frame);
+            if (frameIndex < this.frames.length) {
+                frame.setFree();
+                this.frames[frameIndex] = new Frame(frame);
+            } else {
+                frame.setFreeRetired();
+            }
             diskSpaceManager.freePage(page.getPageNum());
         } finally {
             this.managerLock.unlock();
@@ -527,13 +1272,20 @@ public class BufferManager implements AutoCloseable {
             for (int i = 0; i < frames.length; ++i) {
                 Frame frame = frames[i];
                 if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
-                    evictionPolicy.cleanup(frame);
-                    frame.flush();
+                    this.unloadFreedPart(frame);
                     frame.setFree();
                     frames[i] = new Frame(frame);
                 }
             }
+            for (Frame frame : new ArrayList<>(this.retiring)) {
+                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                    this.unloadFreedPart(frame);
+                    frame.setFreeRetired();
+                }
+            }
+            this.nextSequentialPage.remove(partNum);
+            this.indexPartitions.remove(partNum);
+            this.counters.partitionFreed(partNum);
 
             diskSpaceManager.freePart(partNum);
         } finally {
@@ -541,6 +1293,27 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Unloads a page of a partition being freed from its frame. Must be called with the
+     * manager lock held.
+     *
+     * @param frame frame the page is loaded in
+     */
+    private void unloadFreedPart(Frame frame) {
+        this.pageToFrame.remove(frame.getPageNum(), frame);
+        evictionPolicy.cleanup(frame);
+        frame.frameLock.writeLock().lock();
+        try {
+            frame.awaitLoad();
+        } finally {
+            frame.frameLock.writeLock().unlock();
+        }
+        // temporary pages are discarded along with the partition, so aren't worth writing out
+        if (!frame.tempPage) {
+            frame.flush();
+        }
+    }
+
     /**
      * Calls flush on the frame of a page and unloads the page from the frame. If the page
      * is not loaded, this does nothing.
@@ -549,40 +1322,52 @@ public class BufferManager implements AutoCloseable {
     public void evict(long pageNum) {
         managerLock.lock();
         try {
-            if (!pageToFrame.containsKey(pageNum)) {
+            Frame frame = pageToFrame.get(pageNum);
+            if (frame == null) {
                 return;
             }
-            evict(pageToFrame.get(pageNum));
+            if (frame.index >= frames.length) {
+                retire(frame);
+            } else {
+                evict(frame.index);
+            }
         } finally {
             managerLock.unlock();
         }
     }
 
     private void evict(int i) {
+        if (i >= frames.length) {
+            // buffer was shrunk since the caller looked
+            return;
+        }
         Frame frame = frames[i];
-        frame.frameLock.lock();
+        frame.frameLock.writeLock().lock();
         try {
             if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
+                this.pageToFrame.remove(frame.pageNum, frame);
                 evictionPolicy.cleanup(frame);
 
                 frames[i] = new Frame(frame.contents, this.firstFreeIndex);
                 this.firstFreeIndex = i;
 
+                this.counters.evicted(frame.dirty);
                 frame.invalidate();
             }
         } finally {
-            frame.frameLock.unlock();
+            frame.frameLock.writeLock().unlock();
         }
     }
 
     /**
-     * Calls evict on every frame in sequence.
+     * Calls evict on every frame in sequence, then forces all the writes to disk
+     * at once.
      */
     public void evictAll() {
         for (int i = 0; i < frames.length; ++i) {
             evict(i);
         }
+        diskSpaceManager.syncAll();
     }
 
     /**
@@ -592,14 +1377,22 @@ public class BufferManager implements AutoCloseable {
      *                (has an unflushed change).
      */
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
-        for (Frame frame : frames) {
-            frame.frameLock.lock();
+        List<Frame> allFrames;
+        this.managerLock.lock();
+        try {
+            allFrames = new ArrayList<>(Arrays.asList(this.frames));
+            allFrames.addAll(this.retiring);
+        } finally {
+            this.managerLock.unlock();
+        }
+        for (Frame frame : allFrames) {
+            frame.frameLock.readLock().lock();
             try {
                 if (frame.isValid()) {
                     process.accept(frame.pageNum, frame.dirty);
                 }
             } finally {
-                frame.frameLock.unlock();
+                frame.frameLock.readLock().unlock();
             }
         }
     }
@@ -611,7 +1404,496 @@ public class BufferManager implements AutoCloseable {
      * @return number of I/Os
      */
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.get();
+    }
+
+    /**
+     * Takes a snapshot of the buffer manager's statistics: hits and misses (overall and per
+     * partition), clean and dirty evictions, pin times, and reads and writes by type of page.
+     * Cheap enough to call often; counting is always on.
+     * @return statistics of the buffer manager since it was started
+     */
+    public BufferStats getStats() {
+        int framesPinned = 0;
+        for (Frame frame : this.frames) {
+            if (frame.isPinned()) {
+                ++framesPinned;
+            }
+        }
+        return this.counters.snapshot(framesPinned, this.frames.length);
+    }
+
+    /**
+     * Marks a partition as holding an index, so that reads and writes of its pages count as
+     * index reads and writes in the statistics (instead of table reads and writes).
+     * @param partNum partition number
+     */
+    public void registerIndexPartition(int partNum) {
+        this.indexPartitions.add(partNum);
+    }
+
+    /**
+     * @return number of frames in the buffer
+     */
+    public int getBufferSize() {
+        return this.frames.length;
+    }
+
+    /**
+     * Changes the number of frames in the buffer, while it is in use. Growing the buffer
+     * adds free frames. Shrinking it takes the frames at the end of the buffer out of use
+     * right away (no page is loaded into them anymore), and then evicts their pages, writing
+     * out dirty pages; pinned pages stay usable until they are unpinned, so this waits for
+     * them to be unpinned. The caller must not have any pages pinned.
+     *
+     * The off-heap memory of frames removed by a shrink is released once no frame
+     * using the same arena is left.
+     *
+     * @param bufferSize new size of buffer (in pages)
+     */
+    public void resize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        synchronized (this.resizeLock) {
+            Frame[] removed;
+            this.managerLock.lock();
+            try {
+                int oldSize = this.frames.length;
+                if (bufferSize >= oldSize) {
+                    Frame[] grown = Arrays.copyOf(this.frames, bufferSize);
+                    ByteBuffer[] slices = allocateSlices(bufferSize - oldSize);
+                    for (int i = oldSize; i < bufferSize; ++i) {
+                        // linked into the free list below
+                        grown[i] = new Frame(slices[i - oldSize], bufferSize);
+                    }
+                    this.frames = grown;
+                    this.rebuildFreeList();
+                    return;
+                }
+                removed = Arrays.copyOfRange(this.frames, bufferSize, oldSize);
+                this.frames = Arrays.copyOf(this.frames, bufferSize);
+                this.rebuildFreeList();
+                for (Frame frame : removed) {
+                    if (frame.isValid()) {
+                        this.retiring.add(frame);
+                    }
+                }
+            } finally {
+                this.managerLock.unlock();
+            }
+            for (Frame frame : removed) {
+                while (!this.retire(frame)) {
+                    // pins hold the frame's latch, so this waits until the page is unpinned
+                    frame.frameLock.writeLock().lock();
+                    frame.frameLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Relinks the free list through the free frames of the buffer, in order. Must be called
+     * with the manager lock held.
+     */
+    private void rebuildFreeList() {
+        this.firstFreeIndex = this.frames.length;
+        for (int i = this.frames.length - 1; i >= 0; --i) {
+            if (this.frames[i].isFreed()) {
+                this.frames[i].index = ~this.firstFreeIndex;
+                this.firstFreeIndex = i;
+            }
+        }
+    }
+
+    /**
+     * Evicts the page in a frame taken out of the buffer by a shrink, unless it is pinned.
+     *
+     * @param frame frame removed from the buffer
+     * @return false if the page is pinned, and must be evicted once it is unpinned
+     */
+    private boolean retire(Frame frame) {
+        this.managerLock.lock();
+        try {
+            if (!frame.isValid()) {
+                // evicted or freed in the meantime
+                return true;
+            }
+            if (!frame.frameLock.writeLock().tryLock()) {
+                return false;
+            }
+            try {
+                if (frame.isPinned()) {
+                    return false;
+                }
+                this.evictRetiring(frame);
+                return true;
+            } finally {
+                frame.frameLock.writeLock().unlock();
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the page in a frame taken out of the buffer by a shrink, writing it out if
+     * dirty. Must be called with the manager lock and the frame's latch held.
+     *
+     * @param frame frame removed from the buffer
+     */
+    private void evictRetiring(Frame frame) {
+        this.pageToFrame.remove(frame.pageNum, frame);
+        evictionPolicy.cleanup(frame);
+        this.counters.evicted(frame.dirty);
+        frame.invalidate();
+        this.retiring.remove(frame);
+    }
+
+    /**
+     * Sets how many pages to read ahead once misses within a partition look sequential
+     * (two consecutive pages missing in a row). Read-ahead is disabled by default, since
+     * it changes the number of I/Os counted by getNumIOs.
+     * @param readAheadPages number of pages to read ahead, or 0 to disable read-ahead
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        this.managerLock.lock();
+        try {
+            this.readAheadPages = readAheadPages;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the fraction of frames that a background cleaner thread keeps clean, by writing
+     * out dirty pages that are not pinned (other than log pages). Pages are written in page
+     * number order, after the log records of their changes, and only when fewer than this
+     * fraction of frames are clean. The cleaner is stopped by default, since its writes
+     * change the number of I/Os counted by getNumIOs.
+     * @param cleanTarget fraction of frames to keep clean, between 0 and 1, or 0 to stop the cleaner
+     */
+    public void setCleanTarget(double cleanTarget) {
+        if (cleanTarget < 0 || cleanTarget > 1) {
+            throw new IllegalArgumentException("clean target must be between 0 and 1");
+        }
+        Thread stopped = null;
+        synchronized (this.cleanerSignal) {
+            this.cleanTarget = cleanTarget;
+            if (cleanTarget > 0 && this.cleaner == null) {
+                this.cleaner = new Thread(this::runCleaner, "buffer-cleaner");
+                this.cleaner.setDaemon(true);
+                this.cleaner.start();
+            } else if (cleanTarget == 0 && this.cleaner != null) {
+                stopped = this.cleaner;
+                this.cleaner = null;
+            }
+            this.cleanerSignal.notifyAll();
+        }
+        if (stopped != null && stopped != Thread.currentThread()) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return number of pages written out by the background cleaner
+     */
+    public long getNumPagesCleaned() {
+        return this.numPagesCleaned.get();
+    }
+
+    /**
+     * @return number of pages evicted without a write because the background cleaner had
+     * already written them out
+     */
+    public long getNumWritesAvoided() {
+        return this.numWritesAvoided.get();
+    }
+
+    // Wakes up the background cleaner, if it is running.
+    private void signalCleaner() {
+        if (this.cleanTarget > 0) {
+            synchronized (this.cleanerSignal) {
+                this.cleanerSignal.notifyAll();
+            }
+        }
+    }
+
+    // Main loop of the background cleaner thread.
+    private void runCleaner() {
+        while (true) {
+            synchronized (this.cleanerSignal) {
+                if (this.cleaner != Thread.currentThread()) {
+                    return;
+                }
+            }
+            this.cleanOnce();
+            synchronized (this.cleanerSignal) {
+                if (this.cleaner != Thread.currentThread()) {
+                    return;
+                }
+                try {
+                    this.cleanerSignal.wait(CLEANER_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes out dirty pages, in page number order, until cleanTarget of the frames are
+     * clean (or there is nothing left that can be written out).
+     */
+    void cleanOnce() {
+        Frame[] snapshot;
+        this.managerLock.lock();
+        try {
+            snapshot = this.frames.clone();
+        } finally {
+            this.managerLock.unlock();
+        }
+        // dirty flags are read without the frames' latches, but are checked again before writing
+        List<Frame> dirtyFrames = new ArrayList<>();
+        for (Frame frame : snapshot) {
+            if (frame.isValid() && frame.dirty && !frame.logPage) {
+                dirtyFrames.add(frame);
+            }
+        }
+        int maxDirty = (int) ((1 - this.cleanTarget) * snapshot.length);
+        int excess = dirtyFrames.size() - maxDirty;
+        if (excess <= 0) {
+            return;
+        }
+        dirtyFrames.sort(Comparator.comparingLong(Frame::getPageNum));
+        for (Frame frame : dirtyFrames) {
+            if (excess <= 0) {
+                break;
+            }
+            try {
+                if (frame.clean()) {
+                    this.numPagesCleaned.incrementAndGet();
+                    --excess;
+                }
+            } catch (PageException e) {
+                // page was freed while we were writing it
+            }
+        }
+    }
+
+    /**
+     * Sets the file that the set of loaded pages is saved to (see saveResidentPages) and
+     * preloaded from (see preloadResidentPages), so that after a restart the buffer pool
+     * does not have to refill one miss at a time. The set is saved when the buffer manager
+     * is closed, and, if saveIntervalMillis is positive, periodically by a background thread.
+     * Warm-up is disabled by default, since preloading changes the number of I/Os counted by
+     * getNumIOs.
+     * @param file file to save the resident page set to, or null to disable warm-up
+     * @param saveIntervalMillis how often to save the resident page set, or 0 to only save it on close
+     */
+    public void setWarmupFile(Path file, long saveIntervalMillis) {
+        if (saveIntervalMillis < 0) {
+            throw new IllegalArgumentException("save interval cannot be negative");
+        }
+        Thread stopped = null;
+        synchronized (this.warmupSignal) {
+            this.warmupFile = file;
+            this.warmupSaveIntervalMillis = saveIntervalMillis;
+            boolean periodic = file != null && saveIntervalMillis > 0;
+            if (periodic && this.warmupSaver == null) {
+                this.warmupSaver = new Thread(this::runWarmupSaver, "buffer-warmup-saver");
+                this.warmupSaver.setDaemon(true);
+                this.warmupSaver.start();
+            } else if (!periodic && this.warmupSaver != null) {
+                stopped = this.warmupSaver;
+                this.warmupSaver = null;
+            }
+            this.warmupSignal.notifyAll();
+        }
+        if (stopped != null && stopped != Thread.currentThread()) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Saves the page numbers of the loaded pages (other than pages of temporary partitions),
+     * along with how many times each was fetched, to the warm-up file. The file is replaced
+     * atomically, so a crash while saving leaves the previously saved set. Does nothing if
+     * there is no warm-up file, or if no pages are loaded - so that the set saved just before
+     * the buffer pool is emptied on shutdown (see evictAll) is kept.
+     */
+    public void saveResidentPages() {
+        synchronized (this.warmupSignal) {
+            Path file = this.warmupFile;
+            if (file == null) {
+                return;
+            }
+            Frame[] snapshot;
+            this.managerLock.lock();
+            try {
+                snapshot = this.frames.clone();
+            } finally {
+                this.managerLock.unlock();
+            }
+            // frames are read without their latches (which pinned frames hold): the saved set
+            // is only a hint, and is checked again when preloaded
+            List<Frame> resident = new ArrayList<>();
+            for (Frame frame : snapshot) {
+                if (frame.isValid() && !frame.tempPage) {
+                    resident.add(frame);
+                }
+            }
+            if (resident.isEmpty()) {
+                return;
+            }
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    out.writeInt(resident.size());
+                    for (Frame frame : resident) {
+                        out.writeLong(frame.pageNum);
+                        out.writeInt(frame.hits);
+                    }
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new PageException(e);
+            }
+        }
+    }
+
+    /**
+     * Starts loading the pages saved in the warm-up file back into the buffer pool (unpinned)
+     * in a background thread, so that the buffer pool can be used while it is warmed up. If
+     * more pages were saved than there are frames, the most fetched pages are loaded. Pages
+     * are loaded in page number order, in batches read with as few reads as possible, and
+     * only into free frames: preloading stops once every frame is in use, so it never evicts
+     * pages loaded in the meantime. Pages already loaded, or no longer allocated, are skipped.
+     *
+     * @return future completing once preloading is done (immediately, if there is no warm-up file)
+     */
+    public CompletableFuture<Void> preloadResidentPages() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (this.warmupSignal) {
+            Path file = this.warmupFile;
+            if (file == null || !Files.exists(file) || this.closed) {
+                done.complete(null);
+                return done;
+            }
+            Thread loader = new Thread(() -> {
+                try {
+                    this.preload(file);
+                    done.complete(null);
+                } catch (Throwable e) {
+                    done.completeExceptionally(e);
+                }
+            }, "buffer-warmup");
+            loader.setDaemon(true);
+            this.warmupLoad = done;
+            loader.start();
+        }
+        return done;
+    }
+
+    // Main loop of the thread periodically saving the resident page set.
+    private void runWarmupSaver() {
+        while (true) {
+            synchronized (this.warmupSignal) {
+                if (this.warmupSaver != Thread.currentThread()) {
+                    return;
+                }
+                try {
+                    this.warmupSignal.wait(this.warmupSaveIntervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (this.warmupSaver != Thread.currentThread()) {
+                    return;
+                }
+            }
+            try {
+                this.saveResidentPages();
+            } catch (PageException e) {
+                // try again next time
+            }
+        }
+    }
+
+    /**
+     * Loads the pages saved in a warm-up file (see preloadResidentPages).
+     *
+     * @param file warm-up file
+     */
+    private void preload(Path file) throws IOException {
+        List<long[]> pages = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            int numPages = in.readInt();
+            for (int i = 0; i < numPages; ++i) {
+                pages.add(new long[] {in.readLong(), in.readInt()});
+            }
+        }
+        if (pages.size() > this.frames.length) {
+            pages.sort(Comparator.comparingLong((long[] page) -> page[1]).reversed());
+            pages = new ArrayList<>(pages.subList(0, this.frames.length));
+        }
+        pages.sort(Comparator.comparingLong((long[] page) -> page[0]));
+
+        for (int start = 0; start < pages.size(); start += WARMUP_BATCH_PAGES) {
+            List<Pair<Frame, Frame>> claimed = new ArrayList<>();
+            boolean full;
+            this.managerLock.lock();
+            try {
+                if (this.closed) {
+                    return;
+                }
+                int end = Math.min(pages.size(), start + WARMUP_BATCH_PAGES);
+                for (long[] page : pages.subList(start, end)) {
+                    if (this.firstFreeIndex >= this.frames.length) {
+                        break;
+                    }
+                    if (this.pageToFrame.containsKey(page[0]) || !this.isPageAllocated(page[0])) {
+                        continue;
+                    }
+                    Pair<Frame, Frame> pair = this.claimFrame(page[0], null);
+                    pair.getFirst().hits = (int) page[1];
+                    claimed.add(pair);
+                }
+                full = this.firstFreeIndex >= this.frames.length;
+            } finally {
+                this.managerLock.unlock();
+            }
+            CompletableFuture<Void> loading = this.loadClaimed(claimed);
+            if (loading != null) {
+                try {
+                    loading.join();
+                } catch (CompletionException e) {
+                    // frames whose read failed are dropped the next time their page is fetched
+                }
+            }
+            if (full) {
+                return;
+            }
+        }
+    }
+
+    // Whether a page is allocated, treating pages of partitions that no longer exist as unallocated.
+    private boolean isPageAllocated(long pageNum) {
+        try {
+            return this.diskSpaceManager.pageAllocated(pageNum);
+        } catch (NoSuchElementException | PageException e) {
+            return false;
+        }
     }
 
     public static boolean logIOs;
@@ -626,7 +1908,7 @@ public class BufferManager implements AutoCloseable {
                 }
             }
         }
-        ++numIOs;
+        numIOs.incrementAndGet();
     }
 
     /**
@@ -0,0 +1,205 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.*;
+
+/**
+ * Snapshot of the buffer manager's counters (see BufferManager#getStats). Counters start
+ * at 0 when the buffer manager is created, and are never reset: to measure a workload,
+ * take a snapshot before and after it and compare them.
+ *
+ * Counters are updated without any locks, so a snapshot taken while the buffer manager
+ * is in use may be slightly inconsistent (e.g. a hit may be counted in the total but not
+ * yet in its partition).
+ */
+public class BufferStats {
+    /**
+     * What a page read or written belongs to.
+     */
+    public enum PageType {
+        TABLE, INDEX, LOG, TEMP
+    }
+
+    private final long hits;
+    private final long misses;
+    // partition number -> {hits, misses}
+    private final Map<Integer, long[]> partitionHits;
+    private final long cleanEvictions;
+    private final long dirtyEvictions;
+    private final long numPins;
+    private final long totalPinNanos;
+    private final int framesPinned;
+    private final int bufferSize;
+    private final long[] reads;
+    private final long[] writes;
+
+    BufferStats(long hits, long misses, Map<Integer, long[]> partitionHits, long cleanEvictions,
+                long dirtyEvictions, long numPins, long totalPinNanos, int framesPinned,
+                int bufferSize, long[] reads, long[] writes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.partitionHits = partitionHits;
+        this.cleanEvictions = cleanEvictions;
+        this.dirtyEvictions = dirtyEvictions;
+        this.numPins = numPins;
+        this.totalPinNanos = totalPinNanos;
+        this.framesPinned = framesPinned;
+        this.bufferSize = bufferSize;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    /**
+     * @return number of page fetches that found the page already loaded
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return number of page fetches that had to load the page
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return fraction of page fetches that were hits (0 if there were no fetches)
+     */
+    public double getHitRatio() {
+        return ratio(this.hits, this.misses);
+    }
+
+    /**
+     * @return partitions with pages fetched, in order
+     */
+    public SortedSet<Integer> getPartitions() {
+        return new TreeSet<>(this.partitionHits.keySet());
+    }
+
+    /**
+     * @param partNum partition number
+     * @return number of fetches of pages in the partition that were hits
+     */
+    public long getHits(int partNum) {
+        return this.partitionHits.getOrDefault(partNum, new long[2])[0];
+    }
+
+    /**
+     * @param partNum partition number
+     * @return number of fetches of pages in the partition that were misses
+     */
+    public long getMisses(int partNum) {
+        return this.partitionHits.getOrDefault(partNum, new long[2])[1];
+    }
+
+    /**
+     * @param partNum partition number
+     * @return fraction of fetches of pages in the partition that were hits
+     */
+    public double getHitRatio(int partNum) {
+        return ratio(this.getHits(partNum), this.getMisses(partNum));
+    }
+
+    /**
+     * @return number of pages evicted that did not need to be written out
+     */
+    public long getCleanEvictions() {
+        return this.cleanEvictions;
+    }
+
+    /**
+     * @return number of pages evicted that had to be written out first
+     */
+    public long getDirtyEvictions() {
+        return this.dirtyEvictions;
+    }
+
+    /**
+     * @return number of times a page (handle) was unpinned
+     */
+    public long getNumPins() {
+        return this.numPins;
+    }
+
+    /**
+     * @return average time pages were pinned for, in nanoseconds, over the pins counted by
+     * getNumPins (pins still held are not counted)
+     */
+    public double getAveragePinNanos() {
+        return this.numPins == 0 ? 0 : (double) this.totalPinNanos / this.numPins;
+    }
+
+    /**
+     * @return number of frames pinned at the time of the snapshot
+     */
+    public int getFramesPinned() {
+        return this.framesPinned;
+    }
+
+    /**
+     * @return number of frames in the buffer at the time of the snapshot
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * @param type type of page
+     * @return number of pages of the type read from disk
+     */
+    public long getReads(PageType type) {
+        return this.reads[type.ordinal()];
+    }
+
+    /**
+     * @param type type of page
+     * @return number of pages of the type written to disk
+     */
+    public long getWrites(PageType type) {
+        return this.writes[type.ordinal()];
+    }
+
+    /**
+     * @return the statistics as (name, value) pairs, in a fixed order, e.g. for printing
+     */
+    public List<Map.Entry<String, String>> toList() {
+        List<Map.Entry<String, String>> list = new ArrayList<>();
+        list.add(entry("buffer_size", this.bufferSize));
+        list.add(entry("frames_pinned", this.framesPinned));
+        list.add(entry("hits", this.hits));
+        list.add(entry("misses", this.misses));
+        list.add(entry("hit_ratio", String.format("%.4f", this.getHitRatio())));
+        for (int partNum : this.getPartitions()) {
+            list.add(entry("hits.part" + partNum, this.getHits(partNum)));
+            list.add(entry("misses.part" + partNum, this.getMisses(partNum)));
+            list.add(entry("hit_ratio.part" + partNum, String.format("%.4f", this.getHitRatio(partNum))));
+        }
+        list.add(entry("clean_evictions", this.cleanEvictions));
+        list.add(entry("dirty_evictions", this.dirtyEvictions));
+        list.add(entry("pins", this.numPins));
+        list.add(entry("avg_pin_micros", String.format("%.3f", this.getAveragePinNanos() / 1000)));
+        for (PageType type : PageType.values()) {
+            String name = type.name().toLowerCase();
+            list.add(entry("reads." + name, this.getReads(type)));
+            list.add(entry("writes." + name, this.getWrites(type)));
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : this.toList()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static Map.Entry<String, String> entry(String name, Object value) {
+        return new AbstractMap.SimpleImmutableEntry<>(name, String.valueOf(value));
+    }
+
+    private static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+}
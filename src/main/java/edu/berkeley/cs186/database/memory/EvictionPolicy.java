@@ -18,7 +18,8 @@ public interface EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager was resized since the last call)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
@@ -0,0 +1,179 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Implementation of the LRU-K eviction policy (O'Neil, O'Neil and Weikum), which
+ * evicts the page whose K-th most recent reference is furthest in the past. Pages
+ * referenced fewer than K times are evicted first (least recently used first), so
+ * pages read once by a sequential scan do not push out pages that are used repeatedly.
+ *
+ * Time is logical: every reference to a frame is one tick. A reference made within the
+ * correlated reference period of the last reference to the same frame (e.g. reading every
+ * record off a page, interleaved with reads of the page directory) is correlated with it,
+ * and does not count as a new reference. Frames still within their correlated reference
+ * period are only evicted if nothing else can be. The reference history of evicted pages is
+ * retained for a while (for as many pages as there are frames), so that a page that is
+ * evicted and quickly brought back in is not mistaken for a page seen for the first time.
+ *
+ * Hits may come from many threads at once, so every method is synchronized.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    private static final int DEFAULT_K = 2;
+    private static final int DEFAULT_CORRELATED_PERIOD = 10;
+
+    private int k;
+
+    // Number of ticks after a reference to a frame during which further references to it
+    // are correlated.
+    private int correlatedPeriod;
+
+    // Logical time, advanced on every reference.
+    private long clock;
+
+    // Frame most recently returned by evict.
+    private BufferFrame lastVictim;
+
+    // Reference history of evicted pages, keyed by page number, eldest eviction first.
+    private LinkedHashMap<Long, Tag> retained;
+    private int retainedLimit;
+
+    // Reference history of a frame: times of its last K uncorrelated references, most
+    // recent first, with 0 for references that never happened, and the time of its last
+    // reference (correlated or not).
+    private class Tag {
+        long[] history;
+        long last;
+
+        private Tag() {
+            this.history = new long[k];
+        }
+    }
+
+    public LRUKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k number of references to look back when picking a page to evict
+     */
+    public LRUKEvictionPolicy(int k) {
+        this(k, DEFAULT_CORRELATED_PERIOD);
+    }
+
+    /**
+     * @param k number of references to look back when picking a page to evict
+     * @param correlatedPeriod number of references (to any frame) after a reference to a
+     *                         frame during which further references to the frame are
+     *                         correlated with it
+     */
+    public LRUKEvictionPolicy(int k, int correlatedPeriod) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be positive");
+        }
+        if (correlatedPeriod < 0) {
+            throw new IllegalArgumentException("correlated reference period must not be negative");
+        }
+        this.k = k;
+        this.correlatedPeriod = correlatedPeriod;
+        this.clock = 0;
+        this.retained = new LinkedHashMap<>();
+        this.retainedLimit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        Tag tag = this.retained.remove(frame.getPageNum());
+        if (tag == null) {
+            tag = new Tag();
+        }
+        frame.tag = tag;
+        this.reference(tag);
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (frame.tag instanceof Tag) {
+            this.reference((Tag) frame.tag);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager was resized since the last call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.retainedLimit = frames.length;
+        BufferFrame victim = null;
+        Tag victimTag = null;
+        boolean victimCorrelated = false;
+        for (BufferFrame frame : frames) {
+            if (frame.isPinned() || !(frame.tag instanceof Tag)) {
+                continue;
+            }
+            Tag tag = (Tag) frame.tag;
+            boolean correlated = this.clock - tag.last <= this.correlatedPeriod;
+            // frames outside their correlated reference period go first; then, largest
+            // backward K-distance is the oldest K-th reference (infinite, i.e. 0, if there
+            // were fewer than K), with ties broken by the oldest last reference
+            if (victim == null || (victimCorrelated && !correlated) || (victimCorrelated == correlated
+                    && (tag.history[this.k - 1] < victimTag.history[this.k - 1]
+                        || (tag.history[this.k - 1] == victimTag.history[this.k - 1] && tag.last < victimTag.last)))) {
+                victim = frame;
+                victimTag = tag;
+                victimCorrelated = correlated;
+            }
+        }
+        if (victim == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        this.lastVictim = victim;
+        return victim;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        // only retain history of pages that were evicted, not ones that were freed
+        if (frame == this.lastVictim) {
+            this.retained.put(frame.getPageNum(), (Tag) frame.tag);
+            Iterator<Map.Entry<Long, Tag>> iter = this.retained.entrySet().iterator();
+            while (this.retained.size() > this.retainedLimit) {
+                iter.next();
+                iter.remove();
+            }
+            this.lastVictim = null;
+        }
+        frame.tag = null;
+    }
+
+    // Records a reference at the next logical time, as a new reference unless it is
+    // correlated with the last one.
+    private void reference(Tag tag) {
+        ++this.clock;
+        if (tag.last == 0 || this.clock - tag.last > this.correlatedPeriod) {
+            System.arraycopy(tag.history, 0, tag.history, 1, this.k - 1);
+            tag.history[0] = this.clock;
+        }
+        tag.last = this.clock;
+    }
+}
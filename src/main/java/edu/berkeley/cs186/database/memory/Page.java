@@ -19,6 +19,12 @@ public class Page {
     // buffer manager frame for this page's data (potentially invalidated)
     private BufferFrame frame;
 
+    // whether the frame was last pinned in shared mode (with pinShared)
+    private boolean shared;
+
+    // when the frame was last pinned through this handle (System.nanoTime), to time pins
+    private long pinnedAt;
+
     /**
      * Create a page handle with the given buffer frame
      *
@@ -26,8 +32,21 @@ public class Page {
      * @param frame the buffer manager frame for this page
      */
     Page(LockContext lockContext, BufferFrame frame) {
+        this(lockContext, frame, false);
+    }
+
+    /**
+     * Create a page handle with the given buffer frame
+     *
+     * @param lockContext the lock context
+     * @param frame the buffer manager frame for this page
+     * @param shared whether the frame is pinned in shared mode
+     */
+    Page(LockContext lockContext, BufferFrame frame, boolean shared) {
         this.lockContext = lockContext;
         this.frame = frame;
+        this.shared = shared;
+        this.pinnedAt = System.nanoTime();
     }
 
     /**
@@ -38,6 +57,8 @@ public class Page {
     protected Page(Page page) {
         this.lockContext = page.lockContext;
         this.frame = page.frame;
+        this.shared = page.shared;
+        this.pinnedAt = page.pinnedAt;
     }
 
     /**
@@ -134,17 +155,59 @@ public class Page {
     }
 
     /**
-     * Loads the page into a frame (if necessary) and pins it.
+     * Loads the page into a frame (if necessary) and pins it. The page is pinned in
+     * exclusive mode: other threads wait to pin it until it is unpinned.
      */
     public void pin() {
-        this.frame = this.frame.requestValidFrame();
+        this.frame = this.frame.requestValidFrame(false);
+        this.shared = false;
+        this.pinnedAt = System.nanoTime();
+    }
+
+    /**
+     * Loads the page into a frame (if necessary) and pins it in shared mode: other threads
+     * may pin the page in shared mode at the same time, but the page cannot be written to
+     * (and this thread cannot pin it in exclusive mode) until it is unpinned.
+     */
+    public void pinShared() {
+        this.frame = this.frame.requestValidFrame(true);
+        this.shared = true;
+        this.pinnedAt = System.nanoTime();
     }
 
     /**
-     * Unpins the frame containing this page. Does not flush immediately.
+     * Unpins the frame containing this page, in the mode it was last pinned in. Does not
+     * flush immediately.
      */
     public void unpin() {
-        this.frame.unpin();
+        this.frame.unpinned(System.nanoTime() - this.pinnedAt);
+        if (this.shared) {
+            this.frame.unpinShared();
+        } else {
+            this.frame.unpin();
+        }
+    }
+
+    /**
+     * Opens a write session on the page. Writes made in the session are not logged one at a
+     * time: when the session is committed, the range they touched is diffed against the page
+     * as it was before the session, and logged as one update record per changed region. This
+     * way, a sequence of small writes (e.g. writing a header field by field) takes one log
+     * record, instead of one or more per write.
+     *
+     * The page must stay pinned in exclusive mode for the whole session. Sessions may be
+     * nested, in which case only the outermost one logs when committed. Sessions still open
+     * when the page is last unpinned are committed then.
+     */
+    public void beginWrite() {
+        this.frame.beginWrite();
+    }
+
+    /**
+     * Commits a write session opened with beginWrite.
+     */
+    public void commitWrite() {
+        this.frame.commitWrite();
     }
 
     /**
@@ -0,0 +1,198 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Implementation of the (full) 2Q eviction policy, which is resistant to
+ * sequential scans flushing out frequently used pages.
+ *
+ * Pages brought in for the first time go into a FIFO queue (A1in), where they stay while
+ * their references come in bursts: a reference at most correlatedPeriod references (to
+ * any frame) after the previous one to the same page - as when a scan reads every record
+ * off a page, going back to the page directory in between - leaves the page where it is.
+ * A page in A1in that is referenced again after a longer gap moves to an LRU list of hot
+ * pages (Am). Pages evicted from A1in are remembered (by page number only) in a
+ * ghost queue (A1out); a page that is brought back in while it is still remembered there
+ * goes straight into Am. Evictions come from A1in while it holds more than its share of the
+ * buffer, and from the least recently used end of Am otherwise - so a scan only ever cycles
+ * through A1in, and leaves Am alone.
+ *
+ * Hits may come from many threads at once, so every method is synchronized.
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+    // Default fractions of the buffer used for A1in, and remembered by A1out,
+    // as suggested by Johnson and Shasha.
+    private static final double DEFAULT_IN_FRACTION = 0.25;
+    private static final double DEFAULT_OUT_FRACTION = 0.5;
+    private static final int DEFAULT_CORRELATED_PERIOD = 10;
+
+    private double inFraction;
+    private double outFraction;
+
+    // Number of ticks after a reference to a frame during which further references to it
+    // are correlated.
+    private int correlatedPeriod;
+
+    // Logical time, advanced on every reference.
+    private long clock;
+
+    // Frames seen once, in order of arrival.
+    private LinkedHashSet<BufferFrame> a1in;
+    // Page numbers recently evicted from A1in, in order of eviction.
+    private LinkedHashSet<Long> a1out;
+    // Frames referenced again after leaving A1in, least recently used first.
+    private LinkedHashSet<BufferFrame> am;
+
+    // Frame most recently returned by evict, and the size A1out is kept to.
+    private BufferFrame lastVictim;
+    private int outLimit;
+
+    // Queue a frame is in, and the time of its last reference.
+    private static class Tag {
+        boolean hot;
+        long last;
+
+        private Tag(boolean hot, long last) {
+            this.hot = hot;
+            this.last = last;
+        }
+    }
+
+    public TwoQEvictionPolicy() {
+        this(DEFAULT_IN_FRACTION, DEFAULT_OUT_FRACTION);
+    }
+
+    /**
+     * @param inFraction fraction of the buffer that A1in may use before it is evicted from
+     * @param outFraction number of evicted pages remembered in A1out, as a fraction of
+     *                    the number of frames in the buffer
+     */
+    public TwoQEvictionPolicy(double inFraction, double outFraction) {
+        this(inFraction, outFraction, DEFAULT_CORRELATED_PERIOD);
+    }
+
+    /**
+     * @param inFraction fraction of the buffer that A1in may use before it is evicted from
+     * @param outFraction number of evicted pages remembered in A1out, as a fraction of
+     *                    the number of frames in the buffer
+     * @param correlatedPeriod number of references (to any frame) after a reference to a
+     *                         frame during which further references to the frame are
+     *                         correlated with it
+     */
+    public TwoQEvictionPolicy(double inFraction, double outFraction, int correlatedPeriod) {
+        if (inFraction <= 0 || inFraction >= 1 || outFraction < 0) {
+            throw new IllegalArgumentException("invalid 2Q queue sizes");
+        }
+        if (correlatedPeriod < 0) {
+            throw new IllegalArgumentException("correlated reference period must not be negative");
+        }
+        this.inFraction = inFraction;
+        this.outFraction = outFraction;
+        this.correlatedPeriod = correlatedPeriod;
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        boolean hot = this.a1out.remove(frame.getPageNum());
+        if (hot) {
+            this.am.add(frame);
+        } else {
+            this.a1in.add(frame);
+        }
+        frame.tag = new Tag(hot, ++this.clock);
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (!(frame.tag instanceof Tag)) {
+            return;
+        }
+        Tag tag = (Tag) frame.tag;
+        ++this.clock;
+        if (tag.hot) {
+            this.am.remove(frame);
+            this.am.add(frame);
+        } else if (this.clock - tag.last > this.correlatedPeriod) {
+            this.a1in.remove(frame);
+            this.am.add(frame);
+            tag.hot = true;
+        }
+        tag.last = this.clock;
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager was resized since the last call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        BufferFrame victim = null;
+        if (this.a1in.size() > Math.max(1, (int) (this.inFraction * frames.length))) {
+            victim = firstUnpinned(this.a1in);
+        }
+        if (victim == null) {
+            victim = firstUnpinned(this.am);
+        }
+        if (victim == null) {
+            victim = firstUnpinned(this.a1in);
+        }
+        if (victim == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        this.lastVictim = victim;
+        this.outLimit = (int) (this.outFraction * frames.length);
+        return victim;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag instanceof Tag && ((Tag) frame.tag).hot) {
+            this.am.remove(frame);
+        } else {
+            this.a1in.remove(frame);
+            // only remember pages that were evicted, not ones that were freed
+            if (frame == this.lastVictim) {
+                this.a1out.add(frame.getPageNum());
+                Iterator<Long> iter = this.a1out.iterator();
+                while (this.a1out.size() > this.outLimit) {
+                    iter.next();
+                    iter.remove();
+                }
+            }
+        }
+        if (frame == this.lastVictim) {
+            this.lastVictim = null;
+        }
+        frame.tag = null;
+    }
+
+    private static BufferFrame firstUnpinned(Iterable<BufferFrame> queue) {
+        for (BufferFrame frame : queue) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.query;
 
+import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
@@ -479,10 +480,7 @@ public class QueryPlan {
         for (JoinPredicate predicate : joinPredicates) {
             this.finalOperator = new SNLJOperator(
                     finalOperator,
-                    new SequentialScanOperator(
-                            this.transaction,
-                            tableNames.get(pos)
-                    ),
+                    this.newSequentialScan(tableNames.get(pos)),
                     predicate.leftColumn,
                     predicate.rightColumn,
                     this.transaction
@@ -491,6 +489,52 @@ public class QueryPlan {
         }
     }
 
+    /**
+     * Creates a sequential scan operator over `table` that only reads the
+     * columns of the table used by this query (see getReferencedColumns).
+     */
+    private SequentialScanOperator newSequentialScan(String table) {
+        SequentialScanOperator scan = new SequentialScanOperator(this.transaction, table);
+        Set<String> columns = this.getReferencedColumns();
+        if (columns != null) {
+            scan.setReferencedColumns(columns);
+        }
+        return scan;
+    }
+
+    /**
+     * @return the names of the columns used anywhere in this query (in the
+     * SELECT, WHERE, INNER JOIN, GROUP BY and ORDER BY clauses), or null if
+     * every column is used (there is no SELECT clause, or it cannot be parsed)
+     */
+    private Set<String> getReferencedColumns() {
+        if (this.projectColumns.isEmpty()) return null;
+        Set<String> columns = new HashSet<>();
+        if (this.projectFunctions == null) {
+            for (String column: this.projectColumns) {
+                try {
+                    columns.addAll(Expression.fromString(column).getDependencies());
+                } catch (DatabaseException e) {
+                    return null;
+                }
+            }
+        } else {
+            for (Expression function: this.projectFunctions) {
+                columns.addAll(function.getDependencies());
+            }
+        }
+        for (SelectPredicate predicate: this.selectPredicates) {
+            columns.add(predicate.tableName + "." + predicate.column);
+        }
+        for (JoinPredicate predicate: this.joinPredicates) {
+            columns.add(predicate.leftColumn);
+            columns.add(predicate.rightColumn);
+        }
+        columns.addAll(this.groupByColumns);
+        if (this.sortColumn != null) columns.add(this.sortColumn);
+        return columns;
+    }
+
     public void addTempTableAlias(String tableName, String alias) {
         if (cteAliases.containsKey(alias)) {
             throw new UnsupportedOperationException("Duplicate alias " + alias);
@@ -574,7 +618,7 @@ public class QueryPlan {
      * minimum cost operator can be broken arbitrarily.
      */
     public QueryOperator minCostSingleAccess(String table) {
-        QueryOperator minOp = new SequentialScanOperator(this.transaction, table);
+        QueryOperator minOp = this.newSequentialScan(table);
 
         // TODO(proj3_part2): implement
         // Takes a table and return the optimal QueryOperator for scanning the table
@@ -851,10 +895,7 @@ public class QueryPlan {
             this.generateIndexPlanNaive(indexPredicate);
         } else {
             // start off with a scan on the first table
-            this.finalOperator = new SequentialScanOperator(
-                    this.transaction,
-                    this.tableNames.get(0)
-            );
+            this.finalOperator = this.newSequentialScan(this.tableNames.get(0));
 
             // add joins, selects, group by's and projects to our plan
             this.addJoinsNaive();
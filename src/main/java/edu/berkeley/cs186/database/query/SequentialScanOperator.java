@@ -6,11 +6,16 @@ import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 public class SequentialScanOperator extends QueryOperator {
     private TransactionContext transaction;
     private String tableName;
+    // indices of the columns of the table that are returned, or null to return all of them
+    private List<Integer> columns;
 
     /**
      * Creates a new SequentialScanOperator that provides an iterator on all
@@ -42,6 +47,33 @@ public class SequentialScanOperator extends QueryOperator {
         return this.tableName;
     }
 
+    /**
+     * Restricts the output of this scan to the columns named, in the order they
+     * have in the table: the schema, stats and records of the scan only have
+     * these columns, and only these are read from PAX tables (see
+     * Table#iterator(List, BufferAccessStrategy)). Names of columns of other
+     * tables are ignored.
+     *
+     * @param columnNames names of the columns that are used, qualified or not
+     */
+    public void setReferencedColumns(Collection<String> columnNames) {
+        Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < schema.size(); i++) {
+            for (String columnName : columnNames) {
+                if (schema.getFieldNames().get(i).equalsIgnoreCase(columnName) ||
+                        !columnName.contains(".") &&
+                        schema.getFieldNames().get(i).toLowerCase().endsWith("." + columnName.toLowerCase())) {
+                    columns.add(i);
+                    break;
+                }
+            }
+        }
+        this.columns = columns;
+        this.setOutputSchema(this.computeSchema());
+        this.stats = this.estimateStats();
+    }
+
     @Override
     public boolean isSequentialScan() {
         return true;
@@ -57,12 +89,23 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
+        if (this.columns != null) {
+            return this.transaction.getRecordIterator(tableName, columns);
+        }
         return this.transaction.getRecordIterator(tableName);
     }
 
     @Override
     public Schema computeSchema() {
-        return this.transaction.getFullyQualifiedSchema(this.tableName);
+        Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+        if (this.columns == null) {
+            return schema;
+        }
+        Schema projected = new Schema();
+        for (int column : this.columns) {
+            projected.add(schema.getFieldName(column), schema.getFieldType(column));
+        }
+        return projected;
     }
 
     @Override
@@ -72,7 +115,11 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public TableStats estimateStats() {
-        return this.transaction.getStats(this.tableName);
+        TableStats stats = this.transaction.getStats(this.tableName);
+        if (this.columns == null) {
+            return stats;
+        }
+        return stats.copyWithProjection(this.columns);
     }
 
     @Override
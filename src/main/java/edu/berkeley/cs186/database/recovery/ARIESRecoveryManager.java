@@ -490,6 +490,9 @@ public class ARIESRecoveryManager implements RecoveryManager {
         logManager.appendToLog(endRecord);
         // Ensure checkpoint is fully flushed before updating the master record
         flushToLSN(endRecord.getLSN());
+        // Pages flushed before the checkpoint may have been dropped from the DPT without
+        // being synced yet, so they must be durable before the checkpoint is
+        diskSpaceManager.syncAll();
 
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
@@ -0,0 +1,109 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * In-memory map of the free space of the data pages of a page directory, so that a data page
+ * with enough free space can be found without scanning every header page.
+ *
+ * Every data page entry of the page directory is identified by its position in the directory
+ * (header page index * entries per header page + slot in the header page), and maps to the free
+ * space of its data page, or UNUSED if no data page is allocated in the slot. The free space of
+ * the entries is kept in a max-tree (a complete binary tree where every node holds the largest
+ * value of its children), so that the first entry with at least some amount of free space can
+ * be found, and an entry updated, in O(log n) time; unused entries are kept in a sorted set.
+ *
+ * The map is not persisted: it is rebuilt from the header pages when the page directory is
+ * loaded, so it always starts out consistent with what was logged and recovered. It is only
+ * a hint afterwards (e.g. a rollback may change a header page behind the page directory's back),
+ * so the page directory checks every entry it picks against its header page, and corrects the
+ * map when they disagree.
+ *
+ * The map is shared by all threads using the page directory, so its methods are synchronized.
+ */
+class FreeSpaceMap {
+    // free space of an entry with no data page
+    static final short UNUSED = -1;
+
+    // max-tree: node i has children 2i and 2i+1, and the entries are the leaves, starting
+    // at index capacity (node 0 is not used)
+    private short[] tree;
+    private int capacity;
+
+    // positions of the unused entries
+    private TreeSet<Integer> unused;
+
+    FreeSpaceMap() {
+        this.capacity = 1;
+        this.tree = new short[] {UNUSED, UNUSED};
+        this.unused = new TreeSet<>();
+    }
+
+    /**
+     * @param entry position of a data page entry
+     * @param freeSpace free space of the entry's data page, or UNUSED
+     */
+    synchronized void set(int entry, short freeSpace) {
+        if (entry >= this.capacity) {
+            this.grow(entry + 1);
+        }
+        if (freeSpace == UNUSED) {
+            this.unused.add(entry);
+        } else {
+            this.unused.remove(entry);
+        }
+        int node = entry + this.capacity;
+        this.tree[node] = freeSpace;
+        for (node /= 2; node >= 1; node /= 2) {
+            this.tree[node] = (short) Math.max(this.tree[2 * node], this.tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * @param entry position of a data page entry
+     * @return free space of the entry's data page, or UNUSED
+     */
+    synchronized short get(int entry) {
+        return entry < this.capacity ? this.tree[entry + this.capacity] : UNUSED;
+    }
+
+    /**
+     * @param requiredSpace amount of free space needed (positive)
+     * @return position of the first entry whose data page has at least requiredSpace bytes
+     * free, or -1 if there is none
+     */
+    synchronized int findSpace(short requiredSpace) {
+        if (this.tree[1] < requiredSpace) {
+            return -1;
+        }
+        int node = 1;
+        while (node < this.capacity) {
+            node = this.tree[2 * node] >= requiredSpace ? 2 * node : 2 * node + 1;
+        }
+        return node - this.capacity;
+    }
+
+    /**
+     * @return position of the first unused entry, or -1 if there is none
+     */
+    synchronized int findUnused() {
+        return this.unused.isEmpty() ? -1 : this.unused.first();
+    }
+
+    // grows the tree to fit at least numEntries entries, and rebuilds the inner nodes
+    private void grow(int numEntries) {
+        int newCapacity = this.capacity;
+        while (newCapacity < numEntries) {
+            newCapacity *= 2;
+        }
+        short[] newTree = new short[2 * newCapacity];
+        Arrays.fill(newTree, UNUSED);
+        System.arraycopy(this.tree, this.capacity, newTree, newCapacity, this.capacity);
+        for (int node = newCapacity - 1; node >= 1; --node) {
+            newTree[node] = (short) Math.max(newTree[2 * node], newTree[2 * node + 1]);
+        }
+        this.tree = newTree;
+        this.capacity = newCapacity;
+    }
+}
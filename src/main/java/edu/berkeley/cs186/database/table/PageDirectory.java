@@ -11,11 +11,15 @@ import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * An implementation of a heap file, using a page directory. Assumes data pages are packed (but record
@@ -38,6 +42,23 @@ import java.util.Random;
  *
  * The page directory id is a randomly generated 32-bit integer used to help detect bugs (where we attempt
  * to write to a page that is not managed by the page directory).
+ *
+ * By default, the page directory grows by one data page at a time. With setExtentSize, it instead grows by
+ * extents of several data pages allocated together (contiguously on disk, when possible); the pages of an
+ * extent not needed yet are recorded in the header page as empty data pages.
+ *
+ * The free space of every data page is also kept in memory, in a FreeSpaceMap built when the page directory
+ * is loaded, so that finding a data page with enough free space for an insert takes O(log n) time, and only
+ * pins the one header page whose entry is updated, instead of scanning the chain of header pages.
+ *
+ * Data pages can be loaded through a BufferAccessStrategy, either for every access to the page directory
+ * (setAccessStrategy), or for a single scan (iterator(BufferAccessStrategy)), so that touching many data
+ * pages once does not evict the rest of the buffer pool. Header pages are always loaded normally.
+ *
+ * A page directory may be used by several threads at once. Data pages and header pages are latched by
+ * pinning them (exclusively to write, or with getPageShared to only read a data page), and a thread
+ * never latches a data page while it holds a header page latch (except for new data pages, which no
+ * other thread can reach yet), so a data page can be held while its free space is updated.
  */
 public class PageDirectory implements BacktrackingIterable<Page> {
     // size of the header in header pages
@@ -64,6 +85,12 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // First header page
     private HeaderPage firstHeader;
 
+    // All header pages, in order (new ones are added under its monitor)
+    private List<HeaderPage> headerPages = new CopyOnWriteArrayList<>();
+
+    // Free space of the data pages, by data page entry (see entryPosition)
+    private FreeSpaceMap freeSpaceMap = new FreeSpaceMap();
+
     // Size of metadata of an empty data page.
     private short emptyPageMetadataSize;
 
@@ -73,6 +100,12 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // page directory id
     private int pageDirectoryId;
 
+    // number of data pages to allocate at a time
+    private int extentSize = 1;
+
+    // access strategy to load data pages with, or null to load them normally
+    private BufferAccessStrategy accessStrategy = null;
+
     /**
      * Creates a new heap file, or loads existing file if one already
      * exists at partNum.
@@ -100,8 +133,48 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
+    /**
+     * Sets the number of data pages to allocate whenever the page directory runs out of
+     * space. Allocating larger extents keeps the data pages of the heap file contiguous on
+     * disk, at the cost of allocating pages before they are needed. An extent never spans
+     * header pages, so it may be smaller than this when a header page is nearly full.
+     * @param extentSize number of data pages per extent (1 to allocate one page at a time)
+     */
+    public void setExtentSize(int extentSize) {
+        if (extentSize <= 0) {
+            throw new IllegalArgumentException("extent size must be positive");
+        }
+        this.extentSize = extentSize;
+    }
+
+    /**
+     * Sets the access strategy used to load data pages, whether they are fetched directly,
+     * found for an insert, or scanned.
+     * @param accessStrategy access strategy, or null to load data pages normally
+     */
+    public void setAccessStrategy(BufferAccessStrategy accessStrategy) {
+        this.accessStrategy = accessStrategy;
+    }
+
+    /**
+     * @return access strategy used to load data pages, or null if they are loaded normally
+     */
+    public BufferAccessStrategy getAccessStrategy() {
+        return this.accessStrategy;
+    }
+
     public Page getPage(long pageNum) {
-        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum));
+        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum, accessStrategy));
+    }
+
+    /**
+     * Loads a data page to read it only: the page is pinned in shared mode (see Page#pinShared),
+     * so that other threads can read it at the same time.
+     * @param pageNum page number of the data page
+     * @return the data page
+     */
+    public Page getPageShared(long pageNum) {
+        return new DataPage(pageDirectoryId, this.bufferManager.fetchPageShared(lockContext, pageNum));
     }
 
     public Page getPageWithSpace(short requiredSpace) {
@@ -112,7 +185,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             throw new IllegalArgumentException("requesting page with more space than the size of the page");
         }
 
-        Page page = this.firstHeader.loadPageWithSpace(requiredSpace);
+        Page page = this.loadPageWithSpace(requiredSpace);
         LockContext pageContext = lockContext.childContext(page.getPageNum());
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
@@ -121,7 +194,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     }
 
     public void updateFreeSpace(Page page, short newFreeSpace) {
-        if (newFreeSpace <= 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        if (newFreeSpace < 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
             throw new IllegalArgumentException("bad size for data page free space");
         }
 
@@ -137,16 +210,59 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             page.unpin();
         }
 
-        HeaderPage headerPage = firstHeader;
-        for (int i = 0; i < headerIndex; ++i) {
-            headerPage = headerPage.nextPage;
-        }
-        headerPage.updateSpace(page, offset, newFreeSpace);
+        headerPages.get(headerIndex).updateSpace(page, offset, newFreeSpace);
     }
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        return this.iterator(accessStrategy);
+    }
+
+    /**
+     * @param strategy access strategy to load the data pages of this scan with, or null to
+     *                 load them normally
+     * @return iterator over the data pages
+     */
+    public BacktrackingIterator<Page> iterator(BufferAccessStrategy strategy) {
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(strategy));
+    }
+
+    // gets and loads the first data page with the required free space, allocating one if
+    // there is none: the first data page in a header page, or an unused slot in it, is used
+    private Page loadPageWithSpace(short requiredSpace) {
+        while (true) {
+            int entry = freeSpaceMap.findSpace(requiredSpace);
+            int unusedEntry = freeSpaceMap.findUnused();
+            if (entry != -1 && (unusedEntry == -1 || entry / HEADER_ENTRY_COUNT <= unusedEntry / HEADER_ENTRY_COUNT)) {
+                HeaderPage headerPage = headerPages.get(entry / HEADER_ENTRY_COUNT);
+                Page page = headerPage.takeSpace((short) (entry % HEADER_ENTRY_COUNT), requiredSpace);
+                if (page != null) {
+                    return page;
+                }
+            } else {
+                if (unusedEntry == -1) {
+                    // no space or unused slot in any header page, make a new one (unless another
+                    // thread just did)
+                    synchronized (headerPages) {
+                        if (freeSpaceMap.findUnused() == -1) {
+                            headerPages.get(headerPages.size() - 1).addNewHeaderPage();
+                        }
+                    }
+                    continue;
+                }
+                HeaderPage headerPage = headerPages.get(unusedEntry / HEADER_ENTRY_COUNT);
+                Page page = headerPage.allocateDataPage((short) (unusedEntry % HEADER_ENTRY_COUNT), requiredSpace);
+                if (page != null) {
+                    return page;
+                }
+            }
+            // the free space map was out of date (and has been corrected), try again
+        }
+    }
+
+    // position of a data page entry in the free space map
+    private static int entryPosition(int headerOffset, short slot) {
+        return headerOffset * HEADER_ENTRY_COUNT + slot;
     }
 
     public int getNumDataPages() {
@@ -235,7 +351,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
      * Represents a single header page.
      */
     private class HeaderPage implements BacktrackingIterable<Page> {
-        private HeaderPage nextPage;
+        private volatile HeaderPage nextPage;
         private Page page;
         private short numDataPages;
         private int headerOffset;
@@ -249,6 +365,8 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             // data page, which is perfectly fine.
             this.page.disableLocking();
             this.numDataPages = 0;
+            this.headerOffset = headerOffset;
+            headerPages.add(this);
             long nextPageNum;
             try {
                 Buffer pageBuffer = this.page.getBuffer();
@@ -261,8 +379,9 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     }
                     b.position(0).put((byte) 1).putInt(pageDirectoryId).putLong(DiskSpaceManager.INVALID_PAGE_NUM);
                     DataPageEntry invalidPageEntry = new DataPageEntry();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
                         invalidPageEntry.toBytes(b);
+                        freeSpaceMap.set(entryPosition(headerOffset, i), FreeSpaceMap.UNUSED);
                     }
                     nextPageNum = -1L;
 
@@ -275,17 +394,17 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         throw new PageException("header page page directory id does not match");
                     }
                     nextPageNum = pageBuffer.getLong();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(pageBuffer);
                         if (dpe.isValid()) {
                             ++this.numDataPages;
                         }
+                        freeSpaceMap.set(entryPosition(headerOffset, i), dpe.isValid() ? dpe.freeSpace : FreeSpaceMap.UNUSED);
                     }
                 }
             } finally {
                 this.page.unpin();
             }
-            this.headerOffset = headerOffset;
             if (nextPageNum == DiskSpaceManager.INVALID_PAGE_NUM) {
                 this.nextPage = null;
             } else {
@@ -293,79 +412,162 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             }
         }
 
-        // add a new header page
+        // add a new header page after this one, which must be the last one
         private void addNewHeaderPage() {
-            if (this.nextPage != null) {
-                this.nextPage.addNewHeaderPage();
-                return;
-            }
             Page page = bufferManager.fetchNewPage(lockContext, partNum);
             this.page.pin();
             try {
                 this.nextPage = new HeaderPage(page.getPageNum(), headerOffset + 1, false);
-                this.page.getBuffer().position(1).putLong(page.getPageNum());
+                this.page.getBuffer().position(5).putLong(page.getPageNum()); // skip valid byte and page directory id
             } finally {
                 this.page.unpin();
                 page.unpin();
             }
         }
 
-        // gets and loads a page with the required free space
-        private Page loadPageWithSpace(short requiredSpace) {
+        // reserves the required free space on the data page in the given slot, and loads it -
+        // returns null if the data page does not have the space after all
+        private Page takeSpace(short slot, short requiredSpace) {
+            // the data page is loaded before the header page is latched (see class comment), so
+            // the entry is checked again once both are held
+            long pageNum = this.readEntry(slot).pageNum;
+            Page dataPage = null;
+            if (pageNum != DiskSpaceManager.INVALID_PAGE_NUM) {
+                try {
+                    dataPage = bufferManager.fetchPage(lockContext, pageNum, accessStrategy);
+                } catch (PageException e) {
+                    // freed in the meantime
+                }
+            }
+
+            this.page.pin();
+            this.page.beginWrite();
+            try {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * slot);
+                DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                if (dataPage == null || dpe.pageNum != pageNum || dpe.freeSpace < requiredSpace) {
+                    this.updateMap(slot, dpe);
+                    if (dataPage != null) {
+                        dataPage.unpin();
+                    }
+                    return null;
+                }
+                dpe.freeSpace -= requiredSpace;
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * slot);
+                dpe.toBytes(b);
+                this.updateMap(slot, dpe);
+
+                return dataPage;
+            } finally {
+                this.page.commitWrite();
+                this.page.unpin();
+            }
+        }
+
+        // reads the data page entry in the given slot
+        private DataPageEntry readEntry(int slot) {
             this.page.pin();
             try {
                 Buffer b = this.page.getBuffer();
-                b.position(HEADER_HEADER_SIZE);
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * slot);
+                return DataPageEntry.fromBytes(b);
+            } finally {
+                this.page.unpin();
+            }
+        }
 
-                // if we have any data page managed by this header page with enough space, return it
-                short unusedSlot = -1;
-                for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
-                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    if (!dpe.isValid()) {
-                        if (unusedSlot == -1) {
-                            unusedSlot = i;
-                        }
-                        continue;
-                    }
-                    if (dpe.freeSpace >= requiredSpace) {
-                        dpe.freeSpace -= requiredSpace;
-                        b.position(b.position() - DataPageEntry.SIZE);
-                        dpe.toBytes(b);
+        // allocates a new data page (or extent) in the given unused slot, and loads it,
+        // reserving the required free space on it - returns null if the slot is in use after all
+        private Page allocateDataPage(short unusedSlot, short requiredSpace) {
+            this.page.pin();
+            this.page.beginWrite();
+            try {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
+                DataPageEntry current = DataPageEntry.fromBytes(b);
+                if (current.isValid()) {
+                    this.updateMap(unusedSlot, current);
+                    return null;
+                }
 
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum);
-                    }
+                if (extentSize > 1) {
+                    return this.addExtent(unusedSlot, requiredSpace);
                 }
+                Page page = bufferManager.fetchNewPage(lockContext, partNum, accessStrategy);
+                DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
+                                                      (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
 
-                // if we have any unused slot in this header page, allocate a new data page
-                if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum);
-                    DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
-                                                          (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
+                dpe.toBytes(b);
+                this.updateMap(unusedSlot, dpe);
 
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
-                    dpe.toBytes(b);
+                writeDataPageHeader(page, unusedSlot);
 
-                    page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(unusedSlot);
+                ++this.numDataPages;
+                return page;
+            } finally {
+                this.page.commitWrite();
+                this.page.unpin();
+            }
+        }
 
-                    ++this.numDataPages;
-                    return page;
+        // records the data page entry in the given slot in the free space map
+        private void updateMap(short slot, DataPageEntry dpe) {
+            freeSpaceMap.set(entryPosition(headerOffset, slot), dpe.isValid() ? dpe.freeSpace : FreeSpaceMap.UNUSED);
+        }
+
+        // allocates an extent of new data pages into unused slots, starting at firstUnusedSlot, and
+        // loads the first one, reserving requiredSpace on it - must be called with this header page pinned
+        private Page addExtent(short firstUnusedSlot, short requiredSpace) {
+            Buffer b = this.page.getBuffer();
+            List<Short> slots = new ArrayList<>();
+            for (short i = firstUnusedSlot; i < HEADER_ENTRY_COUNT && slots.size() < extentSize; ++i) {
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * i);
+                if (!DataPageEntry.fromBytes(b).isValid()) {
+                    slots.add(i);
                 }
+            }
 
-                // if we have no next header page, make one
-                if (this.nextPage == null) {
-                    this.addNewHeaderPage();
+            long[] pageNums = bufferManager.allocPages(partNum, slots.size());
+            Page firstPage = null;
+            for (int i = 0; i < pageNums.length; ++i) {
+                short slot = slots.get(i);
+                short freeSpace = (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize);
+                if (i == 0) {
+                    freeSpace -= requiredSpace;
+                }
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * slot);
+                DataPageEntry dpe = new DataPageEntry(pageNums[i], freeSpace);
+                dpe.toBytes(b);
+                this.updateMap(slot, dpe);
+
+                Page page = bufferManager.fetchPage(lockContext, pageNums[i], accessStrategy);
+                writeDataPageHeader(page, slot);
+                ++this.numDataPages;
+                if (i == 0) {
+                    firstPage = page;
+                } else {
+                    page.unpin();
                 }
+            }
+            return firstPage;
+        }
 
-                // no space on this header page, try next one
-                return this.nextPage.loadPageWithSpace(requiredSpace);
+        // writes the header of a new data page, which is in the given slot of this header page
+        private void writeDataPageHeader(Page page, short slot) {
+            page.beginWrite();
+            try {
+                page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(slot);
             } finally {
-                this.page.unpin();
+                page.commitWrite();
             }
         }
 
         // updates free space
         private void updateSpace(Page dataPage, short index, short newFreeSpace) {
             this.page.pin();
+            this.page.beginWrite();
             try {
                 if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
                     // write new free space to disk
@@ -375,27 +577,34 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     dpe.freeSpace = newFreeSpace;
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     dpe.toBytes(b);
+                    this.updateMap(index, dpe);
                 } else {
                     // the entire page is free; free it
                     Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
-                    (new DataPageEntry()).toBytes(b);
+                    DataPageEntry dpe = new DataPageEntry();
+                    dpe.toBytes(b);
+                    this.updateMap(index, dpe);
                     bufferManager.freePage(dataPage);
                 }
             } finally {
+                this.page.commitWrite();
                 this.page.unpin();
             }
         }
 
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return new HeaderPageIterator(accessStrategy);
         }
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
+            private BufferAccessStrategy strategy;
+
+            private HeaderPageIterator(BufferAccessStrategy strategy) {
                 super(HEADER_ENTRY_COUNT);
+                this.strategy = strategy;
             }
 
             @Override
@@ -418,15 +627,8 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
             @Override
             protected Page getValue(int index) {
-                HeaderPage.this.page.pin();
-                try {
-                    Buffer b = HeaderPage.this.page.getBuffer();
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
-                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
-                } finally {
-                    HeaderPage.this.page.unpin();
-                }
+                DataPageEntry dpe = HeaderPage.this.readEntry(index);
+                return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum, strategy));
             }
         }
     }
@@ -438,11 +640,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private HeaderPage nextPage;
         private HeaderPage prevPage;
         private HeaderPage markedPage;
+        private BufferAccessStrategy strategy;
 
-        private HeaderPageIterator() {
+        private HeaderPageIterator(BufferAccessStrategy strategy) {
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
+            this.strategy = strategy;
         }
 
         @Override
@@ -451,14 +655,14 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            return () -> next.new HeaderPageIterator(strategy);
         }
 
         @Override
@@ -2,10 +2,12 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,6 +51,34 @@ public class Record {
         return byteBuffer.array();
     }
 
+    /**
+     * Serializes this record into a byte array with variable-length strings: each string
+     * is stored as its length (2 bytes) followed by its characters, without padding. All
+     * other values are stored as in toBytes.
+     */
+    public byte[] toVariableLengthBytes(Schema schema) {
+        int size = 0;
+        byte[][] bytes = new byte[values.size()][];
+        for (int i = 0; i < values.size(); ++i) {
+            DataBox value = values.get(i);
+            if (value.getTypeId() == TypeId.STRING) {
+                bytes[i] = value.getString().getBytes(Charset.forName("ascii"));
+                size += Short.BYTES;
+            } else {
+                bytes[i] = value.toBytes();
+            }
+            size += bytes[i].length;
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < values.size(); ++i) {
+            if (values.get(i).getTypeId() == TypeId.STRING) {
+                byteBuffer.putShort((short) bytes[i].length);
+            }
+            byteBuffer.put(bytes[i]);
+        }
+        return byteBuffer.array();
+    }
+
     /**
      * Returns a new records consisting of this record's values with the other record's
      * values appended to the right of it. i.e. if record a contains [1,2,3] and record b
@@ -76,6 +106,28 @@ public class Record {
         return new Record(values);
     }
 
+    /**
+     * Takes a byte[] written by toVariableLengthBytes and decodes it into a Record. This
+     * method assumes that the input byte[] represents a record that corresponds to this schema.
+     *
+     * @param buf the byte array to decode
+     * @param schema the schema used for this record
+     * @return the decoded Record
+     */
+    public static Record fromVariableLengthBytes(Buffer buf, Schema schema) {
+        List<DataBox> values = new ArrayList<>();
+        for (Type t : schema.getFieldTypes()) {
+            if (t.getTypeId() == TypeId.STRING) {
+                byte[] bytes = new byte[buf.getShort()];
+                buf.get(bytes);
+                values.add(new StringDataBox(new String(bytes, Charset.forName("ascii")), t.getSizeInBytes()));
+            } else {
+                values.add(DataBox.fromBytes(buf, t));
+            }
+        }
+        return new Record(values);
+    }
+
     /**
      * @return the number of values in this record
      */
@@ -0,0 +1,318 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.Arrays;
+
+/**
+ * A data page of a table stored in the slotted page format (see Table.RecordFormat), where
+ * records are variable-length.
+ *
+ * A slotted page begins with a 4-byte header: the number of slots (2 bytes), and the offset
+ * where the record area starts (2 bytes; 0 if the page holds no records). The header is
+ * followed by the slot directory, with a 4-byte slot for each record: the offset of the record
+ * in the page (0 for an empty slot) and its length. Records are stored from the end of the
+ * page towards the slot directory, so that both can grow into the free space in between:
+ *
+ *   +--------+--------+--------+--------+--------------------+----------+----------+
+ *   | header | slot 0 | slot 1 | slot 2 | free space ->      | record 2 | record 0 |
+ *   +--------+--------+--------+--------+--------------------+----------+----------+
+ *
+ * (slot 1 is empty). The slot number of a record is the entry number of its record id, and
+ * never changes: records are moved around within the page (e.g. to compact the page when
+ * deleted records leave holes) by updating their slot.
+ *
+ * Each record starts with a flag byte:
+ * - NORMAL: the record's values follow (see Record#toVariableLengthBytes).
+ * - FORWARD: the record grew too large for its page when it was updated, and was moved to
+ *   another page; the record id of where it is now follows.
+ * - MOVED: the record was moved here from another page, and is only reachable through the
+ *   forwarding record on its original page (so scans skip it).
+ * Records are padded to at least FORWARD_SIZE bytes, so that a record can always be replaced
+ * by a forwarding record in place.
+ *
+ * Slotted pages are only accessed by a Table, which does all of its writes to a page in a
+ * write session (see Page#beginWrite), so that writing a record and its slot is logged together.
+ */
+class SlottedPage {
+    static final short HEADER_SIZE = 4;
+    static final short SLOT_SIZE = 4;
+
+    static final byte NORMAL = 0;
+    static final byte FORWARD = 1;
+    static final byte MOVED = 2;
+
+    // size of a forwarding record: flag and record id
+    static final short FORWARD_SIZE = 1 + Long.BYTES + Short.BYTES;
+
+    private final Page page;
+    private final short pageSize;
+    private int numSlots;
+    // offset of the start of the record area (pageSize if there are no records)
+    private int dataStart;
+    private int[] offsets;
+    private int[] lengths;
+
+    /**
+     * Loads the header and slot directory of a slotted page. The page must be pinned while
+     * this object is used.
+     *
+     * @param page data page
+     * @param pageSize size of the data page
+     */
+    SlottedPage(Page page, short pageSize) {
+        this.page = page;
+        this.pageSize = pageSize;
+        Buffer b = page.getBuffer();
+        this.numSlots = b.getShort();
+        int start = b.getShort();
+        this.dataStart = start == 0 ? pageSize : start;
+        byte[] slots = new byte[this.numSlots * SLOT_SIZE];
+        b.get(slots);
+        Buffer slotBuffer = ByteBuffer.wrap(slots);
+        this.offsets = new int[this.numSlots];
+        this.lengths = new int[this.numSlots];
+        for (int i = 0; i < this.numSlots; ++i) {
+            this.offsets[i] = slotBuffer.getShort();
+            this.lengths[i] = slotBuffer.getShort();
+        }
+    }
+
+    /**
+     * @param slot slot number
+     * @return the record in the slot (starting with its flag), or null if there is none
+     */
+    byte[] read(int slot) {
+        if (slot < 0 || slot >= this.numSlots || this.offsets[slot] == 0) {
+            return null;
+        }
+        byte[] stored = new byte[this.lengths[slot]];
+        this.page.getBuffer().position(this.offsets[slot]).get(stored);
+        return stored;
+    }
+
+    /**
+     * @return number of slots in the slot directory (empty slots at the end are not counted)
+     */
+    int getNumSlots() {
+        return this.numSlots;
+    }
+
+    /**
+     * @return number of bytes of the page not used by records or slots (whether or not they
+     * are contiguous)
+     */
+    short getFreeSpace() {
+        int free = this.pageSize - HEADER_SIZE - this.numSlots * SLOT_SIZE;
+        for (int i = 0; i < this.numSlots; ++i) {
+            free -= this.lengths[i];
+        }
+        return (short) free;
+    }
+
+    /**
+     * Adds a record to the page, in the first empty slot (or a new slot). The page must have
+     * space for the record and a new slot.
+     *
+     * @param stored record (starting with its flag)
+     * @return slot number of the record
+     */
+    int insert(byte[] stored) {
+        int slot = 0;
+        while (slot < this.numSlots && this.offsets[slot] != 0) {
+            ++slot;
+        }
+        if (slot == this.numSlots) {
+            if (this.getFreeSpace() < stored.length + SLOT_SIZE) {
+                throw new DatabaseException("not enough space on page for record");
+            }
+            ++this.numSlots;
+            this.offsets = Arrays.copyOf(this.offsets, this.numSlots);
+            this.lengths = Arrays.copyOf(this.lengths, this.numSlots);
+        } else if (this.getFreeSpace() < stored.length) {
+            throw new DatabaseException("not enough space on page for record");
+        }
+        this.place(slot, stored);
+        return slot;
+    }
+
+    /**
+     * Replaces the record in a slot, moving it within the page if it grew.
+     *
+     * @param slot slot number of an existing record
+     * @param stored new record (starting with its flag)
+     * @return whether the page had enough space for the new record (if not, the page is
+     * unchanged)
+     */
+    boolean replace(int slot, byte[] stored) {
+        if (stored.length <= this.lengths[slot]) {
+            this.page.getBuffer().position(this.offsets[slot]).put(stored);
+            this.lengths[slot] = stored.length;
+            this.writeSlot(slot);
+            return true;
+        }
+        if (this.getFreeSpace() + this.lengths[slot] < stored.length) {
+            return false;
+        }
+        this.offsets[slot] = 0;
+        this.lengths[slot] = 0;
+        this.place(slot, stored);
+        return true;
+    }
+
+    /**
+     * Removes the record in a slot. Empty slots at the end of the slot directory are dropped.
+     *
+     * @param slot slot number of an existing record
+     */
+    void delete(int slot) {
+        this.offsets[slot] = 0;
+        this.lengths[slot] = 0;
+        if (slot < this.numSlots - 1) {
+            this.writeSlot(slot);
+        }
+        while (this.numSlots > 0 && this.offsets[this.numSlots - 1] == 0) {
+            --this.numSlots;
+        }
+        if (this.numSlots == 0) {
+            this.dataStart = this.pageSize;
+        }
+        this.writeHeader();
+    }
+
+    /**
+     * @param numRecordsPerPage maximum number of slots on a page
+     * @return bitmap of the slots with records that scans should return (records that were not
+     * moved here from another page)
+     */
+    byte[] getVisibleSlots(int numRecordsPerPage) {
+        byte[] bitmap = new byte[(numRecordsPerPage + 7) / 8];
+        byte[] area = new byte[this.pageSize - this.dataStart];
+        this.page.getBuffer().position(this.dataStart).get(area);
+        for (int i = 0; i < this.numSlots; ++i) {
+            if (this.offsets[i] != 0 && area[this.offsets[i] - this.dataStart] != MOVED) {
+                Bits.setBit(bitmap, i, Bits.Bit.ONE);
+            }
+        }
+        return bitmap;
+    }
+
+    // writes a record into a slot whose old record (if any) has been dropped, compacting the
+    // page first if the free space between the slot directory and record area is too small
+    private void place(int slot, byte[] stored) {
+        if (this.dataStart - HEADER_SIZE - this.numSlots * SLOT_SIZE < stored.length) {
+            this.compact();
+        }
+        this.dataStart -= stored.length;
+        this.offsets[slot] = this.dataStart;
+        this.lengths[slot] = stored.length;
+        this.page.getBuffer().position(this.dataStart).put(stored);
+        this.writeSlot(slot);
+        this.writeHeader();
+    }
+
+    // moves all records to the end of the page, so that all free space is contiguous
+    private void compact() {
+        byte[] area = new byte[this.pageSize - this.dataStart];
+        this.page.getBuffer().position(this.dataStart).get(area);
+        int end = this.pageSize;
+        int[] newOffsets = new int[this.numSlots];
+        for (int i = 0; i < this.numSlots; ++i) {
+            if (this.offsets[i] != 0) {
+                end -= this.lengths[i];
+                newOffsets[i] = end;
+            }
+        }
+        byte[] packed = new byte[this.pageSize - end];
+        for (int i = 0; i < this.numSlots; ++i) {
+            if (this.offsets[i] != 0) {
+                System.arraycopy(area, this.offsets[i] - this.dataStart, packed, newOffsets[i] - end,
+                                 this.lengths[i]);
+            }
+        }
+        this.page.getBuffer().position(end).put(packed);
+        this.offsets = newOffsets;
+        this.dataStart = end;
+        Buffer b = this.page.getBuffer().position(HEADER_SIZE);
+        for (int i = 0; i < this.numSlots; ++i) {
+            b.putShort((short) this.offsets[i]).putShort((short) this.lengths[i]);
+        }
+        this.writeHeader();
+    }
+
+    private void writeSlot(int slot) {
+        this.page.getBuffer().position(HEADER_SIZE + slot * SLOT_SIZE)
+            .putShort((short) this.offsets[slot]).putShort((short) this.lengths[slot]);
+    }
+
+    private void writeHeader() {
+        int start = this.dataStart == this.pageSize ? 0 : this.dataStart;
+        this.page.getBuffer().position(0).putShort((short) this.numSlots).putShort((short) start);
+    }
+
+    /**
+     * @param flag NORMAL or MOVED
+     * @param record record
+     * @param schema schema of the record
+     * @return the record as stored in a slotted page
+     */
+    static byte[] toStored(byte flag, Record record, Schema schema) {
+        byte[] values = record.toVariableLengthBytes(schema);
+        byte[] stored = new byte[Math.max(1 + values.length, FORWARD_SIZE)];
+        stored[0] = flag;
+        System.arraycopy(values, 0, stored, 1, values.length);
+        return stored;
+    }
+
+    /**
+     * @param target record id the record was moved to
+     * @return forwarding record to the record id
+     */
+    static byte[] toForward(RecordId target) {
+        byte[] stored = new byte[FORWARD_SIZE];
+        stored[0] = FORWARD;
+        byte[] rid = target.toBytes();
+        System.arraycopy(rid, 0, stored, 1, rid.length);
+        return stored;
+    }
+
+    /**
+     * @param stored a NORMAL or MOVED record, as stored in a slotted page
+     * @param schema schema of the record
+     * @return the record
+     */
+    static Record fromStored(byte[] stored, Schema schema) {
+        return Record.fromVariableLengthBytes(ByteBuffer.wrap(stored, 1, stored.length - 1), schema);
+    }
+
+    /**
+     * @param stored a FORWARD record, as stored in a slotted page
+     * @return the record id it forwards to
+     */
+    static RecordId getForwardTarget(byte[] stored) {
+        return RecordId.fromBytes(ByteBuffer.wrap(stored, 1, stored.length - 1));
+    }
+
+    /**
+     * @param schema schema of the records
+     * @param largest whether to compute the size of the largest record (or the smallest one)
+     * @return size of the largest or smallest record of the schema, as stored in a slotted page
+     */
+    static int getStoredSize(Schema schema, boolean largest) {
+        int size = 1;
+        for (Type type : schema.getFieldTypes()) {
+            if (type.getTypeId() == TypeId.STRING) {
+                size += Short.BYTES + (largest ? type.getSizeInBytes() : 0);
+            } else {
+                size += type.getSizeInBytes();
+            }
+        }
+        return Math.max(size, FORWARD_SIZE);
+    }
+}
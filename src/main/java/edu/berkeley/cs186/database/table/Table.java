@@ -10,12 +10,17 @@ import edu.berkeley.cs186.database.common.iterator.IndexBacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -89,8 +94,49 @@ import java.util.Map;
  * only supports locking at the page level, so in cases where tuple-level locks are
  * necessary even at the cost of an I/O per tuple, a full page record may be desirable),
  * and may be explicitly toggled on with the setFullPageRecords method.
+ *
+ * Tables with many or long strings waste most of the space of fixed-width records, since
+ * every string is padded to its maximum length. Such tables can instead be created with
+ * the SLOTTED record format (see RecordFormat), which stores records with variable-length
+ * strings in slotted pages (see SlottedPage for the page layout). The record id of a
+ * record in a slotted page is its slot number, and stays the same when the record is
+ * updated: if the record no longer fits on its page, it is moved to another page, and
+ * replaced by a forwarding record to its new location.
+ *
+ * Tables that are mostly scanned for a few of their columns can be created with the PAX
+ * record format. PAX pages have the same bitmap and hold as many records as FIXED pages,
+ * but the record area is split into one minipage per column, holding the values of that
+ * column for every entry of the page:
+ *
+ *   +--------+---------------------------+---------------------------+-----+
+ *   | bitmap | col 0: entry 0, 1, 2, ... | col 1: entry 0, 1, 2, ... | ... |
+ *   +--------+---------------------------+---------------------------+-----+
+ *
+ * so that scans that only need some of the columns (see iterator(List, BufferAccessStrategy))
+ * decode just their values, instead of every field of every record.
+ *
+ * # Concurrency
+ * Table methods are not synchronized: operations on different data pages run in
+ * parallel. Every change to a data page is made while the page is pinned in exclusive
+ * mode (its latch), and so is every change to its free space in the page directory;
+ * reads only pin pages in shared mode. Header pages are latched by the page directory,
+ * always after any data page (see PageDirectory). Latches keep pages consistent, but do
+ * not isolate transactions from each other: two transactions updating the same record
+ * are kept apart by the page locks acquired through the lock context.
  */
 public class Table implements BacktrackingIterable<Record> {
+    /**
+     * How records of a table are laid out on its data pages.
+     */
+    public enum RecordFormat {
+        // fixed-width records, with a bitmap of valid records
+        FIXED,
+        // variable-length records, with a slot directory (see SlottedPage)
+        SLOTTED,
+        // fixed-width records stored column by column, in a minipage per column
+        PAX
+    }
+
     // The name of the table.
     private String name;
 
@@ -103,9 +149,16 @@ public class Table implements BacktrackingIterable<Record> {
     // The size (in bytes) of the bitmap found at the beginning of each data page.
     private int bitmapSizeInBytes;
 
-    // The number of records on each data page.
+    // The number of records on each data page (the maximum number of slots for SLOTTED tables).
     private int numRecordsPerPage;
 
+    // The layout of records on data pages.
+    private RecordFormat format;
+
+    // Offset of each column in a FIXED record; for PAX tables, the minipage of column i
+    // starts numRecordsPerPage * columnOffsets[i] bytes after the bitmap.
+    private int[] columnOffsets;
+
     // The lock context of the table.
     private LockContext tableContext;
 
@@ -118,19 +171,53 @@ public class Table implements BacktrackingIterable<Record> {
      * is the lock context of the table (use a DummyLockContext() to disable locking). A
      * new table will be created if none exists in the pageDirectory.
      */
-    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext, Map<String, TableStats> stats) {
+    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext,
+                 Map<String, TableStats> stats, RecordFormat format) {
         this.name = name;
         this.pageDirectory = pageDirectory;
         this.schema = schema;
         this.tableContext = lockContext;
-
-        this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageDirectory.getEffectivePageSize(), schema);
-        this.numRecordsPerPage = computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(), schema);
-        // mark everything that is not used for records as metadata
-        this.pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() - numRecordsPerPage
-                                               * schema.getSizeInBytes()));
+        this.format = format;
+
+        int statsRecordsPerPage;
+        if (format == RecordFormat.SLOTTED) {
+            int pageSize = pageDirectory.getEffectivePageSize();
+            int maxRecordSize = SlottedPage.getStoredSize(schema, true) + SlottedPage.SLOT_SIZE;
+            if (maxRecordSize > pageSize - SlottedPage.HEADER_SIZE) {
+                throw new DatabaseException(String.format(
+                        "Schema of size %d bytes is larger than effective page size",
+                        maxRecordSize
+                ));
+            }
+            this.bitmapSizeInBytes = 0;
+            // bounds the number of slots: a new slot is only added when every other slot holds
+            // a record, and records shrink down to forwarding records when updates move them
+            this.numRecordsPerPage = (pageSize - SlottedPage.HEADER_SIZE) /
+                                     (SlottedPage.FORWARD_SIZE + SlottedPage.SLOT_SIZE);
+            // estimate pages for the query optimizer pessimistically, with every string full
+            statsRecordsPerPage = (pageSize - SlottedPage.HEADER_SIZE) / maxRecordSize;
+            this.pageDirectory.setEmptyPageMetadataSize(SlottedPage.HEADER_SIZE);
+        } else {
+            this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageDirectory.getEffectivePageSize(), schema);
+            this.numRecordsPerPage = computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(), schema);
+            statsRecordsPerPage = this.numRecordsPerPage;
+            this.columnOffsets = new int[schema.size()];
+            int columnOffset = 0;
+            for (int i = 0; i < schema.size(); ++i) {
+                Type type = schema.getFieldType(i);
+                this.columnOffsets[i] = columnOffset;
+                columnOffset += type.getSizeInBytes();
+            }
+            // mark everything that is not used for records as metadata
+            this.pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() - numRecordsPerPage
+                                                   * schema.getSizeInBytes()));
+        }
         this.stats = stats;
-        if (!this.stats.containsKey(name)) this.stats.put(name, new TableStats(this.schema, this.numRecordsPerPage));
+        if (!this.stats.containsKey(name)) this.stats.put(name, new TableStats(this.schema, statsRecordsPerPage));
+    }
+
+    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext, Map<String, TableStats> stats) {
+        this(name, schema, pageDirectory, lockContext, stats, RecordFormat.FIXED);
     }
 
     public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext) {
@@ -149,7 +236,14 @@ public class Table implements BacktrackingIterable<Record> {
         return numRecordsPerPage;
     }
 
+    public RecordFormat getRecordFormat() {
+        return format;
+    }
+
     public void setFullPageRecords() {
+        if (format == RecordFormat.SLOTTED) {
+            throw new IllegalStateException("slotted tables cannot have full page records");
+        }
         numRecordsPerPage = 1;
         bitmapSizeInBytes = 0;
         pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() -
@@ -231,11 +325,59 @@ public class Table implements BacktrackingIterable<Record> {
         this.stats.get(name).refreshHistograms(buckets, this);
     }
 
-    private synchronized void insertRecord(Page page, int entryNum, Record record) {
+    private void insertRecord(Page page, int entryNum, Record record) {
+        if (format == RecordFormat.PAX) {
+            // log the writes to every minipage together
+            page.beginWrite();
+            try {
+                for (int i = 0; i < schema.size(); ++i) {
+                    page.getBuffer().position(getPaxOffset(i, entryNum)).put(record.getValue(i).toBytes());
+                }
+            } finally {
+                page.commitWrite();
+            }
+            return;
+        }
         int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
         page.getBuffer().position(offset).put(record.toBytes(schema));
     }
 
+    // offset of the value of a column of an entry on a PAX page
+    private int getPaxOffset(int column, int entryNum) {
+        return bitmapSizeInBytes + numRecordsPerPage * columnOffsets[column] +
+               entryNum * schema.getFieldType(column).getSizeInBytes();
+    }
+
+    // decodes the record in an entry of a FIXED or PAX page, keeping only the given
+    // columns (in that order), or all of them if `columns` is null. On PAX pages, only
+    // the values of those columns are read.
+    private Record readRecord(Page page, int entryNum, List<Integer> columns) {
+        if (format != RecordFormat.PAX) {
+            int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
+            return project(Record.fromBytes(page.getBuffer().position(offset), schema), columns);
+        }
+        int size = columns == null ? schema.size() : columns.size();
+        List<DataBox> values = new ArrayList<>(size);
+        Buffer buf = page.getBuffer();
+        for (int i = 0; i < size; ++i) {
+            int column = columns == null ? i : columns.get(i);
+            values.add(DataBox.fromBytes(buf.position(getPaxOffset(column, entryNum)), schema.getFieldType(column)));
+        }
+        return new Record(values);
+    }
+
+    // the record made of the given columns of `record`, or `record` itself if `columns` is null
+    private static Record project(Record record, List<Integer> columns) {
+        if (columns == null) {
+            return record;
+        }
+        List<DataBox> values = new ArrayList<>(columns.size());
+        for (int column : columns) {
+            values.add(record.getValue(column));
+        }
+        return new Record(values);
+    }
+
     /**
      * addRecord adds a record to this table and returns the record id of the
      * newly added record. stats, freePageNums, and numRecords are updated
@@ -244,9 +386,16 @@ public class Table implements BacktrackingIterable<Record> {
      * first free page has bitmap 0b11101000, then the record is inserted into
      * the page with index 3 and the bitmap is updated to 0b11111000.
      */
-    public synchronized RecordId addRecord(Record record) {
+    public RecordId addRecord(Record record) {
         record = schema.verify(record);
+        if (format == RecordFormat.SLOTTED) {
+            RecordId rid = insertStored(SlottedPage.toStored(SlottedPage.NORMAL, record, schema));
+            stats.get(name).addRecord(record);
+            return rid;
+        }
         Page page = pageDirectory.getPageWithSpace(schema.getSizeInBytes());
+        // log the record and bitmap writes together
+        page.beginWrite();
         try {
             // Find the first empty slot in the bitmap.
             // entry number of the first free slot and store it in entryNum; and (2) we
@@ -271,6 +420,112 @@ public class Table implements BacktrackingIterable<Record> {
             // Update the metadata.
             stats.get(name).addRecord(record);
             return new RecordId(page.getPageNum(), (short) entryNum);
+        } finally {
+            page.commitWrite();
+            page.unpin();
+        }
+    }
+
+    /**
+     * addRecords adds a batch of records to this table and returns their record
+     * ids, in the same order. Records go where addRecord would put them, but
+     * each page found is filled with as many of the records as fit while it is
+     * pinned once, its bitmap (or slot directory) is read and written once, and
+     * its free space is updated once. If a record does not match the schema, an
+     * exception is thrown and no record is added.
+     */
+    public List<RecordId> addRecords(List<Record> records) {
+        List<Record> verified = new ArrayList<>(records.size());
+        for (Record record : records) {
+            verified.add(schema.verify(record));
+        }
+        List<RecordId> rids = new ArrayList<>(verified.size());
+        while (rids.size() < verified.size()) {
+            if (format == RecordFormat.SLOTTED) {
+                fillSlottedPage(verified, rids);
+            } else {
+                fillPage(verified, rids);
+            }
+        }
+        for (Record record : verified) {
+            stats.get(name).addRecord(record);
+        }
+        return rids;
+    }
+
+    // adds records starting at rids.size() to the first page with space for one, until
+    // the page is full, appending their record ids to rids
+    private void fillPage(List<Record> records, List<RecordId> rids) {
+        Page page = pageDirectory.getPageWithSpace(schema.getSizeInBytes());
+        try {
+            int numInserted = 0;
+            int numRecords;
+            page.beginWrite();
+            try {
+                byte[] bitmap = getBitMap(page);
+                int entryNum = 0;
+                while (rids.size() < records.size()) {
+                    if (numRecordsPerPage == 1) {
+                        if (numInserted == 1) {
+                            break;
+                        }
+                    } else {
+                        while (entryNum < numRecordsPerPage && Bits.getBit(bitmap, entryNum) == Bits.Bit.ONE) {
+                            ++entryNum;
+                        }
+                        if (entryNum == numRecordsPerPage) {
+                            break;
+                        }
+                    }
+                    insertRecord(page, entryNum, records.get(rids.size()));
+                    Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
+                    rids.add(new RecordId(page.getPageNum(), (short) entryNum));
+                    ++numInserted;
+                }
+                writeBitMap(page, bitmap);
+                numRecords = numRecordsPerPage == 1 ? 1 : numRecordsOnPage(page);
+            } finally {
+                page.commitWrite();
+            }
+            // the page directory only reserved space for the first record
+            if (numInserted > 1) {
+                pageDirectory.updateFreeSpace(page,
+                                              (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // fillPage for a SLOTTED table
+    private void fillSlottedPage(List<Record> records, List<RecordId> rids) {
+        byte[] stored = SlottedPage.toStored(SlottedPage.NORMAL, records.get(rids.size()), schema);
+        Page page = pageDirectory.getPageWithSpace((short) (stored.length + SlottedPage.SLOT_SIZE));
+        try {
+            SlottedPage slottedPage;
+            int numInserted = 0;
+            boolean reusedSlot = false;
+            page.beginWrite();
+            try {
+                slottedPage = loadSlottedPage(page);
+                // reserve space for a new slot for every record, as addRecord does
+                while (slottedPage.getFreeSpace() >= stored.length + SlottedPage.SLOT_SIZE) {
+                    int slot = slottedPage.insert(stored);
+                    reusedSlot |= slot < slottedPage.getNumSlots() - 1;
+                    rids.add(new RecordId(page.getPageNum(), (short) slot));
+                    ++numInserted;
+                    if (rids.size() == records.size()) {
+                        break;
+                    }
+                    stored = SlottedPage.toStored(SlottedPage.NORMAL, records.get(rids.size()), schema);
+                }
+            } finally {
+                page.commitWrite();
+            }
+            // the page directory only reserved space for the first record (in a new slot)
+            if (reusedSlot || numInserted > 1) {
+                pageDirectory.updateFreeSpace(page, slottedPage.getFreeSpace());
+            }
         } finally {
             page.unpin();
         }
@@ -280,9 +535,25 @@ public class Table implements BacktrackingIterable<Record> {
      * Retrieves a record from the table, throwing an exception if no such record
      * exists.
      */
-    public synchronized Record getRecord(RecordId rid) {
+    public Record getRecord(RecordId rid) {
+        return getRecord(rid, null);
+    }
+
+    // getRecord, keeping only the given columns (see readRecord)
+    private Record getRecord(RecordId rid, List<Integer> columns) {
         validateRecordId(rid);
-        Page page = fetchPage(rid.getPageNum());
+        if (format == RecordFormat.SLOTTED) {
+            byte[] stored = readStored(rid);
+            if (stored == null || stored[0] == SlottedPage.MOVED) {
+                String msg = String.format("Record %s does not exist.", rid);
+                throw new DatabaseException(msg);
+            }
+            if (stored[0] == SlottedPage.FORWARD) {
+                stored = readStored(SlottedPage.getForwardTarget(stored));
+            }
+            return project(SlottedPage.fromStored(stored, schema), columns);
+        }
+        Page page = fetchPageShared(rid.getPageNum());
         try {
             byte[] bitmap = getBitMap(page);
             if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
@@ -290,10 +561,7 @@ public class Table implements BacktrackingIterable<Record> {
                 throw new DatabaseException(msg);
             }
 
-            int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
-            Buffer buf = page.getBuffer();
-            buf.position(offset);
-            return Record.fromBytes(buf, schema);
+            return readRecord(page, rid.getEntryNum(), columns);
         } finally {
             page.unpin();
         }
@@ -304,7 +572,7 @@ public class Table implements BacktrackingIterable<Record> {
      * record. stats is updated accordingly. An exception is thrown if rid does
      * not correspond to an existing record in the table.
      */
-    public synchronized Record updateRecord(RecordId rid, Record updated) {
+    public Record updateRecord(RecordId rid, Record updated) {
         validateRecordId(rid);
         // If we're updating a record we'll need exclusive access to the page
         // its on.
@@ -313,10 +581,19 @@ public class Table implements BacktrackingIterable<Record> {
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
 
         Record newRecord = schema.verify(updated);
-        Record oldRecord = getRecord(rid);
+
+        if (format == RecordFormat.SLOTTED) {
+            Record oldRecord = getRecord(rid);
+            updateStored(rid, newRecord);
+            this.stats.get(name).removeRecord(oldRecord);
+            this.stats.get(name).addRecord(newRecord);
+            return oldRecord;
+        }
 
         Page page = fetchPage(rid.getPageNum());
         try {
+            // read the old record while holding the page, so that it cannot change in between
+            Record oldRecord = getRecord(rid);
             insertRecord(page, rid.getEntryNum(), newRecord);
 
             this.stats.get(name).removeRecord(oldRecord);
@@ -332,13 +609,24 @@ public class Table implements BacktrackingIterable<Record> {
      * stats, freePageNums, and numRecords as necessary. An exception is thrown
      * if rid does not correspond to an existing record in the table.
      */
-    public synchronized Record deleteRecord(RecordId rid) {
+    public Record deleteRecord(RecordId rid) {
         validateRecordId(rid);
         LockContext pageContext = tableContext.childContext(rid.getPageNum());
 
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
 
+        if (format == RecordFormat.SLOTTED) {
+            Record record = getRecord(rid);
+            byte[] stored = readStored(rid);
+            if (stored[0] == SlottedPage.FORWARD) {
+                deleteStored(SlottedPage.getForwardTarget(stored));
+            }
+            deleteStored(rid);
+            stats.get(name).removeRecord(record);
+            return record;
+        }
+
         Page page = fetchPage(rid.getPageNum());
         try {
             Record record = getRecord(rid);
@@ -371,6 +659,134 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    // fetches a data page to read it only (see PageDirectory#getPageShared)
+    private Page fetchPageShared(long pageNum) {
+        try {
+            return pageDirectory.getPageShared(pageNum);
+        } catch (PageException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    private SlottedPage loadSlottedPage(Page page) {
+        return new SlottedPage(page, pageDirectory.getEffectivePageSize());
+    }
+
+    // fetches a data page of a SLOTTED table to modify it, locking it first
+    private Page fetchPageForWrite(long pageNum) {
+        LockContext pageContext = tableContext.childContext(pageNum);
+        LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
+        return fetchPage(pageNum);
+    }
+
+    // returns the stored record (starting with its flag) at rid in a SLOTTED table, or null
+    // if there is none
+    private byte[] readStored(RecordId rid) {
+        Page page = fetchPageShared(rid.getPageNum());
+        try {
+            return loadSlottedPage(page).read(rid.getEntryNum());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // adds a stored record to the first page of a SLOTTED table with space for it
+    private RecordId insertStored(byte[] stored) {
+        Page page = pageDirectory.getPageWithSpace((short) (stored.length + SlottedPage.SLOT_SIZE));
+        try {
+            SlottedPage slottedPage;
+            int slot;
+            short freeSpace;
+            // log the record, slot, and page header writes together
+            page.beginWrite();
+            try {
+                slottedPage = loadSlottedPage(page);
+                slot = slottedPage.insert(stored);
+                freeSpace = slottedPage.getFreeSpace();
+            } finally {
+                page.commitWrite();
+            }
+            // the page directory reserved space for a new slot; give it back if an empty
+            // slot was reused instead
+            if (slot < slottedPage.getNumSlots() - 1) {
+                pageDirectory.updateFreeSpace(page, freeSpace);
+            }
+            return new RecordId(page.getPageNum(), (short) slot);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // replaces the stored record at rid in a SLOTTED table, returning false (and leaving
+    // the page unchanged) if the new record does not fit on the page
+    private boolean replaceStored(RecordId rid, byte[] stored) {
+        Page page = fetchPageForWrite(rid.getPageNum());
+        try {
+            SlottedPage slottedPage;
+            short oldFreeSpace;
+            page.beginWrite();
+            try {
+                slottedPage = loadSlottedPage(page);
+                oldFreeSpace = slottedPage.getFreeSpace();
+                if (!slottedPage.replace(rid.getEntryNum(), stored)) {
+                    return false;
+                }
+            } finally {
+                page.commitWrite();
+            }
+            if (slottedPage.getFreeSpace() != oldFreeSpace) {
+                pageDirectory.updateFreeSpace(page, slottedPage.getFreeSpace());
+            }
+            return true;
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // removes the stored record at rid in a SLOTTED table, freeing the page if it is empty
+    private void deleteStored(RecordId rid) {
+        Page page = fetchPageForWrite(rid.getPageNum());
+        try {
+            SlottedPage slottedPage;
+            page.beginWrite();
+            try {
+                slottedPage = loadSlottedPage(page);
+                slottedPage.delete(rid.getEntryNum());
+            } finally {
+                // commit before updating the free space, which may free the page
+                page.commitWrite();
+            }
+            pageDirectory.updateFreeSpace(page, slottedPage.getFreeSpace());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // overwrites the record at rid in a SLOTTED table. If the record no longer fits on its
+    // page, it is moved to another page, and a forwarding record to it is left at rid; a
+    // record that was already moved is moved back to its page if it fits there again.
+    private void updateStored(RecordId rid, Record record) {
+        byte[] home = readStored(rid);
+        RecordId target = home[0] == SlottedPage.FORWARD ? SlottedPage.getForwardTarget(home) : null;
+        if (target == null) {
+            if (replaceStored(rid, SlottedPage.toStored(SlottedPage.NORMAL, record, schema))) {
+                return;
+            }
+        } else {
+            if (replaceStored(target, SlottedPage.toStored(SlottedPage.MOVED, record, schema))) {
+                return;
+            }
+            if (replaceStored(rid, SlottedPage.toStored(SlottedPage.NORMAL, record, schema))) {
+                deleteStored(target);
+                return;
+            }
+            deleteStored(target);
+        }
+        RecordId moved = insertStored(SlottedPage.toStored(SlottedPage.MOVED, record, schema));
+        // a forwarding record is never larger than the record it replaces
+        replaceStored(rid, SlottedPage.toForward(moved));
+    }
+
     private int numRecordsOnPage(Page page) {
         byte[] bitmap = getBitMap(page);
         int numRecords = 0;
@@ -405,10 +821,20 @@ public class Table implements BacktrackingIterable<Record> {
      * records
      */
     public BacktrackingIterator<RecordId> ridIterator() {
+        return ridIterator(pageDirectory.getAccessStrategy());
+    }
+
+    /**
+     * @param strategy access strategy to load the data pages of the scan with (see
+     *                 BufferAccessStrategy), or null to load them normally
+     * @return Performs a full scan on the table to return id's of all existing
+     * records
+     */
+    public BacktrackingIterator<RecordId> ridIterator(BufferAccessStrategy strategy) {
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
 
-        BacktrackingIterator<Page> iter = pageDirectory.iterator();
+        BacktrackingIterator<Page> iter = pageDirectory.iterator(strategy);
         return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
     }
 
@@ -434,6 +860,34 @@ public class Table implements BacktrackingIterable<Record> {
         return new RecordIterator(ridIterator());
     }
 
+    /**
+     * @param strategy access strategy to load the data pages of the scan with (see
+     *                 BufferAccessStrategy), or null to load them normally
+     * @return iterator over all the records in this table
+     */
+    public BacktrackingIterator<Record> iterator(BufferAccessStrategy strategy) {
+        return new RecordIterator(ridIterator(strategy));
+    }
+
+    /**
+     * Scans the table for some of its columns only. The records returned consist of
+     * the values of the given columns, in the order they are given in. On PAX tables,
+     * only those columns are read from the data pages.
+     *
+     * @param columns indices of the columns to return
+     * @param strategy access strategy to load the data pages of the scan with (see
+     *                 BufferAccessStrategy), or null to load them normally
+     * @return iterator over the given columns of all the records in this table
+     */
+    public BacktrackingIterator<Record> iterator(List<Integer> columns, BufferAccessStrategy strategy) {
+        for (int column : columns) {
+            if (column < 0 || column >= schema.size()) {
+                throw new DatabaseException(String.format("Table %s has no column %d.", name, column));
+            }
+        }
+        return new RecordIterator(ridIterator(strategy), new ArrayList<>(columns));
+    }
+
     /**
      * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
      * page of the table.
@@ -448,7 +902,11 @@ public class Table implements BacktrackingIterable<Record> {
         RIDPageIterator(Page page) {
             super(numRecordsPerPage);
             this.page = page;
-            this.bitmap = getBitMap(page);
+            if (format == RecordFormat.SLOTTED) {
+                this.bitmap = loadSlottedPage(page).getVisibleSlots(numRecordsPerPage);
+            } else {
+                this.bitmap = getBitMap(page);
+            }
             page.unpin();
         }
 
@@ -525,9 +983,16 @@ public class Table implements BacktrackingIterable<Record> {
      */
     private class RecordIterator implements BacktrackingIterator<Record> {
         private Iterator<RecordId> ridIter;
+        // columns to return (see readRecord), or null to return all of them
+        private List<Integer> columns;
 
         public RecordIterator(Iterator<RecordId> ridIter) {
+            this(ridIter, null);
+        }
+
+        private RecordIterator(Iterator<RecordId> ridIter, List<Integer> columns) {
             this.ridIter = ridIter;
+            this.columns = columns;
         }
 
         @Override
@@ -538,7 +1003,7 @@ public class Table implements BacktrackingIterable<Record> {
         @Override
         public Record next() {
             try {
-                return getRecord(ridIter.next());
+                return getRecord(ridIter.next(), columns);
             } catch (DatabaseException e) {
                 throw new IllegalStateException(e);
             }
@@ -72,11 +72,11 @@ public class TableStats {
     }
 
     // Modifiers /////////////////////////////////////////////////////////////////
-    public void addRecord(Record record) {
+    public synchronized void addRecord(Record record) {
         numRecords++;
     }
 
-    public void removeRecord(Record record) {
+    public synchronized void removeRecord(Record record) {
         numRecords = Math.max(numRecords - 1, 0);
     }
 
@@ -171,6 +171,24 @@ public class TableStats {
         return new TableStats(this.schema, this.numRecordsPerPage, numRecords, copyHistograms);
     }
 
+    /**
+     * Estimates the table statistics for the given columns of this table, e.g. as
+     * returned by a scan that only reads some of them. The number of records and
+     * pages is unchanged, since the records are still read from the same pages.
+     *
+     * @param columns indices of the columns to keep, in their new order
+     * @return new TableStats over the given columns of this
+     */
+    public TableStats copyWithProjection(List<Integer> columns) {
+        Schema projectedSchema = new Schema();
+        List<Histogram> copyHistograms = new ArrayList<>();
+        for (int column : columns) {
+            projectedSchema.add(schema.getFieldName(column), schema.getFieldType(column));
+            copyHistograms.add(histograms.get(column));
+        }
+        return new TableStats(projectedSchema, this.numRecordsPerPage, this.numRecords, copyHistograms);
+    }
+
     /**
      * Creates a new TableStats which is the statistics for the table
      * that results from this TableStats joined with the given TableStats.
@@ -7,10 +7,13 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.memory.BufferStats;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -19,10 +22,16 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -122,6 +131,129 @@ public class TestDatabase {
         }
     }
 
+    // number of I/Os done by scanning all of a table
+    private long scanIOs(TransactionContext transaction, String tableName) {
+        long startIOs = db.getBufferManager().getNumIOs();
+        Iterator<Record> records = transaction.getRecordIterator(tableName);
+        while (records.hasNext()) {
+            records.next();
+        }
+        return db.getBufferManager().getNumIOs() - startIOs;
+    }
+
+    @Test
+    public void testScanRing() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(s, "smallTable");
+            t.createTable(s, "bigTable");
+            TransactionContext transaction = t.getTransactionContext();
+            transaction.addRecord("smallTable", input);
+            while (transaction.getNumDataPages("bigTable") < 64) {
+                transaction.addRecord("bigTable", input);
+            }
+
+            // without a ring, scanning the big table evicts the small table's pages
+            scanIOs(transaction, "smallTable");
+            scanIOs(transaction, "bigTable");
+            assertTrue(scanIOs(transaction, "smallTable") > 0);
+
+            // with one, it only recycles a few frames of its own
+            db.setScanRingSize(4);
+            scanIOs(transaction, "bigTable");
+            scanIOs(transaction, "smallTable");
+            assertTrue(scanIOs(transaction, "bigTable") > 0);
+            assertEquals(0, scanIOs(transaction, "smallTable"));
+        }
+    }
+
+    @Test
+    public void testResizeBuffer() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(s, "testTable1");
+            TransactionContext transaction = t.getTransactionContext();
+            while (transaction.getNumDataPages("testTable1") < 20) {
+                transaction.addRecord("testTable1", input);
+            }
+        }
+
+        db.resizeBuffer(64);
+        assertEquals(64, db.getNumMemoryPages());
+        try(Transaction t = db.beginTransaction()) {
+            scanIOs(t.getTransactionContext(), "testTable1");
+            assertEquals(0, scanIOs(t.getTransactionContext(), "testTable1"));
+        }
+
+        // dirty pages in the frames removed are written out, not lost
+        db.resizeBuffer(8);
+        assertEquals(8, db.getBufferManager().getBufferSize());
+        try(Transaction t = db.beginTransaction()) {
+            Iterator<Record> records = t.getTransactionContext().getRecordIterator("testTable1");
+            int count = 0;
+            while (records.hasNext()) {
+                assertEquals(input, records.next());
+                ++count;
+            }
+            assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void testBufferStats() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(s, "testTable1");
+            TransactionContext transaction = t.getTransactionContext();
+            while (transaction.getNumDataPages("testTable1") < 8) {
+                transaction.addRecord("testTable1", input);
+            }
+        }
+        BufferStats before = db.getBufferStats();
+
+        try(Transaction t = db.beginTransaction()) {
+            assertEquals(0, scanIOs(t.getTransactionContext(), "testTable1"));
+        }
+        BufferStats after = db.getBufferStats();
+        assertTrue(after.getHits() >= before.getHits() + 8);
+        assertEquals(before.getMisses(), after.getMisses());
+        assertEquals(0, after.getFramesPinned());
+
+        // the table's pages are written out when evicted
+        db.getBufferManager().evictAll();
+        assertTrue(db.getBufferStats().getWrites(BufferStats.PageType.TABLE) >= 8);
+    }
+
+    @Test
+    public void testBufferWarmup() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        db.enableBufferWarmup(0).join();
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(s, "testTable1");
+            TransactionContext transaction = t.getTransactionContext();
+            while (transaction.getNumDataPages("testTable1") < 8) {
+                transaction.addRecord("testTable1", input);
+            }
+            scanIOs(transaction, "testTable1");
+        }
+        db.close();
+
+        // the table was in the buffer when the database was closed, so it is read back in
+        db = new Database(this.filename, 32);
+        db.enableBufferWarmup(0).join();
+        try(Transaction t = db.beginTransaction()) {
+            assertEquals(0, scanIOs(t.getTransactionContext(), "testTable1"));
+        }
+    }
+
     @Test
     public void testDatabaseDurability() {
         Schema s = TestUtils.createSchemaWithAllTypes();
@@ -148,6 +280,106 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testSlottedTableDurability() {
+        Schema s = new Schema().add("id", Type.intType()).add("name", Type.stringType(255));
+        Record input = new Record(1, "short");
+
+        String tableName = "testTable1";
+
+        RecordId rid;
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName, Table.RecordFormat.SLOTTED);
+            rid = t1.getTransactionContext().addRecord(tableName, input);
+            assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+
+        try(Transaction t1 = db.beginTransaction()) {
+            Table table = t1.getTransactionContext().getTable(tableName);
+            assertEquals(Table.RecordFormat.SLOTTED, table.getRecordFormat());
+            assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+        }
+    }
+
+    @Test
+    public void testPaxTableQuery() {
+        Schema s = new Schema().add("id", Type.intType()).add("name", Type.stringType(20))
+                               .add("score", Type.floatType()).add("flag", Type.boolType());
+        String tableName = "testTable1";
+
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName, Table.RecordFormat.PAX);
+            for (int i = 0; i < 1000; ++i) {
+                t.insert(tableName, i, "name" + i, i * 0.5f, i % 2 == 0);
+            }
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+
+        try(Transaction t = db.beginTransaction()) {
+            assertEquals(Table.RecordFormat.PAX, t.getTransactionContext().getTable(tableName).getRecordFormat());
+            // SELECT name, score FROM testTable1 WHERE id >= 990
+            QueryPlan query = t.query(tableName);
+            query.select("id", PredicateOperator.GREATER_THAN_EQUALS, 990);
+            query.project("name", "score");
+            Iterator<Record> iter = query.execute();
+            for (int i = 990; i < 1000; ++i) {
+                assertTrue(iter.hasNext());
+                assertEquals(new Record("name" + i, i * 0.5f), iter.next());
+            }
+            assertFalse(iter.hasNext());
+
+            // a scan restricted to some columns only has those columns, in table order
+            SequentialScanOperator scan = new SequentialScanOperator(t.getTransactionContext(), tableName);
+            scan.setReferencedColumns(Arrays.asList("score", tableName + ".id", "other.flag"));
+            assertEquals(Arrays.asList(tableName + ".id", tableName + ".score"), scan.getSchema().getFieldNames());
+            assertEquals(2, scan.estimateStats().getSchema().size());
+            iter = scan.iterator();
+            for (int i = 0; i < 1000; ++i) {
+                assertTrue(iter.hasNext());
+                assertEquals(new Record(i, i * 0.5f), iter.next());
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testInsertAll() {
+        Schema s = new Schema().add("id", Type.intType()).add("name", Type.stringType(20));
+        String tableName = "testTable1";
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            records.add(new Record(i, "name" + i));
+        }
+        Collections.shuffle(records, new Random(0));
+
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            t.createIndex(tableName, "id", false);
+            t.insertAll(tableName, records);
+        }
+
+        try(Transaction t = db.beginTransaction()) {
+            int count = 0;
+            Iterator<Record> iter = t.getTransactionContext().getRecordIterator(tableName);
+            while (iter.hasNext()) {
+                iter.next();
+                ++count;
+            }
+            assertEquals(1000, count);
+            for (int i = 0; i < 1000; i += 111) {
+                Iterator<Record> matches = t.getTransactionContext().lookupKey(tableName, "id", new IntDataBox(i));
+                assertEquals(new Record(i, "name" + i), matches.next());
+                assertFalse(matches.hasNext());
+            }
+        }
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -12,6 +12,7 @@ import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -87,6 +88,11 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public List<RecordId> addRecords(String tableName, List<Record> records) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public int getWorkMemSize() {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -107,6 +113,11 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public RecordId updateRecord(String tableName, RecordId rid, Record record)  {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.index;
 import edu.berkeley.cs186.database.TimeoutScaling;
 import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj2Tests;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.Pair;
@@ -15,6 +16,7 @@ import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import edu.berkeley.cs186.database.table.RecordId;
 import org.junit.After;
@@ -27,6 +29,7 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
@@ -485,4 +488,46 @@ public class TestBPlusTree {
         assertEquals(3, InnerNode.maxOrder(pageSizeInBytes, keySchema));
         assertEquals(3, BPlusTree.maxOrder(pageSizeInBytes, keySchema));
     }
+
+    @Test
+    @Category({Proj99Tests.class, SystemTests.class})
+    public void testGetWhileNodesPinnedShared() throws InterruptedException {
+        // Readers load nodes under a shared pin, so a lookup can go through
+        // nodes that another reader holds.
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        for (int i = 0; i < 100; ++i) {
+            tree.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        InnerNode root = (InnerNode) BPlusNode.fromBytes(metadata, bufferManager, treeContext,
+                                                         metadata.getRootPageNum());
+
+        CountDownLatch pinned = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            List<Page> pages = new ArrayList<>();
+            try {
+                for (long child : root.getChildren()) {
+                    pages.add(bufferManager.fetchPageShared(treeContext, child));
+                }
+                pinned.countDown();
+                done.await();
+            } catch (InterruptedException e) {
+                // unpin and exit
+            } finally {
+                for (Page page : pages) {
+                    page.unpin();
+                }
+            }
+        });
+        reader.start();
+        pinned.await();
+        try {
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(new IntDataBox(i)));
+            }
+        } finally {
+            done.countDown();
+            reader.join();
+        }
+    }
 }
@@ -105,6 +105,16 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         System.arraycopy(buf, 0, pages.get(page), 0, DiskSpaceManager.PAGE_SIZE);
     }
 
+    @Override
+    public void sync(int partNum) {
+        if (!partitions.containsKey(partNum)) {
+            throw new NoSuchElementException("partition " + partNum + " not allocated");
+        }
+    }
+
+    @Override
+    public void syncAll() {}
+
     @Override
     public boolean pageAllocated(long page) {
         return pages.containsKey(page);
@@ -0,0 +1,121 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestDirectDiskSpaceManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DiskSpaceManager diskSpaceManager;
+    private Path managerRoot;
+
+    @Before
+    public void beforeEach() throws IOException {
+        managerRoot = tempFolder.newFolder("direct-dsm-test").toPath();
+    }
+
+    private DiskSpaceManager getDiskSpaceManager() {
+        return new DirectDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    private static byte[] pageContents(int seed) {
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) ((Integer.valueOf(i + seed).hashCode() * 31 + seed) & 0xFF);
+        }
+        return buf;
+    }
+
+    @Test
+    public void testReadWrite() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], readbuf);
+
+        diskSpaceManager.writePage(pageNum, pageContents(0));
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(pageContents(0), readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = diskSpaceManager.allocPages(partNum, 10);
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.writePage(pageNums[i], pageContents(i));
+        }
+
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(pageNums, bufs);
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertArrayEquals(pageContents(i), bufs[i]);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompatibleWithDiskSpaceManagerImpl() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum1, pageContents(1));
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(pageContents(1), readbuf);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum2, pageContents(2));
+        diskSpaceManager.close();
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        assertTrue(diskSpaceManager.pageAllocated(pageNum2));
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(pageContents(2), readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testFallback() throws IOException {
+        // whether or not direct I/O is available here, the handle must work the same
+        String fileName = managerRoot.resolve("0").toString();
+        DirectPartitionHandle pi = new DirectPartitionHandle(0, new DummyRecoveryManager(), true);
+        pi.open(fileName);
+        if (!DirectPartitionHandle.directIOSupported()) {
+            assertFalse(pi.isDirect());
+        }
+        int pageNum = pi.allocPage();
+        pi.writePage(pageNum, ByteBuffer.wrap(pageContents(3)));
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        pi.readPage(pageNum, ByteBuffer.wrap(readbuf));
+        assertArrayEquals(pageContents(3), readbuf);
+        pi.close();
+    }
+}
@@ -10,7 +10,15 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.NoSuchElementException;
 
 import static org.junit.Assert.*;
@@ -201,6 +209,35 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testReadWriteDirectBuffer() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        ByteBuffer writebuf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        writebuf.put(buf);
+        diskSpaceManager.writePage(pageNum, writebuf);
+        ByteBuffer readbuf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        readbuf.position(10).limit(20);
+        diskSpaceManager.readPage(pageNum, readbuf);
+
+        // whole page is transferred regardless of position/limit, which are left alone
+        assertEquals(10, readbuf.position());
+        assertEquals(20, readbuf.limit());
+        byte[] readBytes = new byte[DiskSpaceManager.PAGE_SIZE];
+        readbuf.clear();
+        readbuf.get(readBytes);
+        assertArrayEquals(buf, readBytes);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
     @Test
     public void testReadWritePersistent() {
         diskSpaceManager = getDiskSpaceManager();
@@ -298,5 +335,386 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test(expected = NoSuchElementException.class)
+    public void testSyncBadPart() {
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.sync(1);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testDeferredSyncReadWritePersistent() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true);
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum1);
+        long pageNum2 = diskSpaceManager.allocPage(partNum2);
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.writePage(pageNum2, buf2);
+
+        // unsynced writes are still visible to reads
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+
+        diskSpaceManager.sync(partNum1);
+        diskSpaceManager.syncAll();
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+
+        diskSpaceManager.freePart(partNum1);
+        diskSpaceManager.freePart(partNum2);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long[] pageNums = new long[] {
+            diskSpaceManager.allocPage(partNum1),
+            diskSpaceManager.allocPage(partNum1),
+            diskSpaceManager.allocPage(partNum2),
+            diskSpaceManager.allocPage(partNum1),
+            diskSpaceManager.allocPage(partNum2),
+        };
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            for (int j = 0; j < DiskSpaceManager.PAGE_SIZE; ++j) {
+                bufs[i][j] = (byte) ((Integer.valueOf(j).hashCode() + i) & 0xFF);
+            }
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+
+        // out of order, and interleaved between partitions
+        long[] readNums = new long[] { pageNums[4], pageNums[1], pageNums[0], pageNums[2], pageNums[3] };
+        byte[][] readBufs = new byte[readNums.length][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(readNums, readBufs);
+
+        assertArrayEquals(bufs[4], readBufs[0]);
+        assertArrayEquals(bufs[1], readBufs[1]);
+        assertArrayEquals(bufs[0], readBufs[2]);
+        assertArrayEquals(bufs[2], readBufs[3]);
+        assertArrayEquals(bufs[3], readBufs[4]);
+
+        diskSpaceManager.freePart(partNum1);
+        diskSpaceManager.freePart(partNum2);
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadPagesOutOfBounds() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        try {
+            diskSpaceManager.readPages(new long[] {pageNum, pageNum + 1},
+                                       new byte[2][DiskSpaceManager.PAGE_SIZE]);
+        } finally {
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentAllocReadWrite() throws InterruptedException {
+        int numThreads = 8;
+        int pagesPerThread = 50;
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+
+        List<Long> allocated = Collections.synchronizedList(new ArrayList<>());
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            final int seed = t;
+            threads.add(new Thread(() -> {
+                try {
+                    // each thread allocates and writes its own pages, then reads them back
+                    long[] pageNums = new long[pagesPerThread];
+                    byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                    for (int i = 0; i < pagesPerThread; ++i) {
+                        pageNums[i] = diskSpaceManager.allocPage(partNum);
+                        buf[0] = (byte) seed;
+                        buf[1] = (byte) i;
+                        diskSpaceManager.writePage(pageNums[i], buf);
+                    }
+                    byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+                    for (int i = 0; i < pagesPerThread; ++i) {
+                        diskSpaceManager.readPage(pageNums[i], readbuf);
+                        assertEquals((byte) seed, readbuf[0]);
+                        assertEquals((byte) i, readbuf[1]);
+                        allocated.add(pageNums[i]);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(numThreads * pagesPerThread, new HashSet<>(allocated).size());
+        for (long pageNum : allocated) {
+            assertTrue(diskSpaceManager.pageAllocated(pageNum));
+        }
+
+        // allocations were recorded on disk
+        diskSpaceManager.close();
+        diskSpaceManager = getDiskSpaceManager();
+        for (long pageNum : allocated) {
+            assertTrue(diskSpaceManager.pageAllocated(pageNum));
+        }
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteAsync() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[10];
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(bufs[i], (byte) i);
+            writes.add(diskSpaceManager.writePageAsync(pageNums[i], bufs[i]));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPageAsync(pageNums[3], readbuf).join();
+        assertArrayEquals(bufs[3], readbuf);
+
+        byte[][] readbufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPagesAsync(pageNums, readbufs).join();
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertArrayEquals(bufs[i], readbufs[i]);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadAsyncBadPage() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        CompletableFuture<Void> read = diskSpaceManager.readPageAsync(pageNum + 1, new byte[DiskSpaceManager.PAGE_SIZE]);
+        try {
+            read.join();
+            fail("reading an unallocated page should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof PageException);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPagesContiguous() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long page0 = diskSpaceManager.allocPage(partNum);
+        long page1 = diskSpaceManager.allocPage(partNum);
+        long page2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.freePage(page1);
+
+        // the hole left by page1 is too small, so the run starts after page2
+        long[] pages = diskSpaceManager.allocPages(partNum, 4);
+        assertEquals(4, pages.length);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            assertEquals(page2 + 1 + i, pages[i]);
+            assertTrue(diskSpaceManager.pageAllocated(pages[i]));
+            diskSpaceManager.readPage(pages[i], buf);
+            assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+        }
+
+        // single pages still fill the hole first
+        assertEquals(page1, diskSpaceManager.allocPage(partNum));
+
+        diskSpaceManager.close();
+        diskSpaceManager = getDiskSpaceManager();
+        for (long page : pages) {
+            assertTrue(diskSpaceManager.pageAllocated(page));
+        }
+        assertTrue(diskSpaceManager.pageAllocated(page0));
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPageReusesFreedPages() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true);
+        int partNum = diskSpaceManager.allocPart();
+        long[] pages = new long[300];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, i), pages[i]);
+        }
+        // free pages spread across several groups of the free space summary
+        List<Long> freed = new ArrayList<>();
+        for (int i = 5; i < pages.length; i += 37) {
+            diskSpaceManager.freePage(pages[i]);
+            freed.add(pages[i]);
+        }
+
+        // freed pages are reused lowest first, then new pages are allocated after the rest
+        for (int i = 0; i < freed.size() / 2; ++i) {
+            assertEquals((long) freed.get(i), diskSpaceManager.allocPage(partNum));
+        }
+        diskSpaceManager.close();
+
+        // the summary is rebuilt when the partition is reopened
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = freed.size() / 2; i < freed.size(); ++i) {
+            assertEquals((long) freed.get(i), diskSpaceManager.allocPage(partNum));
+        }
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, pages.length), diskSpaceManager.allocPage(partNum));
+
+        // pages under a later header page don't affect allocation under the first
+        long farPage = DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER + 3);
+        assertEquals(farPage, diskSpaceManager.allocPage(farPage));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, pages.length + 1), diskSpaceManager.allocPage(partNum));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testPartitionsOpenedLazily() {
+        diskSpaceManager = getDiskSpaceManager();
+        long[] pages = new long[5];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(diskSpaceManager.allocPart());
+            buf[0] = (byte) i;
+            diskSpaceManager.writePage(pages[i], buf);
+        }
+        diskSpaceManager.close();
+
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        diskSpaceManager = dsm;
+        assertEquals(0, dsm.getNumOpenPartitions());
+
+        diskSpaceManager.readPage(pages[2], buf);
+        assertEquals(2, buf[0]);
+        assertEquals(1, dsm.getNumOpenPartitions());
+
+        // syncing doesn't need to open anything
+        diskSpaceManager.syncAll();
+        assertEquals(1, dsm.getNumOpenPartitions());
+
+        // new partitions get numbers after the existing (unopened) ones
+        assertEquals(pages.length, diskSpaceManager.allocPart());
+
+        for (long page : pages) {
+            diskSpaceManager.freePart(DiskSpaceManager.getPartNum(page));
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testMaxOpenPartitions() {
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        diskSpaceManager = dsm;
+        dsm.setMaxOpenPartitions(2);
+
+        long[] pages = new long[6];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(diskSpaceManager.allocPart());
+            buf[0] = (byte) i;
+            diskSpaceManager.writePage(pages[i], buf);
+            assertTrue(dsm.getNumOpenPartitions() <= 2);
+        }
+
+        // closed partitions are reopened when used
+        for (int i = 0; i < pages.length; ++i) {
+            diskSpaceManager.readPage(pages[i], buf);
+            assertEquals(i, buf[0]);
+            assertTrue(diskSpaceManager.pageAllocated(pages[i]));
+            assertTrue(dsm.getNumOpenPartitions() <= 2);
+        }
+        long page = diskSpaceManager.allocPage(DiskSpaceManager.getPartNum(pages[0]));
+        assertEquals(pages[0] + 1, page);
+
+        for (long p : pages) {
+            diskSpaceManager.freePart(DiskSpaceManager.getPartNum(p));
+        }
+        assertEquals(0, dsm.getNumOpenPartitions());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testTempPartitions() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        int tempPartNum = diskSpaceManager.allocTempPart();
+
+        assertNotEquals(partNum, tempPartNum);
+        assertTrue(diskSpaceManager.isTempPart(tempPartNum));
+        assertFalse(diskSpaceManager.isTempPart(partNum));
+        assertFalse(managerRoot.resolve(Integer.toString(tempPartNum)).toFile().exists());
+
+        long page1 = diskSpaceManager.allocPage(tempPartNum);
+        long page2 = diskSpaceManager.allocPage(tempPartNum);
+        assertEquals(DiskSpaceManager.getVirtualPageNum(tempPartNum, 0), page1);
+        assertEquals(DiskSpaceManager.getVirtualPageNum(tempPartNum, 1), page2);
+
+        // allocated pages read as zeroes until written
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        buf[0] = 5;
+        diskSpaceManager.readPage(page2, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        buf[0] = 1;
+        diskSpaceManager.writePage(page1, buf);
+        buf[0] = 2;
+        diskSpaceManager.writePage(page2, buf);
+        byte[][] bufs = new byte[2][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(new long[] {page2, page1}, bufs);
+        assertEquals(2, bufs[0][0]);
+        assertEquals(1, bufs[1][0]);
+
+        diskSpaceManager.freePage(page1);
+        assertFalse(diskSpaceManager.pageAllocated(page1));
+        assertTrue(diskSpaceManager.pageAllocated(page2));
+        try {
+            diskSpaceManager.readPage(page1, buf);
+            fail();
+        } catch (PageException e) { /* do nothing */ }
+        assertEquals(page1, diskSpaceManager.allocPage(tempPartNum));
+
+        diskSpaceManager.sync(tempPartNum);
+        diskSpaceManager.freePart(tempPartNum);
+        assertFalse(diskSpaceManager.isTempPart(tempPartNum));
+        try {
+            diskSpaceManager.allocPage(tempPartNum);
+            fail();
+        } catch (NoSuchElementException e) { /* do nothing */ }
+        assertEquals(tempPartNum + 1, diskSpaceManager.allocPart());
+
+        diskSpaceManager.close();
+    }
+}
@@ -0,0 +1,185 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestMappedDiskSpaceManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DiskSpaceManager diskSpaceManager;
+    private Path managerRoot;
+
+    @Before
+    public void beforeEach() throws IOException {
+        managerRoot = tempFolder.newFolder("mapped-dsm-test").toPath();
+    }
+
+    private DiskSpaceManager getDiskSpaceManager() {
+        return new MappedDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    private static byte[] pageContents(int seed) {
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) ((Integer.valueOf(i + seed).hashCode() * 31 + seed) & 0xFF);
+        }
+        return buf;
+    }
+
+    @Test
+    public void testAllocPageZeroed() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWrite() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = pageContents(0);
+        diskSpaceManager.writePage(pageNum, buf);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+
+        assertArrayEquals(buf, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testGrowMapping() {
+        // allocate enough pages to grow the file (and remap the segment) several times
+        int numPages = (int) (3 * MappedPartitionHandle.GROWTH_SIZE / DiskSpaceManager.PAGE_SIZE) + 5;
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(pageNums[i], pageContents(i));
+        }
+
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(pageContents(i), readbuf);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWritePersistent() {
+        diskSpaceManager = new MappedDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager(), true);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum1, pageContents(1));
+        diskSpaceManager.writePage(pageNum2, pageContents(2));
+        diskSpaceManager.syncAll();
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(pageContents(1), readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(pageContents(2), readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompatibleWithDiskSpaceManagerImpl() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum1, pageContents(1));
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(pageContents(1), readbuf);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum2, pageContents(2));
+        diskSpaceManager.close();
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        assertTrue(diskSpaceManager.pageAllocated(pageNum1));
+        assertTrue(diskSpaceManager.pageAllocated(pageNum2));
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(pageContents(2), readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        int numPages = 100;
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(pageNums[i], pageContents(i));
+        }
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; ++t) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+                    for (int i = 0; i < numPages; ++i) {
+                        int index = (i + offset * 13) % numPages;
+                        diskSpaceManager.readPage(pageNums[index], readbuf);
+                        assertArrayEquals(pageContents(index), readbuf);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+}
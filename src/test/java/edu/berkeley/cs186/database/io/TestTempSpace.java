@@ -0,0 +1,135 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestTempSpace {
+    private TempSpace tempSpace;
+
+    @Before
+    public void beforeEach() {
+        tempSpace = new TempSpace(2);
+    }
+
+    @After
+    public void afterEach() {
+        tempSpace.close();
+    }
+
+    @Test
+    public void testSpill() {
+        tempSpace.allocPart(3);
+        long[] pages = new long[5];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = tempSpace.allocPage(3);
+            buf[0] = (byte) i;
+            buf[DiskSpaceManager.PAGE_SIZE - 1] = (byte) -i;
+            tempSpace.writePage(pages[i], buf);
+        }
+        assertEquals(3, tempSpace.getNumSpilledPages());
+
+        for (int i = 0; i < pages.length; ++i) {
+            tempSpace.readPage(pages[i], buf);
+            assertEquals(i, buf[0]);
+            assertEquals(-i, buf[DiskSpaceManager.PAGE_SIZE - 1]);
+        }
+
+        // rewriting a spilled page brings it back into memory, spilling the eldest write
+        buf[0] = 10;
+        tempSpace.writePage(pages[0], buf);
+        assertEquals(3, tempSpace.getNumSpilledPages());
+        tempSpace.readPage(pages[0], buf);
+        assertEquals(10, buf[0]);
+        tempSpace.readPage(pages[3], buf);
+        assertEquals(3, buf[0]);
+
+        tempSpace.freePage(pages[1]);
+        assertEquals(2, tempSpace.getNumSpilledPages());
+        tempSpace.freePart(3);
+        assertEquals(0, tempSpace.getNumSpilledPages());
+        assertFalse(tempSpace.hasPart(3));
+    }
+
+    @Test
+    public void testSpillReusesScratchSpace() {
+        tempSpace.allocPart(1);
+        tempSpace.allocPart(2);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        long[] pages = new long[4];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = tempSpace.allocPage(1 + i % 2);
+            buf[0] = (byte) i;
+            tempSpace.writePage(pages[i], buf);
+        }
+        tempSpace.freePart(1);
+        assertEquals(1, tempSpace.getNumSpilledPages());
+
+        // spilled pages of partition 2 are still intact after partition 1's slots are reused
+        long page = tempSpace.allocPage(2);
+        tempSpace.allocPart(1);
+        for (int i = 0; i < 3; ++i) {
+            buf[0] = (byte) (20 + i);
+            tempSpace.writePage(tempSpace.allocPage(1), buf);
+        }
+        tempSpace.readPage(pages[1], buf);
+        assertEquals(1, buf[0]);
+        tempSpace.readPage(pages[3], buf);
+        assertEquals(3, buf[0]);
+        tempSpace.readPage(page, buf);
+        assertEquals(0, buf[0]);
+    }
+
+    @Test
+    public void testSetMemoryPages() {
+        tempSpace.allocPart(1);
+        tempSpace.allocPart(2);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        long[] pages = new long[2];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = tempSpace.allocPage(1);
+            buf[0] = (byte) i;
+            tempSpace.writePage(pages[i], buf);
+        }
+        tempSpace.setMemoryPages(0);
+        assertEquals(0, tempSpace.getNumSpilledPages());
+
+        // partition 2 has no pages in memory, so its pages are written straight to disk
+        long page = tempSpace.allocPage(2);
+        buf[0] = 5;
+        tempSpace.writePage(page, buf);
+        assertEquals(1, tempSpace.getNumSpilledPages());
+
+        // slots released by partition 1 are not reused past the new limit
+        tempSpace.freePart(1);
+        long page2 = tempSpace.allocPage(2);
+        buf[0] = 6;
+        tempSpace.writePage(page2, buf);
+        assertEquals(2, tempSpace.getNumSpilledPages());
+        tempSpace.readPage(page, buf);
+        assertEquals(5, buf[0]);
+        tempSpace.readPage(page2, buf);
+        assertEquals(6, buf[0]);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testFreeUnallocatedPage() {
+        tempSpace.allocPart(0);
+        tempSpace.freePage(DiskSpaceManager.getVirtualPageNum(0, 1));
+    }
+
+    @Test(expected = PageException.class)
+    public void testWriteUnallocatedPage() {
+        tempSpace.allocPart(0);
+        tempSpace.writePage(DiskSpaceManager.getVirtualPageNum(0, 0), new byte[DiskSpaceManager.PAGE_SIZE]);
+    }
+}
@@ -2,22 +2,40 @@ package edu.berkeley.cs186.database.memory;
 
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyTransactionContext;
+import edu.berkeley.cs186.database.concurrency.LoggingLockManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestBufferManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private DiskSpaceManager diskSpaceManager;
     private BufferManager bufferManager;
 
@@ -34,6 +52,26 @@ public class TestBufferManager {
         diskSpaceManager.close();
     }
 
+    // MemoryDiskSpaceManager isn't thread-safe on its own
+    private static DiskSpaceManager synchronizedDiskSpaceManager() {
+        return new MemoryDiskSpaceManager() {
+            @Override
+            public synchronized void readPage(long page, byte[] buf) {
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public synchronized void writePage(long page, byte[] buf) {
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public synchronized boolean pageAllocated(long page) {
+                return super.pageAllocated(page);
+            }
+        };
+    }
+
     @Test
     public void testFetchNewPage() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -330,4 +368,715 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart(1);
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0));
     }
+
+    @Test
+    public void testReadAhead() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        bufferManager.setReadAheadPages(2);
+
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        assertEquals(1, bufferManager.getNumIOs());
+
+        // second miss in a row is sequential, and reads the next two pages too
+        bufferManager.fetchPageFrame(pageNums[1]).unpin();
+        assertEquals(4, bufferManager.getNumIOs());
+
+        bufferManager.fetchPageFrame(pageNums[2]).unpin();
+        bufferManager.fetchPageFrame(pageNums[3]).unpin();
+        assertEquals(4, bufferManager.getNumIOs());
+
+        // continuing past the read ahead pages is still sequential, but there's nothing
+        // left in the partition to read ahead
+        bufferManager.fetchPageFrame(pageNums[4]).unpin();
+        assertEquals(5, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testNoReadAheadOnRandomAccess() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        bufferManager.setReadAheadPages(2);
+
+        bufferManager.fetchPageFrame(pageNums[3]).unpin();
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        bufferManager.fetchPageFrame(pageNums[2]).unpin();
+        assertEquals(3, bufferManager.getNumIOs());
+        bufferManager.fetchPageFrame(pageNums[1]).unpin();
+        assertEquals(4, bufferManager.getNumIOs());
+    }
+
+    // page numbers of all pages loaded in the buffer manager
+    private Set<Long> loadedPages() {
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        return loaded;
+    }
+
+    @Test
+    public void testAccessStrategy() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[10];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        for (int i = 0; i < 3; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i]).unpin();
+        }
+        assertEquals(3, bufferManager.getNumIOs());
+
+        // scanning through a ring of 2 frames only ever evicts pages the scan loaded
+        BufferAccessStrategy strategy = new BufferAccessStrategy(2);
+        for (int i = 3; i < pageNums.length; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i], strategy).unpin();
+        }
+        assertEquals(10, bufferManager.getNumIOs());
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[1], pageNums[2], pageNums[8],
+                                                 pageNums[9])), loadedPages());
+
+        for (int i = 0; i < 3; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i]).unpin();
+        }
+        // hits don't go through the ring
+        bufferManager.fetchPage(new DummyLockContext(), pageNums[9], strategy).unpin();
+        assertEquals(10, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testAccessStrategyPinnedFrame() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        BufferAccessStrategy strategy = new BufferAccessStrategy(2);
+        Page pinned = bufferManager.fetchPage(new DummyLockContext(), pageNums[0], strategy);
+        bufferManager.fetchPage(new DummyLockContext(), pageNums[1], strategy).unpin();
+        for (int i = 2; i < 5; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i]).unpin();
+        }
+
+        // the ring's frame for page 0 is pinned, so page 5 is loaded with normal eviction,
+        // and its frame takes the place of page 0's in the ring
+        bufferManager.fetchPage(new DummyLockContext(), pageNums[5], strategy).unpin();
+        bufferManager.fetchPage(new DummyLockContext(), pageNums[6], strategy).unpin();
+        bufferManager.fetchPage(new DummyLockContext(), pageNums[7], strategy).unpin();
+        Set<Long> loaded = loadedPages();
+        assertTrue(loaded.contains(pageNums[0]));
+        assertFalse(loaded.contains(pageNums[5]));
+        assertTrue(loaded.contains(pageNums[6]));
+        assertTrue(loaded.contains(pageNums[7]));
+        assertEquals(8, bufferManager.getNumIOs());
+        pinned.unpin();
+    }
+
+    @Test
+    public void testReadAheadInProgress() {
+        CompletableFuture<Void> readAheadDone = new CompletableFuture<>();
+        // disk space manager whose batched reads only finish once readAheadDone is completed
+        diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public CompletableFuture<Void> readPagesAsync(long[] pages, byte[][] bufs) {
+                return readAheadDone.thenRun(() -> readPages(pages, bufs));
+            }
+        };
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[3];
+        byte[] contents = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            contents[BufferManager.RESERVED_SPACE] = (byte) (i + 1);
+            diskSpaceManager.writePage(pageNums[i], contents);
+        }
+        bufferManager.setReadAheadPages(1);
+
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        // starts reading page 2 ahead, but doesn't wait for it
+        bufferManager.fetchPageFrame(pageNums[1]).unpin();
+        assertEquals(3, bufferManager.getNumIOs());
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // complete the read early
+            }
+            readAheadDone.complete(null);
+        }).start();
+
+        // fetching page 2 waits for the read ahead to finish
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[2]);
+        byte[] buf = new byte[1];
+        frame.readBytes((short) 0, (short) 1, buf);
+        frame.unpin();
+        assertEquals(3, buf[0]);
+        assertEquals(3, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testReadAheadFailed() {
+        // disk space manager whose batched reads always fail
+        diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public CompletableFuture<Void> readPagesAsync(long[] pages, byte[][] bufs) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(new PageException("read failed"));
+                return future;
+            }
+        };
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[3];
+        byte[] contents = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            contents[BufferManager.RESERVED_SPACE] = (byte) (i + 1);
+            diskSpaceManager.writePage(pageNums[i], contents);
+        }
+        bufferManager.setReadAheadPages(1);
+
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        bufferManager.fetchPageFrame(pageNums[1]).unpin();
+        assertEquals(3, bufferManager.getNumIOs());
+
+        // page 2 is read again when fetched
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[2]);
+        byte[] buf = new byte[1];
+        frame.readBytes((short) 0, (short) 1, buf);
+        frame.unpin();
+        assertEquals(3, buf[0]);
+        assertEquals(4, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testConcurrentFetch() throws InterruptedException {
+        DiskSpaceManager dsm = synchronizedDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), 5,
+                new ClockEvictionPolicy());
+        int partNum = dsm.allocPart(1);
+        long[] pageNums = new long[20];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+
+        // each thread hits a few pages repeatedly, and misses on the rest
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    byte[] buf = new byte[1];
+                    for (int i = 0; i < 500; ++i) {
+                        int index = (i % 3 == 0) ? (i * 7 + offset) % pageNums.length : offset;
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[index]);
+                        try {
+                            frame.readBytes((short) 0, (short) 1, buf);
+                            assertEquals(index, buf[0]);
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        bufferManager.close();
+    }
+
+    @Test
+    public void testConcurrentSharedReadsLRU() throws InterruptedException {
+        DiskSpaceManager dsm = synchronizedDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), 8,
+                new LRUEvictionPolicy());
+        int partNum = dsm.allocPart(1);
+        long[] pageNums = new long[16];
+        for (int i = 0; i < pageNums.length; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            page.getBuffer().put((byte) i);
+            pageNums[i] = page.getPageNum();
+            page.unpin();
+        }
+
+        // readers holding shared latches hit the same frames at the same time
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10000; ++i) {
+                        int index = (i % 10 == 0) ? (i + offset) % pageNums.length : i % 2;
+                        Page page = bufferManager.fetchPageShared(new DummyLockContext(), pageNums[index]);
+                        try {
+                            assertEquals(index, page.getBuffer().get());
+                        } finally {
+                            page.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        // every frame must still be in the LRU list: pinning a new page in each of them
+        // evicts all of them
+        List<Page> pinned = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            pinned.add(bufferManager.fetchNewPage(new DummyLockContext(), partNum));
+        }
+        for (Page page : pinned) {
+            page.unpin();
+        }
+        bufferManager.close();
+    }
+
+    @Test
+    public void testSharedPin() throws Exception {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        long pageNum = frame.getPageNum();
+        frame.writeBytes((short) 0, (short) 1, new byte[] {7});
+        frame.unpin();
+
+        Page page = bufferManager.fetchPageShared(new DummyLockContext(), pageNum);
+        try {
+            // other threads can pin the page in shared mode, but not in exclusive mode
+            CompletableFuture<Byte> sharedRead = CompletableFuture.supplyAsync(() -> {
+                Page other = bufferManager.fetchPageShared(new DummyLockContext(), pageNum);
+                try {
+                    return other.getBuffer().get();
+                } finally {
+                    other.unpin();
+                }
+            });
+            assertEquals(7, (byte) sharedRead.get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<Void> exclusivePin = CompletableFuture.runAsync(() ->
+                    bufferManager.fetchPage(new DummyLockContext(), pageNum).unpin());
+            Thread.sleep(50);
+            assertFalse(exclusivePin.isDone());
+
+            assertEquals(7, page.getBuffer().get());
+            try {
+                page.getBuffer().put((byte) 8);
+                fail();
+            } catch (IllegalStateException e) { /* do nothing */ }
+            try {
+                bufferManager.fetchPage(new DummyLockContext(), pageNum);
+                fail();
+            } catch (IllegalStateException e) { /* do nothing */ }
+
+            page.unpin();
+            exclusivePin.get(5, TimeUnit.SECONDS);
+        } finally {
+            if (frame.isPinned()) {
+                page.unpin();
+            }
+        }
+
+        // the same page handle can later be pinned in exclusive mode, and written to
+        page.pin();
+        page.getBuffer().put((byte) 8);
+        page.unpin();
+        page.pinShared();
+        assertEquals(8, page.getBuffer().get());
+        page.unpin();
+    }
+
+    @Test
+    public void testBackgroundCleaner() throws InterruptedException {
+        DiskSpaceManager dsm = synchronizedDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), 5,
+                new ClockEvictionPolicy());
+        int partNum = dsm.allocPart(1);
+        BufferFrame[] frames = new BufferFrame[4];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            if (i > 0) {
+                frames[i].unpin();
+            }
+        }
+        long numIOs = bufferManager.getNumIOs();
+
+        // the pinned page is left alone
+        bufferManager.setCleanTarget(1.0);
+        for (int i = 0; i < 500 && bufferManager.getNumPagesCleaned() < 3; ++i) {
+            Thread.sleep(10);
+        }
+        bufferManager.setCleanTarget(0);
+        assertEquals(3, bufferManager.getNumPagesCleaned());
+        assertEquals(numIOs + 3, bufferManager.getNumIOs());
+        bufferManager.iterPageNums((pageNum, dirty) ->
+                assertEquals(pageNum == frames[0].getPageNum(), dirty));
+        frames[0].unpin();
+
+        // only the page the cleaner couldn't write needs a write to be evicted
+        bufferManager.evictAll();
+        assertEquals(numIOs + 4, bufferManager.getNumIOs());
+        assertEquals(3, bufferManager.getNumWritesAvoided());
+
+        BufferFrame frame = bufferManager.fetchPageFrame(frames[2].getPageNum());
+        byte[] buf = new byte[1];
+        frame.readBytes((short) 0, (short) 1, buf);
+        frame.unpin();
+        assertEquals(2, buf[0]);
+        bufferManager.close();
+    }
+
+    @Test
+    public void testWarmup() throws IOException {
+        Path warmupFile = tempFolder.getRoot().toPath().resolve("warmup");
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        // no saved set yet
+        bufferManager.setWarmupFile(warmupFile, 0);
+        bufferManager.preloadResidentPages().join();
+        assertEquals(0, bufferManager.getNumIOs());
+
+        for (int i = 0; i < 3; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i * 2]).unpin();
+        }
+        bufferManager.close();
+
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new ClockEvictionPolicy());
+        bufferManager.setWarmupFile(warmupFile, 0);
+        bufferManager.preloadResidentPages().join();
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[2], pageNums[4])), loadedPages());
+        assertEquals(3, bufferManager.getNumIOs());
+        for (int i = 0; i < 3; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i * 2]).unpin();
+        }
+        assertEquals(3, bufferManager.getNumIOs());
+
+        // emptying the buffer doesn't lose the saved set
+        bufferManager.evictAll();
+        bufferManager.saveResidentPages();
+        bufferManager.close();
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new ClockEvictionPolicy());
+        bufferManager.setWarmupFile(warmupFile, 0);
+        bufferManager.preloadResidentPages().join();
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[2], pageNums[4])), loadedPages());
+    }
+
+    @Test
+    public void testWarmupHottestPages() {
+        Path warmupFile = tempFolder.getRoot().toPath().resolve("warmup");
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        bufferManager.setWarmupFile(warmupFile, 0);
+        for (int i = 0; i < pageNums.length; ++i) {
+            // fetch page i (i + 1) times
+            for (int j = 0; j <= i; ++j) {
+                bufferManager.fetchPage(new DummyLockContext(), pageNums[i]).unpin();
+            }
+        }
+        bufferManager.close();
+        diskSpaceManager.freePage(pageNums[4]);
+
+        // only the hottest pages fit, and freed pages are skipped
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 3,
+                                          new ClockEvictionPolicy());
+        bufferManager.setWarmupFile(warmupFile, 0);
+        bufferManager.preloadResidentPages().join();
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[2], pageNums[3])), loadedPages());
+
+        // a full buffer isn't preloaded into
+        bufferManager.close();
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 3,
+                                          new ClockEvictionPolicy());
+        for (int i = 0; i < 3; ++i) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i]).unpin();
+        }
+        bufferManager.setWarmupFile(warmupFile, 0);
+        bufferManager.preloadResidentPages().join();
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[1], pageNums[2])), loadedPages());
+    }
+
+    @Test
+    public void testWarmupPeriodicSave() throws InterruptedException {
+        Path warmupFile = tempFolder.getRoot().toPath().resolve("warmup");
+        int partNum = diskSpaceManager.allocPart(1);
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        bufferManager.setWarmupFile(warmupFile, 10);
+        bufferManager.fetchPage(new DummyLockContext(), pageNum).unpin();
+        for (int i = 0; i < 500 && !warmupFile.toFile().exists(); ++i) {
+            Thread.sleep(10);
+        }
+        assertTrue(warmupFile.toFile().exists());
+    }
+
+    @Test
+    public void testResize() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[10];
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        for (int i = 5; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        long ios = bufferManager.getNumIOs();
+
+        // growing adds free frames, so nothing is evicted to load more pages
+        bufferManager.resize(8);
+        assertEquals(8, bufferManager.getBufferSize());
+        for (int i = 5; i < 8; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i]).unpin();
+        }
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[1], pageNums[2], pageNums[3],
+                                                 pageNums[4], pageNums[5], pageNums[6], pageNums[7])),
+                     loadedPages());
+        assertEquals(ios + 3, bufferManager.getNumIOs());
+
+        // shrinking evicts the pages in the frames removed, writing out dirty ones
+        bufferManager.resize(3);
+        assertEquals(3, bufferManager.getBufferSize());
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[1], pageNums[2])), loadedPages());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNums[4], buf);
+        assertEquals(4, buf[BufferManager.RESERVED_SPACE]);
+
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+            frame.unpin();
+        }
+        assertEquals(3, loadedPages().size());
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[4]);
+        frame.readBytes((short) 0, (short) 1, buf);
+        frame.unpin();
+        assertEquals(4, buf[0]);
+    }
+
+    @Test
+    public void testResizePinned() throws InterruptedException {
+        bufferManager.close();
+        diskSpaceManager = synchronizedDiskSpaceManager();
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[7];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        for (int i = 0; i < 5; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i]).unpin();
+        }
+        BufferFrame pinned = bufferManager.fetchPageFrame(pageNums[4]);
+        pinned.writeBytes((short) 0, (short) 1, new byte[] {42});
+
+        Thread resizer = new Thread(() -> bufferManager.resize(2));
+        resizer.start();
+        resizer.join(100);
+        assertTrue(resizer.isAlive());
+
+        // the buffer keeps working while the resize waits for the pinned page, without
+        // loading pages into frames being removed
+        for (int i = 5; i < pageNums.length; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i]).unpin();
+        }
+        Set<Long> loaded = loadedPages();
+        assertTrue(loaded.contains(pageNums[4]));
+        assertTrue(loaded.contains(pageNums[5]));
+        assertTrue(loaded.contains(pageNums[6]));
+        assertEquals(3, loaded.size());
+
+        pinned.unpin();
+        resizer.join(10000);
+        assertFalse(resizer.isAlive());
+        assertEquals(2, bufferManager.getBufferSize());
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[5], pageNums[6])), loadedPages());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNums[4], buf);
+        assertEquals(42, buf[BufferManager.RESERVED_SPACE]);
+    }
+
+    @Test
+    public void testResizeConcurrent() throws InterruptedException {
+        bufferManager.close();
+        DiskSpaceManager dsm = synchronizedDiskSpaceManager();
+        bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), 8,
+                                          new LRUEvictionPolicy());
+        int partNum = dsm.allocPart(1);
+        long[] pageNums = new long[20];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    byte[] buf = new byte[1];
+                    for (int i = 0; !done.get(); ++i) {
+                        int index = (i * 7 + offset) % pageNums.length;
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[index]);
+                        try {
+                            frame.readBytes((short) 0, (short) 1, buf);
+                            assertEquals(index, buf[0]);
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (int size : new int[] {16, 6, 12, 5, 30, 8}) {
+            bufferManager.resize(size);
+            Thread.sleep(10);
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(8, bufferManager.getBufferSize());
+        assertTrue(loadedPages().size() <= 8);
+    }
+
+    @Test
+    public void testStats() {
+        int tablePart = diskSpaceManager.allocPart(1);
+        int indexPart = diskSpaceManager.allocPart(2);
+        bufferManager.registerIndexPartition(indexPart);
+        long tablePage = diskSpaceManager.allocPage(tablePart);
+        long indexPage = diskSpaceManager.allocPage(indexPart);
+
+        BufferFrame frame = bufferManager.fetchPageFrame(tablePage);
+        frame.unpin();
+        frame = bufferManager.fetchPageFrame(tablePage);
+        frame.writeBytes((short) 0, (short) 1, new byte[] {42});
+        assertEquals(1, bufferManager.getStats().getFramesPinned());
+        frame.unpin();
+        Page page = bufferManager.fetchPage(new DummyLockContext(), indexPage);
+        page.unpin();
+
+        bufferManager.evict(tablePage);
+        bufferManager.evict(indexPage);
+
+        BufferStats stats = bufferManager.getStats();
+        assertEquals(5, stats.getBufferSize());
+        assertEquals(0, stats.getFramesPinned());
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(1.0 / 3, stats.getHitRatio(), 1e-9);
+        assertEquals(new HashSet<>(Arrays.asList(tablePart, indexPart)), stats.getPartitions());
+        assertEquals(0.5, stats.getHitRatio(tablePart), 1e-9);
+        assertEquals(0, stats.getHits(indexPart));
+        assertEquals(1, stats.getMisses(indexPart));
+        assertEquals(1, stats.getDirtyEvictions());
+        assertEquals(1, stats.getCleanEvictions());
+        assertEquals(1, stats.getNumPins());
+        assertEquals(1, stats.getReads(BufferStats.PageType.TABLE));
+        assertEquals(1, stats.getReads(BufferStats.PageType.INDEX));
+        assertEquals(1, stats.getWrites(BufferStats.PageType.TABLE));
+        assertEquals(0, stats.getWrites(BufferStats.PageType.INDEX));
+
+        // freed partitions are dropped from the per-partition counters
+        bufferManager.freePart(indexPart);
+        assertEquals(Collections.singleton(tablePart), bufferManager.getStats().getPartitions());
+    }
+
+    @Test
+    public void testWriteSession() {
+        // (offset, length) of each update record logged
+        List<List<Integer>> logged = new ArrayList<>();
+        bufferManager.close();
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager() {
+            @Override
+            public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+                                     byte[] after) {
+                logged.add(Arrays.asList((int) pageOffset, before.length));
+                return logged.size();
+            }
+        }, 5, new ClockEvictionPolicy());
+        TransactionContext.setTransaction(new DummyTransactionContext(new LoggingLockManager(), 1));
+        try {
+            int partNum = diskSpaceManager.allocPart(1);
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            try {
+                // writes outside of a session are logged one by one
+                page.getBuffer().position(8).putInt(1).putInt(2);
+                assertEquals(Arrays.asList(Arrays.asList(11, 1), Arrays.asList(15, 1)), logged);
+                logged.clear();
+
+                // writes in a session are logged when it is committed, as one record per region
+                page.beginWrite();
+                page.getBuffer().position(8).putInt(3).putInt(4);
+                page.getBuffer().position(1000).putInt(5);
+                page.beginWrite();
+                page.getBuffer().position(12).putInt(4);
+                page.commitWrite();
+                assertEquals(Collections.emptyList(), logged);
+                page.commitWrite();
+                assertEquals(Arrays.asList(Arrays.asList(11, 5), Arrays.asList(1003, 1)), logged);
+                assertEquals(2, page.getPageLSN());
+                logged.clear();
+
+                // flushing the page logs the session's writes so far first
+                page.beginWrite();
+                page.getBuffer().position(8).putInt(6);
+                page.flush();
+                assertEquals(Collections.singletonList(Arrays.asList(11, 1)), logged);
+                page.getBuffer().position(8).putInt(7);
+            } finally {
+                page.unpin();
+            }
+            // unpinning the page commits the session
+            assertEquals(2, logged.size());
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
 }
@@ -1,11 +1,25 @@
 package edu.berkeley.cs186.database.memory;
 
+import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Table;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -32,7 +46,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -193,4 +207,210 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testTwoQPolicy() {
+        // only back-to-back references are correlated
+        EvictionPolicy policy = new TwoQEvictionPolicy(0.25, 0.5, 1);
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+
+        // referenced again after other pages were used - moves to Am
+        policy.hit(frames[1]);
+
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+
+        // back-to-back hits are a single reference - stays in A1in
+        policy.init(frames[4]); policy.hit(frames[4]); policy.hit(frames[4]);
+
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[4], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+
+        // page 0 was evicted from A1in recently, so comes back into Am
+        policy.init(frames[0]); policy.hit(frames[0]);
+        frames[3].pin();
+
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[4], frames[1], frames[0], frames[3]}));
+        policy.cleanup(frames[4]);
+
+        policy.init(frames[5]); policy.hit(frames[5]);
+        frames[3].unpin();
+        policy.hit(frames[1]);
+
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[5], frames[1], frames[0], frames[3]}));
+        policy.cleanup(frames[3]);
+
+        // A1in is down to its share of the buffer - evict least recently used page of Am
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[5], frames[1], frames[0], placeholderFrames[3]}));
+        policy.cleanup(frames[0]);
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[5], frames[1], placeholderFrames[2], placeholderFrames[3]}));
+        policy.cleanup(frames[1]);
+        boolean exceptionThrown = false;
+        frames[5].pin();
+        try {
+            policy.evict(new BufferFrame[] {frames[5], placeholderFrames[1], placeholderFrames[2], placeholderFrames[3]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+
+        frames[5].unpin();
+        assertEquals(frames[5], policy.evict(new BufferFrame[] {frames[5], placeholderFrames[1], placeholderFrames[2], placeholderFrames[3]}));
+        policy.cleanup(frames[5]);
+    }
+
+    @Test
+    public void testLRUKPolicy() {
+        // only back-to-back references are correlated
+        EvictionPolicy policy = new LRUKEvictionPolicy(2, 1);
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+
+        // second references to 0 and 2 (the repeated hit on 0 is correlated)
+        policy.hit(frames[0]); policy.hit(frames[0]);
+        policy.hit(frames[2]);
+
+        // 1 and 3 have only been referenced once, and 1 was used less recently
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+
+        // history of page 1 was retained, so this is its second reference
+        policy.init(frames[1]); policy.hit(frames[1]);
+
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[3]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+        frames[4].pin();
+
+        // of the pages referenced twice, 0 has the oldest second-to-last reference
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[4]}));
+        policy.cleanup(frames[0]);
+
+        // (the second hit on 1 puts 5 outside its correlated reference period)
+        policy.init(frames[5]); policy.hit(frames[5]);
+        policy.hit(frames[1]); policy.hit(frames[1]);
+
+        assertEquals(frames[5], policy.evict(new BufferFrame[] {frames[5], frames[1], frames[2], frames[4]}));
+        policy.cleanup(frames[5]);
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], frames[1], frames[2], frames[4]}));
+        policy.cleanup(frames[2]);
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {placeholderFrames[0], frames[1], placeholderFrames[2], frames[4]}));
+        policy.cleanup(frames[1]);
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], placeholderFrames[2], frames[4]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+
+        frames[4].unpin();
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], placeholderFrames[2], frames[4]}));
+        policy.cleanup(frames[4]);
+    }
+
+    @Test
+    public void testCorrelatedReferencePeriod() {
+        // a page read alongside another one (as a data page is read alongside its page
+        // directory) is only referenced once, but a page read again after a while is not
+        EvictionPolicy twoQ = new TwoQEvictionPolicy(0.25, 0.5, 4);
+        EvictionPolicy lruK = new LRUKEvictionPolicy(2, 4);
+        for (EvictionPolicy policy : new EvictionPolicy[] {twoQ, lruK}) {
+            policy.init(frames[0]);
+            policy.init(frames[1]);
+            policy.hit(frames[1]); policy.hit(frames[0]); policy.hit(frames[0]); policy.hit(frames[1]);
+            policy.init(frames[2]);
+            policy.init(frames[3]); policy.hit(frames[3]); policy.hit(frames[3]);
+            policy.hit(frames[3]); policy.hit(frames[3]); policy.hit(frames[3]);
+            policy.hit(frames[2]);
+            policy.init(frames[4]);
+
+            // 2 was referenced again outside its correlated reference period, so it is kept
+            // over the pages only referenced once
+            BufferFrame[] all = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3], frames[4]};
+            assertEquals(frames[0], policy.evict(all));
+            policy.cleanup(frames[0]);
+            all[0] = placeholderFrames[0];
+            assertEquals(frames[1], policy.evict(all));
+            policy.cleanup(frames[1]);
+            all[1] = placeholderFrames[1];
+            assertEquals(frames[3], policy.evict(all));
+            for (BufferFrame frame : new BufferFrame[] {frames[2], frames[3], frames[4]}) {
+                policy.cleanup(frame);
+            }
+        }
+    }
+
+    /**
+     * Replays a trace of point lookups on a small table, interleaved with full scans of a
+     * larger table, through a buffer manager using the given policy.
+     * @return number of I/Os done while replaying the trace
+     */
+    private static long replayLookupsAndScans(EvictionPolicy policy) {
+        int numFrames = 24;
+        int numHotPages = 8;
+        int numScanPages = 60;
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                numFrames, policy);
+        try {
+            List<RecordId> hotRecords = new ArrayList<>();
+            Table hotTable = createTable(bufferManager, diskSpaceManager.allocPart(1), numHotPages, hotRecords);
+            Table scanTable = createTable(bufferManager, diskSpaceManager.allocPart(2), numScanPages,
+                                          new ArrayList<>());
+            bufferManager.evictAll();
+
+            long startIOs = bufferManager.getNumIOs();
+            Random random = new Random(186);
+            for (int round = 0; round < 5; ++round) {
+                for (int i = 0; i < 100; ++i) {
+                    hotTable.getRecord(hotRecords.get(random.nextInt(hotRecords.size())));
+                }
+                Iterator<Record> records = scanTable.iterator();
+                while (records.hasNext()) {
+                    records.next();
+                }
+            }
+            return bufferManager.getNumIOs() - startIOs;
+        } finally {
+            bufferManager.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    private static Table createTable(BufferManager bufferManager, int partNum, int numPages,
+                                     List<RecordId> rids) {
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        PageDirectory pageDirectory;
+        try {
+            pageDirectory = new PageDirectory(bufferManager, partNum, page.getPageNum(), (short) 0,
+                                              new DummyLockContext());
+        } finally {
+            page.unpin();
+        }
+        Table table = new Table("table" + partNum, TestUtils.createSchemaWithAllTypes(), pageDirectory,
+                                new DummyLockContext());
+        for (int i = 0; i < numPages * table.getNumRecordsPerPage(); ++i) {
+            rids.add(table.addRecord(new Record(false, i, "a", 1.2f)));
+        }
+        return table;
+    }
+
+    @Test
+    public void testScanResistance() {
+        long lruIOs = replayLookupsAndScans(new LRUEvictionPolicy());
+        long clockIOs = replayLookupsAndScans(new ClockEvictionPolicy());
+        long twoQIOs = replayLookupsAndScans(new TwoQEvictionPolicy());
+        long lruKIOs = replayLookupsAndScans(new LRUKEvictionPolicy());
+
+        // every scan evicts the hot pages under LRU and clock, but not under 2Q and LRU-2
+        assertTrue(twoQIOs < lruIOs && twoQIOs < clockIOs);
+        assertTrue(lruKIOs < lruIOs && lruKIOs < clockIOs);
+    }
 }
@@ -15,6 +15,7 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
@@ -81,7 +82,7 @@ class DummyTransaction extends Transaction {
     }
 
     @Override
-    public void createTable(Schema s, String tableName) {}
+    public void createTable(Schema s, String tableName, Table.RecordFormat format) {}
 
     @Override
     public void dropTable(String tableName) {}
@@ -108,6 +109,9 @@ class DummyTransaction extends Transaction {
     @Override
     public void insert(String tableName, Record values) {}
 
+    @Override
+    public void insertAll(String tableName, List<Record> records) {}
+
     @Override
     public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue) {}
 
@@ -200,6 +204,11 @@ class DummyTransaction extends Transaction {
             return null;
         }
 
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns) {
+            return null;
+        }
+
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
             return false;
@@ -210,6 +219,11 @@ class DummyTransaction extends Transaction {
             return null;
         }
 
+        @Override
+        public List<RecordId> addRecords(String tableName, List<Record> records) {
+            return null;
+        }
+
         @Override
         public RecordId deleteRecord(String tableName, RecordId rid) {
             return null;
@@ -190,6 +190,55 @@ public class TestPageDirectory {
         } catch (IllegalArgumentException e) { /* do nothing */ }
     }
 
+    @Test
+    public void testGetPageWithSpaceManyHeaderPages() {
+        Page headerPage = bufferManager.fetchNewPage(new DummyLockContext(), 0);
+        long headerPageNum = headerPage.getPageNum();
+        headerPage.unpin();
+        createPageDirectory(headerPageNum, (short) 10);
+
+        // fill enough full data pages to span several header pages
+        short pageSize = (short) (pageDirectory.getEffectivePageSize() - 10);
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            Page page = pageDirectory.getPageWithSpace(pageSize);
+            page.unpin();
+            pages.add(page);
+        }
+
+        // leave holes of different sizes near the start and end of the directory
+        pageDirectory.updateFreeSpace(pages.get(10), (short) 20);
+        pageDirectory.updateFreeSpace(pages.get(900), (short) 200);
+
+        // finding the page takes no fetches (of header pages), just the fetch of the data page
+        long fetches = bufferManager.getStats().getHits() + bufferManager.getStats().getMisses();
+        Page p = pageDirectory.getPageWithSpace((short) 100);
+        p.unpin();
+        assertEquals(pages.get(900), p);
+        assertEquals(fetches + 1, bufferManager.getStats().getHits() + bufferManager.getStats().getMisses());
+
+        p = pageDirectory.getPageWithSpace((short) 20);
+        p.unpin();
+        assertEquals(pages.get(10), p);
+
+        // a slot freed in the first header page comes before the remaining free space
+        // on page 900
+        pageDirectory.updateFreeSpace(pages.get(5), pageSize);
+        p = pageDirectory.getPageWithSpace(pageSize);
+        p.unpin();
+        assertFalse(pages.contains(p));
+
+        // the free space is found again after loading the page directory from its header pages
+        createPageDirectory(headerPageNum, (short) 10);
+        p = pageDirectory.getPageWithSpace((short) 100);
+        p.unpin();
+        assertEquals(pages.get(900), p);
+        p = pageDirectory.getPageWithSpace((short) 100);
+        p.unpin();
+        assertFalse(pages.contains(p));
+        assertNotEquals(pages.get(900), p);
+    }
+
     @Test
     public void testIterator() {
         createPageDirectory((short) 0);
@@ -248,4 +297,39 @@ public class TestPageDirectory {
             assertEquals(page, p);
         }
     }
+
+    @Test
+    public void testExtentAllocation() {
+        createPageDirectory((short) 10);
+        pageDirectory.setExtentSize(4);
+
+        short pageSize = (short) (pageDirectory.getEffectivePageSize() - 10);
+        Page p1 = pageDirectory.getPageWithSpace(pageSize);
+        p1.unpin();
+        // the whole extent is recorded, though only one page has been used
+        assertEquals(4, pageDirectory.getNumDataPages());
+
+        List<Page> pages = new ArrayList<>();
+        pages.add(p1);
+        for (int i = 0; i < 4; ++i) {
+            Page page = pageDirectory.getPageWithSpace(pageSize);
+            page.unpin();
+            pages.add(page);
+        }
+        assertEquals(8, pageDirectory.getNumDataPages());
+
+        // pages of an extent are used in order, and are contiguous
+        for (int i = 1; i < 4; ++i) {
+            assertEquals(pages.get(0).getPageNum() + i, pages.get(i).getPageNum());
+        }
+
+        // empty pages of the extent are still managed by the page directory
+        Iterator<Page> iter = pageDirectory.iterator();
+        int numPages = 0;
+        while (iter.hasNext()) {
+            iter.next().unpin();
+            ++numPages;
+        }
+        assertEquals(8, numPages);
+    }
 }
@@ -6,6 +6,7 @@ import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
@@ -20,6 +21,10 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -40,6 +45,8 @@ public class TestTable {
     public void setup() {
         DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
         diskSpaceManager.allocPart(1);
+        diskSpaceManager.allocPart(2);
+        diskSpaceManager.allocPart(3);
         this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
                 new ClockEvictionPolicy());
         this.schema = TestUtils.createSchemaWithAllTypes();
@@ -457,4 +464,409 @@ public class TestTable {
         checkSequentialRecords(1, numRecords, 2, iter);
         assertFalse(iter.hasNext());
     }
+
+    private PageDirectory createPageDirectory(int partNum) {
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        try {
+            return new PageDirectory(bufferManager, partNum, page.getPageNum(), (short) 0, new DummyLockContext());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private Table createSlottedTable(Schema schema) {
+        return new Table("slotted", schema, createPageDirectory(2), new DummyLockContext(),
+                         new HashMap<>(), Table.RecordFormat.SLOTTED);
+    }
+
+    private Table createPaxTable() {
+        return new Table("pax", schema, createPageDirectory(2), new DummyLockContext(),
+                         new HashMap<>(), Table.RecordFormat.PAX);
+    }
+
+    private static Schema createSchemaWithLongString() {
+        return new Schema().add("id", Type.intType()).add("name", Type.stringType(255));
+    }
+
+    /**
+     * Test that a slotted table stores short values of a wide string column in
+     * far fewer pages than a fixed-width table.
+     */
+    @Test
+    public void testSlottedInsertAndGet() {
+        Schema schema = createSchemaWithLongString();
+        Table slotted = createSlottedTable(schema);
+        Table fixed = new Table("fixed", schema, createPageDirectory(3), new DummyLockContext());
+        assertEquals(Table.RecordFormat.SLOTTED, slotted.getRecordFormat());
+
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            Record r = new Record(i, "name" + i);
+            rids.add(slotted.addRecord(r));
+            fixed.addRecord(r);
+        }
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(new Record(i, "name" + i), slotted.getRecord(rids.get(i)));
+        }
+        // 15 records per page fixed, versus (4050 - 4) / (4 + 1 + 4 + 2 + 7) = 224 slotted
+        assertEquals(67, fixed.getNumDataPages());
+        assertEquals(5, slotted.getNumDataPages());
+
+        int count = 0;
+        for (Record r : slotted) {
+            assertEquals(new Record(count, "name" + count), r);
+            ++count;
+        }
+        assertEquals(1000, count);
+    }
+
+    /**
+     * Test updating records in a slotted table so that they no longer fit on
+     * their page, and back again.
+     */
+    @Test
+    public void testSlottedUpdateForwarding() {
+        Schema schema = createSchemaWithLongString();
+        Table slotted = createSlottedTable(schema);
+
+        // fill up the first page with short records
+        List<RecordId> rids = new ArrayList<>();
+        long firstPage = -1;
+        for (int i = 0; ; ++i) {
+            RecordId rid = slotted.addRecord(new Record(i, "x"));
+            if (firstPage == -1) {
+                firstPage = rid.getPageNum();
+            } else if (rid.getPageNum() != firstPage) {
+                slotted.deleteRecord(rid);
+                break;
+            }
+            rids.add(rid);
+        }
+
+        // grow every 10th record: the first page runs out of space, so later
+        // ones are forwarded to other pages but keep their record ids
+        String longString = new String(new char[255]).replace('\0', 'y');
+        for (int i = 0; i < rids.size(); i += 10) {
+            assertEquals(new Record(i, "x"), slotted.updateRecord(rids.get(i), new Record(i, longString)));
+        }
+        assertTrue(slotted.getNumDataPages() > 1);
+        for (int i = 0; i < rids.size(); ++i) {
+            String expected = i % 10 == 0 ? longString : "x";
+            assertEquals(new Record(i, expected), slotted.getRecord(rids.get(i)));
+        }
+
+        // a scan returns every record once, including the moved ones
+        int count = 0;
+        Iterator<RecordId> ridIter = slotted.ridIterator();
+        while (ridIter.hasNext()) {
+            assertEquals(firstPage, ridIter.next().getPageNum());
+            ++count;
+        }
+        assertEquals(rids.size(), count);
+
+        // shrink them again, then update a moved record again
+        for (int i = 0; i < rids.size(); i += 10) {
+            slotted.updateRecord(rids.get(i), new Record(i, "z"));
+        }
+        slotted.updateRecord(rids.get(rids.size() - 1), new Record(-1, longString));
+        assertEquals(new Record(-1, longString), slotted.getRecord(rids.get(rids.size() - 1)));
+        for (int i = 0; i < rids.size() - 1; i += 10) {
+            assertEquals(new Record(i, "z"), slotted.getRecord(rids.get(i)));
+        }
+
+        // deleting everything (including moved records) frees all pages
+        for (RecordId rid : rids) {
+            slotted.deleteRecord(rid);
+        }
+        // (getNumDataPages counts pages allocated since the table was loaded)
+        Iterator<Page> pages = slotted.pageIterator();
+        assertFalse(pages.hasNext());
+        try {
+            slotted.getRecord(rids.get(0));
+            fail();
+        } catch (DatabaseException e) {
+            /* do nothing */
+        }
+    }
+
+    /**
+     * Test inserting into a slotted page whose records were all forwarded:
+     * the forwarding records leave room for more slots than there were
+     * records originally.
+     */
+    @Test
+    public void testSlottedInsertAfterForwarding() {
+        Schema schema = new Schema().add("id", Type.intType()).add("a", Type.longType())
+        .add("b", Type.longType()).add("name", Type.stringType(3000));
+        Table slotted = createSlottedTable(schema);
+
+        List<RecordId> rids = new ArrayList<>();
+        long firstPage = -1;
+        for (int i = 0; ; ++i) {
+            RecordId rid = slotted.addRecord(new Record(i, (long) i, (long) i, "x"));
+            if (firstPage == -1) {
+                firstPage = rid.getPageNum();
+            } else if (rid.getPageNum() != firstPage) {
+                slotted.deleteRecord(rid);
+                break;
+            }
+            rids.add(rid);
+        }
+        int numForwarded = rids.size();
+        String longString = new String(new char[3000]).replace('\0', 'y');
+        for (int i = 0; i < numForwarded; ++i) {
+            slotted.updateRecord(rids.get(i), new Record(i, (long) i, (long) i, longString));
+        }
+        for (int i = numForwarded; i < numForwarded + 200; ++i) {
+            rids.add(slotted.addRecord(new Record(i, (long) i, (long) i, "x")));
+        }
+
+        for (int i = 0; i < rids.size(); ++i) {
+            assertTrue(rids.get(i).getEntryNum() < slotted.getNumRecordsPerPage());
+            String expected = i < numForwarded ? longString : "x";
+            assertEquals(new Record(i, (long) i, (long) i, expected), slotted.getRecord(rids.get(i)));
+        }
+        int count = 0;
+        for (Record r : slotted) {
+            ++count;
+        }
+        assertEquals(rids.size(), count);
+    }
+
+    /**
+     * Test that space freed by deletes in a slotted table is reused.
+     */
+    @Test
+    public void testSlottedDeleteAndReuse() {
+        Schema schema = createSchemaWithLongString();
+        Table slotted = createSlottedTable(schema);
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            rids.add(slotted.addRecord(new Record(i, "name" + i)));
+        }
+        int numPages = slotted.getNumDataPages();
+        for (int i = 0; i < 500; i += 2) {
+            slotted.deleteRecord(rids.get(i));
+        }
+        // longer records fill the holes left behind (compacting pages)
+        for (int i = 0; i < 250; ++i) {
+            slotted.addRecord(new Record(i, "longer name " + i));
+        }
+        assertEquals(numPages, slotted.getNumDataPages());
+        int count = 0;
+        for (Record r : slotted) {
+            ++count;
+        }
+        assertEquals(500, count);
+    }
+
+    /**
+     * Test that a batch of records fills the holes in existing pages before
+     * allocating new ones, just like inserting the records one at a time.
+     */
+    @Test
+    public void testAddRecords() {
+        int numRecords = table.getNumRecordsPerPage() * 2 + 42;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(table.addRecord(createRecordWithAllTypes(i)));
+        }
+        for (int i = 0; i < numRecords; i += 2) {
+            table.deleteRecord(rids.get(i));
+        }
+
+        List<Record> batch = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            batch.add(createRecordWithAllTypes(numRecords + i));
+        }
+        List<RecordId> batchRids = table.addRecords(batch);
+        assertEquals(numRecords, batchRids.size());
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(batch.get(i), table.getRecord(batchRids.get(i)));
+        }
+        // the first half of the batch went into the holes left by the deletes
+        for (int i = 0; i < (numRecords + 1) / 2; ++i) {
+            assertEquals(rids.get(2 * i), batchRids.get(i));
+        }
+        assertEquals(4, table.getNumDataPages());
+        assertEquals(numRecords / 2 + numRecords, table.getStats().getNumRecords());
+
+        // a record that does not match the schema fails the whole batch
+        try {
+            table.addRecords(Arrays.asList(createRecordWithAllTypes(0), new Record(1)));
+            fail();
+        } catch (DatabaseException e) {
+            /* do nothing */
+        }
+        assertEquals(numRecords / 2 + numRecords, table.getStats().getNumRecords());
+    }
+
+    /**
+     * Test adding a batch of records to a slotted table.
+     */
+    @Test
+    public void testSlottedAddRecords() {
+        Schema schema = createSchemaWithLongString();
+        Table slotted = createSlottedTable(schema);
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            rids.add(slotted.addRecord(new Record(i, "name" + i)));
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            slotted.deleteRecord(rids.get(i));
+        }
+
+        List<Record> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            batch.add(new Record(i, i % 2 == 0 ? "n" : "a somewhat longer name " + i));
+        }
+        List<RecordId> batchRids = slotted.addRecords(batch);
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(batch.get(i), slotted.getRecord(batchRids.get(i)));
+        }
+        assertEquals(new HashSet<>(batchRids).size(), batchRids.size());
+        int count = 0;
+        for (Record r : slotted) {
+            ++count;
+        }
+        assertEquals(1000 - 334 + 1000, count);
+    }
+
+    /**
+     * Test inserting, reading, and deleting records from several threads at once, on
+     * both record formats.
+     */
+    @Test
+    public void testConcurrentOperations() throws InterruptedException {
+        Schema longSchema = createSchemaWithLongString();
+        Table slotted = createSlottedTable(longSchema);
+        int numThreads = 4;
+        int perThread = 2000;
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            final int offset = t * perThread;
+            threads.add(new Thread(() -> {
+                try {
+                    List<RecordId> rids = new ArrayList<>();
+                    List<RecordId> slottedRids = new ArrayList<>();
+                    for (int i = offset; i < offset + perThread; ++i) {
+                        rids.add(table.addRecord(createRecordWithAllTypes(i)));
+                        slottedRids.add(slotted.addRecord(new Record(i, "name" + i)));
+                    }
+                    for (int i = 0; i < perThread; ++i) {
+                        assertEquals(createRecordWithAllTypes(offset + i), table.getRecord(rids.get(i)));
+                        assertEquals(new Record(offset + i, "name" + (offset + i)),
+                                     slotted.getRecord(slottedRids.get(i)));
+                    }
+                    // delete every other record, and grow the rest of the slotted records
+                    for (int i = 0; i < perThread; ++i) {
+                        if (i % 2 == 0) {
+                            table.deleteRecord(rids.get(i));
+                            slotted.deleteRecord(slottedRids.get(i));
+                        } else {
+                            slotted.updateRecord(slottedRids.get(i),
+                                                 new Record(offset + i, "a much longer name " + (offset + i)));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        HashSet<Record> expected = new HashSet<>();
+        HashSet<Record> expectedSlotted = new HashSet<>();
+        for (int i = 1; i < numThreads * perThread; i += 2) {
+            expected.add(createRecordWithAllTypes(i));
+            expectedSlotted.add(new Record(i, "a much longer name " + i));
+        }
+        HashSet<Record> actual = new HashSet<>();
+        for (Record record : table) {
+            actual.add(record);
+        }
+        HashSet<Record> actualSlotted = new HashSet<>();
+        for (Record record : slotted) {
+            actualSlotted.add(record);
+        }
+        assertEquals(expected, actual);
+        assertEquals(expectedSlotted, actualSlotted);
+        assertEquals(expected.size(), table.getStats().getNumRecords());
+    }
+
+    /**
+     * Test inserting, updating, and deleting records of a PAX table, across several pages.
+     */
+    @Test
+    public void testPaxInsertUpdateDelete() {
+        Table pax = createPaxTable();
+        assertEquals(Table.RecordFormat.PAX, pax.getRecordFormat());
+        assertEquals(table.getNumRecordsPerPage(), pax.getNumRecordsPerPage());
+
+        int numRecords = pax.getNumRecordsPerPage() * 3;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(pax.addRecord(createRecordWithAllTypes(i)));
+        }
+        assertEquals(3, pax.getNumDataPages());
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(createRecordWithAllTypes(i), pax.getRecord(rids.get(i)));
+        }
+
+        List<Record> expected = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            if (i % 3 == 0) {
+                pax.deleteRecord(rids.get(i));
+            } else if (i % 3 == 1) {
+                Record updated = new Record(true, -i, "b", 2.5f);
+                assertEquals(createRecordWithAllTypes(i), pax.updateRecord(rids.get(i), updated));
+                expected.add(updated);
+            } else {
+                expected.add(createRecordWithAllTypes(i));
+            }
+        }
+        List<Record> actual = new ArrayList<>();
+        for (Record record : pax) {
+            actual.add(record);
+        }
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), pax.getStats().getNumRecords());
+    }
+
+    /**
+     * Test that scans of some columns of a table only return those columns.
+     */
+    @Test
+    public void testPaxProjectedIterator() {
+        Table pax = createPaxTable();
+        for (int i = 0; i < 1000; ++i) {
+            Record record = createRecordWithAllTypes(i);
+            pax.addRecord(record);
+            table.addRecord(record);
+        }
+
+        // records only have the given columns, in the given order
+        for (Table t : Arrays.asList(pax, table)) {
+            BacktrackingIterator<Record> iter = t.iterator(Arrays.asList(3, 1), null);
+            for (int i = 0; i < 1000; ++i) {
+                assertTrue(iter.hasNext());
+                Record record = iter.next();
+                assertEquals(2, record.size());
+                assertEquals(1.2f, record.getValue(0).getFloat(), 0);
+                assertEquals(i, record.getValue(1).getInt());
+            }
+            assertFalse(iter.hasNext());
+        }
+
+        // a full scan still returns whole records
+        BacktrackingIterator<Record> iter = pax.iterator();
+        checkSequentialRecords(0, 1000, 1, iter);
+    }
 }